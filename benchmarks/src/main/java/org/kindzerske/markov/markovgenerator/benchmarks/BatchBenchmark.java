@@ -0,0 +1,75 @@
+package org.kindzerske.markov.markovgenerator.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.kindzerske.markov.markovgenerator.BatchGenerator;
+import org.kindzerske.markov.markovgenerator.MarkovGenerator;
+import org.kindzerske.markov.markovgenerator.MarkovModelBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Batches of BATCH_SIZE short texts from one frozen model, generated by a
+ * BatchGenerator of each parallelism and handed to a listener which only
+ * consumes them. Scores are texts (outputs) per second, which should scale
+ * with the parallelism up to the number of cores.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+	private static final int BATCH_SIZE = 10000;
+
+	@Param({ "7" })
+	public int kOrder;
+
+	@Param({ "PaulGraham_September2013.txt", "synthetic-4MB" })
+	public String corpus;
+
+	@Param({ "200" })
+	public int textLength;
+
+	@Param({ "1", "2", "4", "8" })
+	public int parallelism;
+
+	private BatchGenerator batchGenerator;
+
+	@Setup
+	public void setUp() throws IOException {
+		MarkovGenerator markovGenerator = new MarkovGenerator(
+				new MarkovModelBuilder(kOrder).addText(Corpora.load(corpus)).build().freeze());
+		batchGenerator = new BatchGenerator(markovGenerator, parallelism);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void generateBatch(final Blackhole blackhole) throws IOException {
+		batchGenerator.generate(BATCH_SIZE, textLength, ThreadLocalRandom.current().nextLong(),
+				new BatchGenerator.ResultListener() {
+					@Override
+					public void accept(int index, long seed, String text) {
+						blackhole.consume(text);
+					}
+				});
+	}
+}
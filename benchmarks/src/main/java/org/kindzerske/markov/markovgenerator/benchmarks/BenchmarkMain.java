@@ -0,0 +1,59 @@
+package org.kindzerske.markov.markovgenerator.benchmarks;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Without arguments runs every benchmark with
+ * the GC profiler (allocation rate, gc.alloc.rate.norm per op), the
+ * GenerationBenchmark once per thread count of 1, 2, 4 and the number of
+ * cores. Each run writes its results to a file of its own in the working
+ * directory: jmh-training.json, jmh-hashmap.json, jmh-mixed.json,
+ * jmh-batch.json and jmh-generation-tN.json per thread count N. Any arguments
+ * are passed on to the JMH command line instead, e.g. "GenerationBenchmark -t
+ * 8 -prof gc".
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public final class BenchmarkMain {
+
+	private BenchmarkMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		run(TrainingBenchmark.class.getSimpleName(), 1, "training.json");
+		run(HashMapBenchmark.class.getSimpleName(), 1, "hashmap.json");
+		// One group of MixedLoadBenchmark is 4 threads
+		run(MixedLoadBenchmark.class.getSimpleName(), 4, "mixed.json");
+		run(BatchBenchmark.class.getSimpleName(), 1, "batch.json");
+		Set<Integer> threadCounts = new LinkedHashSet<Integer>();
+		for (int threadCount : new int[] { 1, 2, 4, Runtime.getRuntime().availableProcessors() }) {
+			threadCounts.add(threadCount);
+		}
+		for (int threadCount : threadCounts) {
+			run(GenerationBenchmark.class.getSimpleName(), threadCount, "generation-t" + threadCount + ".json");
+		}
+	}
+
+	private static Collection<RunResult> run(String benchmark, int threadCount, String resultFile)
+			throws RunnerException {
+		ChainedOptionsBuilder options = new OptionsBuilder().include(benchmark).threads(threadCount)
+				.addProfiler(GCProfiler.class).resultFormat(ResultFormatType.JSON).result("jmh-" + resultFile);
+		return new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,97 @@
+package org.kindzerske.markov.markovgenerator.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.kindzerske.markov.markovgenerator.MarkovGenerator;
+import org.kindzerske.markov.markovgenerator.MarkovModel;
+import org.kindzerske.markov.markovgenerator.MarkovModelBuilder;
+
+/**
+ * Corpora the benchmarks train on, by name: a file of the bundled sample_texts
+ * (e.g. "PaulGraham_September2013.txt"), or "synthetic-&lt;n&gt;MB" for a
+ * corpus of n MB generated locally from all sample texts with a fixed seed,
+ * so it is the same on every machine and run. Newlines are turned into
+ * whitespace as by MarkovTrainer, so the text can also be used as
+ * pre-normalized input.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public final class Corpora {
+
+	public static final String SAMPLE_TEXTS_DIR = "/sample_texts/";
+	public static final String[] SAMPLE_TEXTS = { "PaulGraham_September2013.txt", "BarackObama_2008.txt" };
+
+	private static final Pattern SYNTHETIC = Pattern.compile("synthetic-(\\d+)MB");
+	// kOrder of the model the synthetic corpora are generated from
+	private static final int SYNTHETIC_K_ORDER = 6;
+	private static final int SYNTHETIC_PIECE_LENGTH = 1 << 16;
+
+	private static final Map<String, String> CACHE = new ConcurrentHashMap<String, String>();
+
+	private Corpora() {
+	}
+
+	/**
+	 * Loads (or generates) a corpus, cached per JVM.
+	 *
+	 * @param name
+	 *            Sample text file name or "synthetic-&lt;n&gt;MB"
+	 * @return String normalized corpus
+	 * @throws IOException
+	 */
+	public static String load(String name) throws IOException {
+		String corpus = CACHE.get(name);
+		if (corpus == null) {
+			Matcher matcher = SYNTHETIC.matcher(name);
+			corpus = matcher.matches() ? generateSynthetic(Integer.parseInt(matcher.group(1)) << 20)
+					: readSampleText(name);
+			CACHE.put(name, corpus);
+		}
+		return corpus;
+	}
+
+	private static String readSampleText(String name) throws IOException {
+		InputStream in = Corpora.class.getResourceAsStream(SAMPLE_TEXTS_DIR + name);
+		if (in == null) {
+			throw new IOException("No sample text '" + name + "'");
+		}
+		StringBuilder stringBuilder = new StringBuilder();
+		Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+		try {
+			char[] buffer = new char[1 << 16];
+			int read;
+			while ((read = reader.read(buffer)) > 0) {
+				stringBuilder.append(buffer, 0, read);
+			}
+		} finally {
+			reader.close();
+		}
+		return stringBuilder.toString().replace('\r', ' ').replace('\n', ' ');
+	}
+
+	private static String generateSynthetic(int length) throws IOException {
+		MarkovModelBuilder markovModelBuilder = new MarkovModelBuilder(SYNTHETIC_K_ORDER);
+		for (String sampleText : SAMPLE_TEXTS) {
+			markovModelBuilder.addText(readSampleText(sampleText));
+		}
+		MarkovModel markovModel = markovModelBuilder.build();
+		MarkovGenerator markovGenerator = new MarkovGenerator(markovModel);
+
+		// Pieces end early on dead ends, so append seeded pieces until full
+		StringBuilder stringBuilder = new StringBuilder(length + SYNTHETIC_PIECE_LENGTH);
+		for (long seed = 0; stringBuilder.length() < length; seed++) {
+			stringBuilder.append(markovGenerator.generate(SYNTHETIC_PIECE_LENGTH, seed, null)).append(' ');
+		}
+		stringBuilder.setLength(length);
+		return stringBuilder.toString();
+	}
+}
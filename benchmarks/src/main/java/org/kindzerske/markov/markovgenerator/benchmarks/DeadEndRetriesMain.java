@@ -0,0 +1,80 @@
+package org.kindzerske.markov.markovgenerator.benchmarks;
+
+import java.io.IOException;
+
+import org.kindzerske.markov.markovgenerator.DeadEndAnalysis;
+import org.kindzerske.markov.markovgenerator.MarkovGenerator;
+import org.kindzerske.markov.markovgenerator.MarkovListener;
+import org.kindzerske.markov.markovgenerator.MarkovModel;
+import org.kindzerske.markov.markovgenerator.MarkovModelBuilder;
+
+/**
+ * Reports how many texts end short of the requested length with plain
+ * generation, and how many extra texts retrying with the next seed until the
+ * text is full takes, against generation with a DeadEndAnalysis which needs
+ * none. Not a JMH benchmark, run with
+ * "java -cp target/benchmarks.jar ...benchmarks.DeadEndRetriesMain [textLength [corpus...]]",
+ * by default 1000 texts of 500 chars over every bundled sample text at kOrder
+ * 5, 7 and 9.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public final class DeadEndRetriesMain {
+
+	private static final int[] K_ORDERS = { 5, 7, 9 };
+	private static final int TEXT_COUNT = 1000;
+	private static final String[] CORPORA = { "BarackObama_2008.txt", "PaulGraham_September2013.txt",
+			"PaulGraham_September2013_veryshort.txt" };
+
+	private DeadEndRetriesMain() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		int textLength = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		String[] corpora = CORPORA;
+		if (args.length > 1) {
+			corpora = new String[args.length - 1];
+			System.arraycopy(args, 1, corpora, 0, corpora.length);
+		}
+		System.out.println(String.format("%-40s %6s %8s %9s %7s %7s %11s %7s %9s", "corpus", "kOrder", "keys",
+				"dead ends", "doomed", "risky", "analysis ms", "short", "retries"));
+		for (int kOrder : K_ORDERS) {
+			int totalShort = 0;
+			long totalRetries = 0;
+			for (String corpus : corpora) {
+				MarkovModel markovModel = new MarkovModelBuilder(kOrder).addText(Corpora.load(corpus)).build();
+				long start = System.nanoTime();
+				DeadEndAnalysis deadEndAnalysis = new DeadEndAnalysis(markovModel);
+				long analysisMillis = (System.nanoTime() - start) / 1000000;
+
+				MarkovGenerator plainGenerator = new MarkovGenerator(markovModel);
+				MarkovGenerator markovGenerator = new MarkovGenerator(markovModel, null, MarkovListener.NONE,
+						deadEndAnalysis);
+				int shortTexts = 0;
+				long retries = 0;
+				// Seeds past the last text, for the retries
+				long retrySeed = TEXT_COUNT;
+				for (long seed = 0; seed < TEXT_COUNT; seed++) {
+					if (plainGenerator.generate(textLength, seed, null).length() < textLength) {
+						shortTexts++;
+						do {
+							retries++;
+						} while (plainGenerator.generate(textLength, retrySeed++, null).length() < textLength);
+					}
+					if (markovGenerator.generate(textLength, seed, null).length() != textLength) {
+						throw new IllegalStateException("Text " + seed + " of " + corpus + " ended short");
+					}
+				}
+				totalShort += shortTexts;
+				totalRetries += retries;
+				System.out.println(String.format("%-40s %6d %8d %9d %7d %7d %11d %7d %9d", corpus, kOrder,
+						markovModel.getKeyCount(), deadEndAnalysis.getDeadEndCount(),
+						deadEndAnalysis.getDoomedStateCount(), deadEndAnalysis.getRiskyStateCount(), analysisMillis,
+						shortTexts, retries));
+			}
+			System.out.println(String.format("%-40s %6d %8s %9s %7s %7s %11s %7d %9d", "total", kOrder, "", "", "", "",
+					"", totalShort, totalRetries));
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.kindzerske.markov.markovgenerator.benchmarks;
+
+import java.io.IOException;
+
+import org.kindzerske.markov.markovgenerator.HashMarkovModel;
+import org.kindzerske.markov.markovgenerator.MarkovModel;
+import org.kindzerske.markov.markovgenerator.MarkovModelBuilder;
+
+/**
+ * Reports the retained heap of a trained HashMarkovModel per key, and of its
+ * frozen copy, measured as the used heap after a full GC with and without the
+ * model. Not a JMH
+ * benchmark, run with
+ * "java -cp target/benchmarks.jar ...benchmarks.FootprintMain [corpus...]",
+ * by default over the sample texts and synthetic-16MB at kOrder 3, 7 and 12.
+ * Use a heap large enough for the corpus, e.g. -Xmx2g.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public final class FootprintMain {
+
+	private static final int[] K_ORDERS = { 3, 7, 12 };
+
+	private FootprintMain() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		String[] corpora = args.length > 0 ? args
+				: new String[] { Corpora.SAMPLE_TEXTS[0], Corpora.SAMPLE_TEXTS[1], "synthetic-16MB" };
+		System.out.println(String.format("%-30s %6s %10s %12s %10s %12s", "corpus", "kOrder", "keys", "heap bytes",
+				"bytes/key", "frozen/key"));
+		for (String corpus : corpora) {
+			String text = Corpora.load(corpus);
+			for (int kOrder : K_ORDERS) {
+				long before = usedHeap();
+				HashMarkovModel markovModel = new MarkovModelBuilder(kOrder).addText(text).build();
+				long retained = usedHeap() - before;
+				int keyCount = markovModel.getKeyCount();
+
+				MarkovModel frozenMarkovModel = markovModel.freeze();
+				markovModel = null;
+				long frozenRetained = usedHeap() - before;
+				System.out.println(String.format("%-30s %6d %10d %12d %10.1f %12.1f", corpus, kOrder, keyCount,
+						retained, retained / (double) keyCount, frozenRetained / (double) keyCount));
+				frozenMarkovModel.getKeyCount();
+			}
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// Repeat until the used heap settles
+		for (int n = 0; n < 5; n++) {
+			System.gc();
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+		return used;
+	}
+}
@@ -0,0 +1,130 @@
+package org.kindzerske.markov.markovgenerator.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.kindzerske.markov.markovgenerator.HashMarkovModel;
+import org.kindzerske.markov.markovgenerator.MarkovGenerator;
+import org.kindzerske.markov.markovgenerator.MarkovModel;
+import org.kindzerske.markov.markovgenerator.MarkovModelBuilder;
+import org.kindzerske.markov.markovgenerator.SplitMixRandom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Generation from one model shared by all benchmark threads (run with -t, or
+ * through BenchmarkMain which sweeps thread counts). Nothing is shared but the
+ * read-only model, so the score per thread of the jmh-generation-tN.json
+ * results should hold up to the number of cores. generate* scores are
+ * texts of TEXT_LENGTH chars, sampleSubsequentChar scores are single draws.
+ * generate and generateSeeded are the unseeded/seeded pair, a seeded text
+ * (a SplitMixRandom per call) should score no lower than an unseeded one.
+ * generateStreamed writes the text to a Writer which discards it, for the
+ * cost of streaming generation without the String.
+ * The model is the trained HashMarkovModel, or its frozen copy on or off the
+ * heap.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerationBenchmark {
+
+	private static final int TEXT_LENGTH = 2000;
+	private static final int STATE_COUNT = 1 << 12;
+	private static final Writer NULL_WRITER = new Writer() {
+		@Override
+		public void write(int c) {
+		}
+
+		@Override
+		public void write(char[] buffer, int offset, int length) {
+		}
+
+		@Override
+		public Writer append(char c) {
+			return this;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	@Param({ "3", "5", "7", "9", "12" })
+	public int kOrder;
+
+	@Param({ "PaulGraham_September2013.txt", "synthetic-4MB" })
+	public String corpus;
+
+	@Param({ "hash", "frozen", "offheap" })
+	public String layout;
+
+	private MarkovModel markovModel;
+	private MarkovGenerator markovGenerator;
+	private long[] states;
+
+	@Setup
+	public void setUp() throws IOException {
+		HashMarkovModel hashMarkovModel = new MarkovModelBuilder(kOrder).addText(Corpora.load(corpus)).build();
+		if ("frozen".equals(layout)) {
+			markovModel = hashMarkovModel.freeze();
+		} else if ("offheap".equals(layout)) {
+			markovModel = hashMarkovModel.freeze(true);
+		} else {
+			markovModel = hashMarkovModel;
+		}
+		markovGenerator = new MarkovGenerator(markovModel);
+		SplitMixRandom rand = new SplitMixRandom(kOrder);
+		states = new long[STATE_COUNT];
+		for (int n = 0; n < STATE_COUNT; n++) {
+			states[n] = markovModel.getRandomState(rand);
+		}
+	}
+
+	@Benchmark
+	public String generate() {
+		return markovGenerator.generate(TEXT_LENGTH);
+	}
+
+	@Benchmark
+	public String generateSeeded() {
+		return markovGenerator.generate(TEXT_LENGTH, ThreadLocalRandom.current().nextLong(), null);
+	}
+
+	@Benchmark
+	public long generateStreamed() throws IOException {
+		return markovGenerator.generate(TEXT_LENGTH, ThreadLocalRandom.current(), null, NULL_WRITER);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(STATE_COUNT)
+	public void sampleSubsequentChar(Blackhole blackhole) {
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		for (long state : states) {
+			blackhole.consume(markovModel.getRandomSubsequentChar(state, rand));
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package org.kindzerske.markov.markovgenerator.benchmarks;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.kindzerske.markov.markovgenerator.MarkovHashMap;
+import org.kindzerske.markov.markovgenerator.MarkovProbingHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * put() and get() of the String keyed tables, MarkovHashMap (chained) against
+ * MarkovProbingHashMap (open addressing), over the distinct k-grams of a
+ * corpus. Scores are per key. chainedPutLatency samples the time of single
+ * puts into an ever growing MarkovHashMap, so its tail percentiles show any
+ * stall of a resize.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashMapBenchmark {
+
+	// Keys per invocation, the distinct k-grams are cycled up to this count
+	private static final int KEY_COUNT = 1 << 16;
+	// Small start, so put() includes the resizes as in training
+	private static final int INITIAL_SIZE = 11;
+	private static final float LOAD_FACTOR = 0.75f;
+
+	@Param({ "3", "7", "12" })
+	public int kOrder;
+
+	@Param({ "PaulGraham_September2013.txt", "synthetic-4MB" })
+	public String corpus;
+
+	private String[] keys;
+	private MarkovHashMap<String, String> markovHashMap;
+	private MarkovProbingHashMap<String, String> markovProbingHashMap;
+
+	@Setup
+	public void setUp() throws IOException {
+		String text = Corpora.load(corpus);
+		Set<String> distinctKeys = new LinkedHashSet<String>();
+		for (int n = 0; n + kOrder <= text.length() && distinctKeys.size() < KEY_COUNT; n++) {
+			distinctKeys.add(text.substring(n, n + kOrder));
+		}
+		String[] distinct = distinctKeys.toArray(new String[distinctKeys.size()]);
+		keys = new String[KEY_COUNT];
+		for (int n = 0; n < KEY_COUNT; n++) {
+			// Fresh copies, so hash codes are computed as for keys cut from
+			// a text
+			keys[n] = new String(distinct[n % distinct.length].toCharArray());
+		}
+
+		markovHashMap = new MarkovHashMap<String, String>(INITIAL_SIZE, LOAD_FACTOR);
+		markovProbingHashMap = new MarkovProbingHashMap<String, String>(INITIAL_SIZE, LOAD_FACTOR);
+		for (String key : keys) {
+			markovHashMap.put(key, key);
+			markovProbingHashMap.put(key, key);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(KEY_COUNT)
+	public MarkovHashMap<String, String> chainedPut() {
+		MarkovHashMap<String, String> map = new MarkovHashMap<String, String>(INITIAL_SIZE, LOAD_FACTOR);
+		for (String key : keys) {
+			map.put(key, key);
+		}
+		return map;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(KEY_COUNT)
+	public void chainedGet(Blackhole blackhole) {
+		for (String key : keys) {
+			blackhole.consume(markovHashMap.get(key));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(KEY_COUNT)
+	public MarkovProbingHashMap<String, String> probingPut() {
+		MarkovProbingHashMap<String, String> map = new MarkovProbingHashMap<String, String>(INITIAL_SIZE, LOAD_FACTOR);
+		for (String key : keys) {
+			map.put(key, key);
+		}
+		return map;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(KEY_COUNT)
+	public void probingGet(Blackhole blackhole) {
+		for (String key : keys) {
+			blackhole.consume(markovProbingHashMap.get(key));
+		}
+	}
+
+	/**
+	 * A MarkovHashMap grown by one distinct key per put, started afresh once
+	 * it holds GROWING_LIMIT keys
+	 */
+	@State(Scope.Thread)
+	public static class GrowingMap {
+
+		private static final int GROWING_LIMIT = 1 << 22;
+
+		private MarkovHashMap<Long, Long> map;
+		private long next;
+
+		@Setup(Level.Iteration)
+		public void setUp() {
+			map = new MarkovHashMap<Long, Long>(INITIAL_SIZE, LOAD_FACTOR);
+			next = 0;
+		}
+
+		Long nextKey() {
+			if (next == GROWING_LIMIT) {
+				setUp();
+			}
+			return Long.valueOf(next++);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public Long chainedPutLatency(GrowingMap growingMap) {
+		Long key = growingMap.nextKey();
+		return growingMap.map.put(key, key);
+	}
+}
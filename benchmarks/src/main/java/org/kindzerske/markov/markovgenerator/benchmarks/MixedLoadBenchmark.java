@@ -0,0 +1,86 @@
+package org.kindzerske.markov.markovgenerator.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.kindzerske.markov.markovgenerator.ConcurrentMarkovModel;
+import org.kindzerske.markov.markovgenerator.MarkovGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A ConcurrentMarkovModel trained on half of a corpus, then generated from
+ * while the other half (over and over) is fed in. The mixed group runs one
+ * ingestion thread next to three generating threads, generateOnly is the
+ * same model without ingestion for comparison. ingest scores are slices of
+ * SLICE_LENGTH chars, generate scores are texts of TEXT_LENGTH chars.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixedLoadBenchmark {
+
+	private static final int TEXT_LENGTH = 2000;
+	private static final int SLICE_LENGTH = 1 << 12;
+
+	@Param({ "5", "7" })
+	public int kOrder;
+
+	@Param({ "PaulGraham_September2013.txt", "synthetic-4MB" })
+	public String corpus;
+
+	private ConcurrentMarkovModel markovModel;
+	private MarkovGenerator markovGenerator;
+	private String ingestText;
+	private final AtomicInteger ingestOffset = new AtomicInteger();
+
+	@Setup
+	public void setUp() throws IOException {
+		String text = Corpora.load(corpus);
+		markovModel = new ConcurrentMarkovModel(kOrder);
+		markovModel.train(text.substring(0, text.length() / 2));
+		markovGenerator = new MarkovGenerator(markovModel);
+		ingestText = text.substring(text.length() / 2);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public void ingest() {
+		int slices = Math.max(1, ingestText.length() / SLICE_LENGTH);
+		int start = (ingestOffset.getAndIncrement() % slices) * SLICE_LENGTH;
+		markovModel.train(ingestText.substring(start, Math.min(ingestText.length(), start + SLICE_LENGTH)));
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public String generate() {
+		return markovGenerator.generate(TEXT_LENGTH);
+	}
+
+	@Benchmark
+	@Group("readOnly")
+	@GroupThreads(3)
+	public String generateOnly() {
+		return markovGenerator.generate(TEXT_LENGTH);
+	}
+}
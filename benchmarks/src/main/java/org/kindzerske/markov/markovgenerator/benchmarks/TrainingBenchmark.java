@@ -0,0 +1,57 @@
+package org.kindzerske.markov.markovgenerator.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.kindzerske.markov.markovgenerator.MarkovModel;
+import org.kindzerske.markov.markovgenerator.MarkovModelBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Training a model from a corpus held in memory, i.e. the k-gram scan,
+ * hashmap inserts and (for parallelism &gt; 1) the chunk merge, without file
+ * I/O.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainingBenchmark {
+
+	@Param({ "3", "5", "7", "9", "12" })
+	public int kOrder;
+
+	@Param({ "PaulGraham_September2013.txt", "synthetic-4MB" })
+	public String corpus;
+
+	@Param({ "1", "4" })
+	public int parallelism;
+
+	private String text;
+
+	@Setup
+	public void setUp() throws IOException {
+		text = Corpora.load(corpus);
+	}
+
+	@Benchmark
+	public MarkovModel train() throws IOException {
+		return new MarkovModelBuilder(kOrder).setParallelism(parallelism).addText(new StringReader(text)).build();
+	}
+}
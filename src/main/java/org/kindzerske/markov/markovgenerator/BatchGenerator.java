@@ -0,0 +1,209 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates many independent texts from one model on several threads. Item i
+ * of a batch is seeded with baseSeed + i, so it is exactly the text of
+ * MarkovGenerator.generate(textLength, baseSeed + i, null) whatever the
+ * number of threads or the order in which items finish.
+ *
+ * Results are handed to a ResultListener on the calling thread as they
+ * finish, so they can be written out one by one (e.g. one per line) without
+ * holding the batch, and the listener needs no locking. Workers wait once
+ * RESULT_QUEUE_FACTOR results per thread are pending, so a slow listener
+ * holds the batch back rather than letting results pile up.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class BatchGenerator {
+
+	// Results pending per worker thread before the workers wait
+	private static final int RESULT_QUEUE_FACTOR = 64;
+
+	/**
+	 * Receives the texts of a batch, on the thread which called generate(), in
+	 * the order they finish
+	 */
+	public interface ResultListener {
+		/**
+		 * @param index
+		 *            Index of the item in the batch
+		 * @param seed
+		 *            Seed the item was generated with
+		 * @param text
+		 *            Generated text
+		 * @throws IOException
+		 *             Ends the batch
+		 */
+		void accept(int index, long seed, String text) throws IOException;
+	}
+
+	private static final class Result {
+		private final int index;
+		private final String text;
+		private final Throwable failure;
+
+		Result(int index, String text, Throwable failure) {
+			this.index = index;
+			this.text = text;
+			this.failure = failure;
+		}
+	}
+
+	private final MarkovGenerator markovGenerator;
+	private final int parallelism;
+
+	/**
+	 * Constructor
+	 *
+	 * @param markovGenerator
+	 *            Generator of every item, not verbose
+	 * @param parallelism
+	 *            Number of threads generating, 1 generates on the calling
+	 *            thread
+	 */
+	public BatchGenerator(MarkovGenerator markovGenerator, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+		}
+		this.markovGenerator = markovGenerator;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Generates a batch from a random base seed, see generate(count,
+	 * textLength, baseSeed, listener).
+	 *
+	 * @param count
+	 *            Number of texts
+	 * @param textLength
+	 *            Length of each text
+	 * @param listener
+	 *            Receives every text, on the calling thread
+	 * @return long Base seed of the batch, to reproduce it
+	 * @throws IOException
+	 *             If the listener throws
+	 */
+	public long generate(int count, int textLength, ResultListener listener) throws IOException {
+		long baseSeed = ThreadLocalRandom.current().nextLong();
+		generate(count, textLength, baseSeed, listener);
+		return baseSeed;
+	}
+
+	/**
+	 * Generates a batch and returns it in item order.
+	 *
+	 * @param count
+	 *            Number of texts
+	 * @param textLength
+	 *            Length of each text
+	 * @param baseSeed
+	 *            Seed of item 0, item i is seeded with baseSeed + i
+	 * @return List of count texts
+	 */
+	public List<String> generate(int count, int textLength, long baseSeed) {
+		final String[] texts = new String[count];
+		try {
+			generate(count, textLength, baseSeed, new ResultListener() {
+				@Override
+				public void accept(int index, long seed, String text) {
+					texts[index] = text;
+				}
+			});
+		} catch (IOException e) {
+			// The listener does not throw
+			throw new IllegalStateException(e);
+		}
+		return Arrays.asList(texts);
+	}
+
+	/**
+	 * Generates count texts, handing each to the listener as it finishes.
+	 *
+	 * @param count
+	 *            Number of texts
+	 * @param textLength
+	 *            Length of each text
+	 * @param baseSeed
+	 *            Seed of item 0, item i is seeded with baseSeed + i
+	 * @param listener
+	 *            Receives every text, on the calling thread
+	 * @throws IOException
+	 *             If the listener throws, the rest of the batch is abandoned
+	 */
+	public void generate(final int count, final int textLength, final long baseSeed, ResultListener listener)
+			throws IOException {
+		if (parallelism == 1 || count < 2) {
+			for (int index = 0; index < count; index++) {
+				listener.accept(index, baseSeed + index,
+						markovGenerator.generate(textLength, baseSeed + index, null));
+			}
+			return;
+		}
+
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final AtomicBoolean abandoned = new AtomicBoolean();
+		final BlockingQueue<Result> results = new ArrayBlockingQueue<Result>(parallelism * RESULT_QUEUE_FACTOR);
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int n = 0; n < Math.min(parallelism, count); n++) {
+			Thread worker = new Thread("BatchGenerator-" + n) {
+				@Override
+				public void run() {
+					int index;
+					while (!abandoned.get() && (index = nextIndex.getAndIncrement()) < count) {
+						Result result;
+						try {
+							result = new Result(index, markovGenerator.generate(textLength, baseSeed + index, null),
+									null);
+						} catch (Throwable e) {
+							// Errors too, a worker which died without a result would
+							// leave the caller waiting for it forever
+							result = new Result(index, null, e);
+						}
+						try {
+							results.put(result);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			};
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+
+		try {
+			for (int received = 0; received < count; received++) {
+				Result result = results.take();
+				if (result.failure instanceof RuntimeException) {
+					throw (RuntimeException) result.failure;
+				} else if (result.failure instanceof Error) {
+					throw (Error) result.failure;
+				} else if (result.failure != null) {
+					throw new IllegalStateException("Generating item " + result.index + " failed", result.failure);
+				}
+				listener.accept(result.index, baseSeed + result.index, result.text);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while generating a batch", e);
+		} finally {
+			abandoned.set(true);
+			for (Thread worker : workers) {
+				// Releases any worker waiting on a full queue
+				worker.interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MarkovModel which keeps training while it is generated from. Texts are added
+ * with train() by any number of ingestion threads, alongside any number of
+ * MarkovGenerator calls, so new text is picked up without building a new
+ * model.
+ *
+ * A state is the index of its key in a dense, append-only index, so a state
+ * stays valid however the model grows and random keys are one uniform draw.
+ * Keys are looked up in a ConcurrentHashMap, which never blocks readers.
+ *
+ * Every key has its own lock, taken by writers only. A key's subsequent
+ * chars and their cumulative counts are one immutable Row, and every count
+ * publishes a new Row (copy on write, a row is as long as the key's distinct
+ * subsequent chars, usually a handful). A reader reads the row once and draws
+ * from it alone, so each draw comes from a distribution the key really had,
+ * never from a half updated one. Readers take no lock.
+ *
+ * There is no back off, every key is of kOrder chars.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class ConcurrentMarkovModel implements MarkovModel {
+
+	// Keys per page of the dense index
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	/**
+	 * Subsequent chars of a key, sorted, with their cumulative counts. Never
+	 * changes once published.
+	 */
+	private static final class Row {
+		private final char[] chars;
+		private final int[] cumulativeCounts;
+
+		Row(char[] chars, int[] cumulativeCounts) {
+			this.chars = chars;
+			this.cumulativeCounts = cumulativeCounts;
+		}
+
+		int getCount() {
+			return chars.length == 0 ? 0 : cumulativeCounts[chars.length - 1];
+		}
+	}
+
+	/**
+	 * Key with its subsequent chars, locked by writers while they count
+	 */
+	private static final class LiveMarkov {
+		private final String key;
+		private final int index;
+		private volatile Row row = new Row(new char[0], new int[0]);
+
+		LiveMarkov(String key, int index) {
+			this.key = key;
+			this.index = index;
+		}
+
+		synchronized void add(char subsequentChar) {
+			Row current = row;
+			int size = current.chars.length;
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				char c = current.chars[middle];
+				if (c < subsequentChar) {
+					low = middle + 1;
+				} else if (c > subsequentChar) {
+					high = middle - 1;
+				} else {
+					// Same chars, the counts from the char on grow by one
+					int[] cumulativeCounts = current.cumulativeCounts.clone();
+					for (int n = middle; n < size; n++) {
+						cumulativeCounts[n]++;
+					}
+					row = new Row(current.chars, cumulativeCounts);
+					return;
+				}
+			}
+
+			// New char, insert it at low into a copy of the row
+			char[] chars = new char[size + 1];
+			int[] cumulativeCounts = new int[size + 1];
+			for (int n = 0, m = 0; n <= size; n++) {
+				if (n == low) {
+					chars[n] = subsequentChar;
+					cumulativeCounts[n] = (n > 0 ? cumulativeCounts[n - 1] : 0) + 1;
+				} else {
+					chars[n] = current.chars[m];
+					cumulativeCounts[n] = current.cumulativeCounts[m] + (n > low ? 1 : 0);
+					m++;
+				}
+			}
+			row = new Row(chars, cumulativeCounts);
+		}
+
+		int getCount() {
+			return row.getCount();
+		}
+
+		char getRandomSubsequentChar(Random rand) {
+			// One row for the whole draw
+			Row current = row;
+			int target = rand.nextInt(current.getCount());
+			// Find the first cumulative count strictly greater than the target
+			int low = 0;
+			int high = current.chars.length - 1;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (current.cumulativeCounts[middle] > target) {
+					high = middle;
+				} else {
+					low = middle + 1;
+				}
+			}
+			return current.chars[low];
+		}
+
+		String getSubsequentCharsString() {
+			Row current = row;
+			StringBuilder stringBuilder = new StringBuilder("{");
+			for (int n = 0; n < current.chars.length; n++) {
+				if (n > 0) {
+					stringBuilder.append(", ");
+				}
+				stringBuilder.append(current.chars[n]).append('=')
+						.append(current.cumulativeCounts[n] - (n > 0 ? current.cumulativeCounts[n - 1] : 0));
+			}
+			return stringBuilder.append('}').toString();
+		}
+	}
+
+	private final int kOrder;
+	private final ConcurrentHashMap<String, LiveMarkov> markovs = new ConcurrentHashMap<String, LiveMarkov>();
+	// Dense index of the keys, pages are filled before keyCount covers them
+	private volatile LiveMarkov[][] pages = new LiveMarkov[1][];
+	private volatile int keyCount;
+	private final Object indexLock = new Object();
+
+	/**
+	 * Constructor of an empty model
+	 *
+	 * @param kOrder
+	 *            Number of chars used for the keys
+	 */
+	public ConcurrentMarkovModel(int kOrder) {
+		if (kOrder < 1) {
+			throw new IllegalArgumentException("kOrder must be at least 1: " + kOrder);
+		}
+		this.kOrder = kOrder;
+	}
+
+	/**
+	 * Counts every kOrder chars of an already normalized text and the char
+	 * following them. Safe to call from any number of threads while the model
+	 * is generated from; every call is a separate text, keys never span two
+	 * texts.
+	 *
+	 * @param text
+	 *            Sample text
+	 */
+	public void train(String text) {
+		for (int end = kOrder; end < text.length(); end++) {
+			String key = text.substring(end - kOrder, end);
+			LiveMarkov markov = markovs.get(key);
+			if (markov == null) {
+				markov = register(key);
+			}
+			markov.add(text.charAt(end));
+		}
+	}
+
+	/**
+	 * Appends a new key to the dense index, once
+	 */
+	private LiveMarkov register(String key) {
+		synchronized (indexLock) {
+			LiveMarkov markov = markovs.get(key);
+			if (markov != null) {
+				return markov;
+			}
+			int index = keyCount;
+			LiveMarkov[][] current = pages;
+			int page = index >>> PAGE_BITS;
+			if (page == current.length) {
+				LiveMarkov[][] grown = new LiveMarkov[current.length * 2][];
+				System.arraycopy(current, 0, grown, 0, current.length);
+				current = grown;
+			}
+			if (current[page] == null) {
+				current[page] = new LiveMarkov[PAGE_SIZE];
+			}
+			markov = new LiveMarkov(key, index);
+			current[page][index & (PAGE_SIZE - 1)] = markov;
+			pages = current;
+			markovs.put(key, markov);
+			// Published last, readers only index below keyCount
+			keyCount = index + 1;
+			return markov;
+		}
+	}
+
+	private LiveMarkov getMarkov(long state) {
+		return pages[(int) (state >>> PAGE_BITS)][(int) state & (PAGE_SIZE - 1)];
+	}
+
+	@Override
+	public int getKOrder() {
+		return kOrder;
+	}
+
+	@Override
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	@Override
+	public long findState(CharSequence text, int end) {
+		if (end < kOrder) {
+			return -1;
+		}
+		LiveMarkov markov = markovs.get(text.subSequence(end - kOrder, end).toString());
+		// A key is in the map a moment before its first count, not yet a
+		// state to generate from
+		return markov == null || markov.getCount() == 0 ? -1 : markov.index;
+	}
+
+	@Override
+	public long nextState(long state, CharSequence text, int end) {
+		return findState(text, end);
+	}
+
+	@Override
+	public int getStartStateCount() {
+		return keyCount;
+	}
+
+	@Override
+	public long getStartState(int index) {
+		return index;
+	}
+
+	@Override
+	public int getCount(long state) {
+		return getMarkov(state).getCount();
+	}
+
+	@Override
+	public long getRandomState(Random rand) {
+		int count = keyCount;
+		if (count == 0) {
+			return -1;
+		}
+		// A key just registered may not have its first count yet
+		while (true) {
+			int index = rand.nextInt(count);
+			if (getMarkov(index).getCount() > 0) {
+				return index;
+			}
+		}
+	}
+
+	@Override
+	public String getKey(long state) {
+		return getMarkov(state).key;
+	}
+
+	@Override
+	public char getRandomSubsequentChar(long state, Random rand) {
+		return getMarkov(state).getRandomSubsequentChar(rand);
+	}
+
+	@Override
+	public int getSubsequentCharCount(long state) {
+		return getMarkov(state).row.chars.length;
+	}
+
+	@Override
+	public String getSubsequentCharsString(long state) {
+		return getMarkov(state).getSubsequentCharsString();
+	}
+
+	@Override
+	public char getSubsequentChar(long state, int index) {
+		return getMarkov(state).row.chars[index];
+	}
+}
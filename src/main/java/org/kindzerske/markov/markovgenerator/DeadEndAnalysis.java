@@ -0,0 +1,229 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Finds the keys of a model from which generation can only end short, for a
+ * MarkovGenerator to steer around. A transition is a dead end when the kOrder
+ * chars it leads to were never a key, e.g. at the end of a training text. A
+ * key is doomed when every path from it reaches a dead end, and at risk when
+ * it is not doomed itself but some of its subsequent chars lead to a dead end
+ * or a doomed key.
+ *
+ * The analysis is one pass over the transitions of the start states (the keys
+ * of kOrder chars) followed by a pruning of the reverse graph, like a
+ * topological sort: keys left without a live subsequent char are doomed, which
+ * may leave the keys leading to them without one in turn. A transition which
+ * backs off to a shorter key counts as live, since backing off is how such
+ * models continue. Only the doomed and at risk states are kept, as sorted
+ * arrays, so a lookup during generation is a binary search of a short array,
+ * skipped altogether when there are none.
+ *
+ * The analysis is a snapshot, a ConcurrentMarkovModel trained afterwards may
+ * have fewer dead ends than it knows of.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class DeadEndAnalysis {
+
+	// Target of a transition to a key which is not a start state
+	private static final int BACKED_OFF = -2;
+	private static final int DEAD_END = -1;
+
+	private final MarkovModel markovModel;
+	private final int deadEndCount;
+	private final long[] doomedStates;
+	private final long[] riskyStates;
+	// Start states which are not doomed, only kept if some are
+	private final long[] liveStartStates;
+
+	/**
+	 * Analyzes a trained model.
+	 *
+	 * @param markovModel
+	 *            Model to analyze, which must not change for the lookups to be
+	 *            exact
+	 */
+	public DeadEndAnalysis(MarkovModel markovModel) {
+		this.markovModel = markovModel;
+		int kOrder = markovModel.getKOrder();
+
+		// Nodes are the start states in sorted order, so a state is found by
+		// binary search without a map of its own
+		int nodeCount = markovModel.getStartStateCount();
+		long[] states = new long[nodeCount];
+		for (int n = 0; n < nodeCount; n++) {
+			states[n] = markovModel.getStartState(n);
+		}
+		Arrays.sort(states);
+
+		// Transitions of each node in compressed sparse rows
+		int[] offsets = new int[nodeCount + 1];
+		for (int node = 0; node < nodeCount; node++) {
+			offsets[node + 1] = offsets[node] + markovModel.getSubsequentCharCount(states[node]);
+		}
+		int[] targets = new int[offsets[nodeCount]];
+		int[] liveCounts = new int[nodeCount];
+		int[] inCounts = new int[nodeCount + 1];
+		int deadEnds = 0;
+		StringBuilder window = new StringBuilder(kOrder + 1);
+		for (int node = 0; node < nodeCount; node++) {
+			String key = markovModel.getKey(states[node]);
+			for (int n = offsets[node]; n < offsets[node + 1]; n++) {
+				// The kOrder chars following the key and its subsequent char
+				window.setLength(0);
+				window.append(key, key.length() < kOrder ? 0 : 1, key.length())
+						.append(markovModel.getSubsequentChar(states[node], n - offsets[node]));
+				long next = markovModel.findState(window, window.length());
+				int target = next < 0 ? DEAD_END : Arrays.binarySearch(states, next);
+				targets[n] = target < 0 && next >= 0 ? BACKED_OFF : target;
+				if (targets[n] == DEAD_END) {
+					deadEnds++;
+				} else {
+					liveCounts[node]++;
+					if (targets[n] >= 0) {
+						inCounts[targets[n] + 1]++;
+					}
+				}
+			}
+		}
+		this.deadEndCount = deadEnds;
+
+		// Reverse transitions, to find the keys leading to a doomed key
+		for (int node = 0; node < nodeCount; node++) {
+			inCounts[node + 1] += inCounts[node];
+		}
+		int[] sources = new int[inCounts[nodeCount]];
+		int[] cursors = Arrays.copyOf(inCounts, nodeCount);
+		for (int node = 0; node < nodeCount; node++) {
+			for (int n = offsets[node]; n < offsets[node + 1]; n++) {
+				if (targets[n] >= 0) {
+					sources[cursors[targets[n]]++] = node;
+				}
+			}
+		}
+
+		// Prune keys left without a live subsequent char, once each
+		int[] queue = new int[nodeCount];
+		int queued = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			if (liveCounts[node] == 0) {
+				queue[queued++] = node;
+			}
+		}
+		for (int head = 0; head < queued; head++) {
+			int node = queue[head];
+			for (int n = inCounts[node]; n < inCounts[node + 1]; n++) {
+				// One decrement per transition, a source is queued once
+				if (--liveCounts[sources[n]] == 0) {
+					queue[queued++] = sources[n];
+				}
+			}
+		}
+
+		boolean[] doomed = new boolean[nodeCount];
+		long[] doomedStates = new long[queued];
+		for (int n = 0; n < queued; n++) {
+			doomed[queue[n]] = true;
+			doomedStates[n] = states[queue[n]];
+		}
+		Arrays.sort(doomedStates);
+		this.doomedStates = doomedStates;
+
+		int riskyCount = 0;
+		long[] riskyStates = new long[nodeCount];
+		for (int node = 0; node < nodeCount; node++) {
+			if (!doomed[node] && liveCounts[node] < offsets[node + 1] - offsets[node]) {
+				riskyStates[riskyCount++] = states[node];
+			}
+		}
+		// Sorted, since the nodes are
+		this.riskyStates = Arrays.copyOf(riskyStates, riskyCount);
+
+		if (queued > 0) {
+			long[] liveStartStates = new long[nodeCount - queued];
+			int liveCount = 0;
+			for (int node = 0; node < nodeCount; node++) {
+				if (!doomed[node]) {
+					liveStartStates[liveCount++] = states[node];
+				}
+			}
+			this.liveStartStates = liveStartStates;
+		} else {
+			this.liveStartStates = null;
+		}
+	}
+
+	public MarkovModel getMarkovModel() {
+		return markovModel;
+	}
+
+	/**
+	 * Number of transitions of start states to kOrder chars which were never
+	 * a key
+	 *
+	 * @return int Dead end count
+	 */
+	public int getDeadEndCount() {
+		return deadEndCount;
+	}
+
+	/**
+	 * Number of start states from which every path reaches a dead end
+	 *
+	 * @return int Doomed state count
+	 */
+	public int getDoomedStateCount() {
+		return doomedStates.length;
+	}
+
+	/**
+	 * Number of start states which are not doomed but have a subsequent char
+	 * leading to a dead end or a doomed state
+	 *
+	 * @return int At risk state count
+	 */
+	public int getRiskyStateCount() {
+		return riskyStates.length;
+	}
+
+	/**
+	 * True if every path from the state reaches a dead end
+	 *
+	 * @param state
+	 *            State of the model
+	 * @return boolean, false for states which are not start states
+	 */
+	public boolean isDoomed(long state) {
+		return doomedStates.length > 0 && Arrays.binarySearch(doomedStates, state) >= 0;
+	}
+
+	/**
+	 * True if some subsequent char of the state leads to a dead end or a
+	 * doomed state, while another does not
+	 *
+	 * @param state
+	 *            State of the model
+	 * @return boolean, false for states which are not start states
+	 */
+	public boolean isRisky(long state) {
+		return riskyStates.length > 0 && Arrays.binarySearch(riskyStates, state) >= 0;
+	}
+
+	/**
+	 * Picks a start state which is not doomed, uniformly.
+	 *
+	 * @param rand
+	 *            Source of randomness
+	 * @return long state, or -1 if every start state is doomed or the model
+	 *         is empty
+	 */
+	public long getRandomLiveState(Random rand) {
+		if (liveStartStates == null) {
+			return markovModel.getRandomState(rand);
+		}
+		return liveStartStates.length == 0 ? -1 : liveStartStates[rand.nextInt(liveStartStates.length)];
+	}
+}
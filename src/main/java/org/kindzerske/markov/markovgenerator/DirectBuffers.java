@@ -0,0 +1,72 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Allocation and explicit release of direct (off-heap) buffers. A direct
+ * buffer is otherwise only released once the garbage collector finds it
+ * unreachable, which for a model of many GB may be long after it was
+ * dropped.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+final class DirectBuffers {
+
+	private DirectBuffers() {
+	}
+
+	/**
+	 * Allocates a zeroed direct buffer in native byte order.
+	 *
+	 * @param bytes
+	 *            Size of the buffer
+	 * @return ByteBuffer
+	 * @throws IllegalArgumentException
+	 *             If the size exceeds the 2 GB a buffer can hold
+	 */
+	static ByteBuffer allocate(long bytes) {
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A buffer can not exceed 2 GB: " + bytes);
+		}
+		return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Releases the memory of a direct buffer now. The buffer, and any view of
+	 * it, must not be used afterwards. Does nothing for heap buffers, or if
+	 * the JVM offers no way to release the buffer early.
+	 *
+	 * @param buffer
+	 *            Buffer returned by allocate()
+	 */
+	static void free(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect()) {
+			return;
+		}
+		try {
+			// Java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch (Exception e) {
+			// Not available, try the Java 8 cleaner
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			// Left to the garbage collector
+		}
+	}
+}
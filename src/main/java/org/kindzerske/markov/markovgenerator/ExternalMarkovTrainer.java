@@ -0,0 +1,530 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Trains a model too large for memory by external sort-and-count, and writes
+ * it straight to a model file for MappedMarkovModel.open().
+ *
+ * Counts are gathered in a hashmap until its estimated size reaches the
+ * memory budget, then its keys are sorted and the run is spilled to a temp
+ * file with the counts of every key. write() merges the sorted runs, summing
+ * the counts of a key across runs, directly into the sections of the model
+ * file. More runs than MERGE_WIDTH are first merged into fewer, longer runs,
+ * so neither the heap nor the open files grow with the number of runs.
+ *
+ * Keys are of kOrder chars (no back off) and are read the same way as by a
+ * MarkovTrainer, so the model file is byte for byte the one
+ * MappedMarkovModel.write() writes for a MarkovModelBuilder of the same
+ * texts.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class ExternalMarkovTrainer implements Closeable {
+
+	// Number of runs merged at once
+	static final int MERGE_WIDTH = 64;
+	// Estimated heap cost of a key in the hashmap: its slots, the String and
+	// its chars (2 per char), and the Markov
+	private static final int KEY_OVERHEAD = 104;
+	// Estimated heap cost of a further subsequent char of a key
+	private static final int SUCCESSOR_OVERHEAD = 8;
+	private static final int MINIMUM_MEMORY_BUDGET = 1 << 16;
+	private static final int IO_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Receives the keys of a merge in sorted order, with their summed counts
+	 */
+	private interface MergeSink {
+		void accept(String key, char[] chars, int[] counts, int size) throws IOException;
+	}
+
+	/**
+	 * Reads a run back one key at a time, in sorted order
+	 */
+	private static class RunReader implements Closeable {
+		private final DataInputStream in;
+		private final char[] keyChars;
+		private long remaining;
+		private String key;
+		private char[] chars = new char[4];
+		private int[] counts = new int[4];
+		private int size;
+
+		RunReader(File run, int kOrder, int bufferSize) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), bufferSize));
+			this.keyChars = new char[kOrder];
+			this.remaining = in.readLong();
+		}
+
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			for (int n = 0; n < keyChars.length; n++) {
+				keyChars[n] = in.readChar();
+			}
+			key = new String(keyChars);
+			size = in.readInt();
+			if (size > chars.length) {
+				chars = new char[size];
+				counts = new int[size];
+			}
+			for (int n = 0; n < size; n++) {
+				chars[n] = in.readChar();
+				counts[n] = in.readInt();
+			}
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	private final int kOrder;
+	private final long memoryBudget;
+	private final File tempDirectory;
+	private final int blockLength;
+
+	private MarkovProbingHashMap<String, Markov> markovHashMap;
+	private long estimatedBytes;
+	private final List<File> runs = new ArrayList<File>();
+
+	/**
+	 * Constructor, spilling runs to java.io.tmpdir
+	 *
+	 * @param kOrder
+	 *            Number of chars used for the keys
+	 * @param memoryBudget
+	 *            Bytes of heap the counts and buffers may take
+	 */
+	public ExternalMarkovTrainer(int kOrder, long memoryBudget) {
+		this(kOrder, memoryBudget, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param kOrder
+	 *            Number of chars used for the keys
+	 * @param memoryBudget
+	 *            Bytes of heap the counts and buffers may take
+	 * @param tempDirectory
+	 *            Directory of the runs, or null for java.io.tmpdir
+	 */
+	public ExternalMarkovTrainer(int kOrder, long memoryBudget, File tempDirectory) {
+		if (kOrder < 1) {
+			throw new IllegalArgumentException("kOrder must be at least 1: " + kOrder);
+		}
+		if (memoryBudget < MINIMUM_MEMORY_BUDGET) {
+			throw new IllegalArgumentException("Memory budget below " + MINIMUM_MEMORY_BUDGET + " bytes: " + memoryBudget);
+		}
+		this.kOrder = kOrder;
+		this.memoryBudget = memoryBudget;
+		this.tempDirectory = tempDirectory;
+		// A tenth of the budget for the read buffer, 2 bytes per char
+		this.blockLength = (int) Math.min(1 << 22, memoryBudget / 20);
+		this.markovHashMap = newHashMap();
+	}
+
+	private MarkovProbingHashMap<String, Markov> newHashMap() {
+		return new MarkovProbingHashMap<String, Markov>(16, (float) 0.75);
+	}
+
+	/**
+	 * Counts every kOrder chars of an already normalized text and the char
+	 * following them.
+	 *
+	 * @param text
+	 *            Sample text
+	 * @throws IOException
+	 *             If a run can not be spilled
+	 */
+	public void train(String text) throws IOException {
+		char[] chars = text.toCharArray();
+		trainBlock(chars, chars.length);
+	}
+
+	/**
+	 * Streams the text from the reader in blocks, newlines are turned into
+	 * whitespace. The reader is not closed.
+	 *
+	 * @param reader
+	 *            Sample text
+	 * @throws IOException
+	 */
+	public void train(Reader reader) throws IOException {
+		char[] buffer = new char[kOrder + blockLength];
+		// Chars at the head of the buffer carried over from the last block
+		int carried = 0;
+		int read;
+		while ((read = fill(reader, buffer, carried)) > 0) {
+			int length = carried + read;
+			for (int n = carried; n < length; n++) {
+				if (buffer[n] == '\n' || buffer[n] == '\r') {
+					// Substitute white space for newlines
+					buffer[n] = ' ';
+				}
+			}
+
+			trainBlock(buffer, length);
+
+			// The last kOrder chars are the key of the first position of the
+			// next block
+			carried = Math.min(kOrder, length);
+			System.arraycopy(buffer, length - carried, buffer, 0, carried);
+		}
+	}
+
+	/**
+	 * Reads until the buffer is full or the reader is exhausted.
+	 *
+	 * @return int Number of chars read, 0 at the end of the reader
+	 */
+	private static int fill(Reader reader, char[] buffer, int offset) throws IOException {
+		int total = 0;
+		int read;
+		while (offset + total < buffer.length
+				&& (read = reader.read(buffer, offset + total, buffer.length - offset - total)) != -1) {
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Counts the positions [kOrder, length) of the buffer, spilling a run
+	 * whenever the budget is reached.
+	 */
+	private void trainBlock(char[] buffer, int length) throws IOException {
+		for (int n = kOrder; n < length; n++) {
+			String key = new String(buffer, n - kOrder, kOrder);
+			Markov markov = markovHashMap.get(key);
+			if (markov == null) {
+				markovHashMap.put(key, new Markov(key, buffer[n]));
+				estimatedBytes += KEY_OVERHEAD + 2 * kOrder;
+			} else {
+				int size = markov.getSubsequentCharCount();
+				markov.add(buffer[n]);
+				estimatedBytes += markov.getSubsequentCharCount() > size ? SUCCESSOR_OVERHEAD : 0;
+			}
+			if (estimatedBytes >= memoryBudget - 4L * blockLength) {
+				spill();
+			}
+		}
+	}
+
+	/**
+	 * Sorts the keys counted so far and writes them to a new run.
+	 */
+	private void spill() throws IOException {
+		if (markovHashMap.getHashMapTableContentCount() == 0) {
+			return;
+		}
+		String[] sortedKeys = new String[markovHashMap.getHashMapTableContentCount()];
+		int n = 0;
+		for (int slot = 0; slot < markovHashMap.getHashMapTableSize(); slot++) {
+			if (markovHashMap.keyAt(slot) != null) {
+				sortedKeys[n++] = markovHashMap.keyAt(slot);
+			}
+		}
+		Arrays.sort(sortedKeys);
+
+		File run = createRun();
+		DataOutputStream out = openRun(run);
+		try {
+			out.writeLong(sortedKeys.length);
+			for (String key : sortedKeys) {
+				Markov markov = markovHashMap.get(key);
+				out.writeChars(key);
+				out.writeInt(markov.getSubsequentCharCount());
+				for (int m = 0; m < markov.getSubsequentCharCount(); m++) {
+					out.writeChar(markov.getSubsequentChar(m));
+					out.writeInt(markov.getFrequencyCountAt(m));
+				}
+			}
+		} finally {
+			out.close();
+		}
+		markovHashMap = newHashMap();
+		estimatedBytes = 0;
+	}
+
+	private File createRun() throws IOException {
+		File run = File.createTempFile("markov-run", ".tmp", tempDirectory);
+		run.deleteOnExit();
+		runs.add(run);
+		return run;
+	}
+
+	private static DataOutputStream openRun(File run) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER_SIZE));
+	}
+
+	/**
+	 * Number of runs spilled so far
+	 *
+	 * @return int Run count
+	 */
+	int getRunCount() {
+		return runs.size();
+	}
+
+	/**
+	 * Merges every run into a model file, which is then opened with
+	 * MappedMarkovModel.open(). The runs are deleted, the trainer can not be
+	 * trained further.
+	 *
+	 * @param charset
+	 *            Charset the sample texts were decoded with, recorded in the
+	 *            header
+	 * @param modelFileLocation
+	 *            Path+filename of the model file
+	 * @throws IOException
+	 */
+	public void write(Charset charset, String modelFileLocation) throws IOException {
+		spill();
+		markovHashMap = null;
+		while (runs.size() > MERGE_WIDTH) {
+			mergeRuns();
+		}
+		List<File> sortedRuns = new ArrayList<File>(runs);
+
+		// The sections are written side by side, then joined behind the
+		// header once the counts are known
+		File keysSection = createRun();
+		File offsetsSection = createRun();
+		File charsSection = createRun();
+		File countsSection = createRun();
+		final DataOutputStream keysOut = openRun(keysSection);
+		final DataOutputStream offsetsOut = openRun(offsetsSection);
+		final DataOutputStream charsOut = openRun(charsSection);
+		final DataOutputStream countsOut = openRun(countsSection);
+		final long[] totals = new long[2]; // keys, successors
+		try {
+			offsetsOut.writeLong(0);
+			merge(sortedRuns, new MergeSink() {
+				@Override
+				public void accept(String key, char[] chars, int[] counts, int size) throws IOException {
+					if (totals[0] == Integer.MAX_VALUE) {
+						// MarkovModel counts and indexes keys in ints
+						throw new IllegalArgumentException("Too many keys for a model file: more than " + totals[0]);
+					}
+					keysOut.writeChars(key);
+					int runningCount = 0;
+					for (int n = 0; n < size; n++) {
+						charsOut.writeChar(chars[n]);
+						runningCount = addCounts(key, runningCount, counts[n]);
+						countsOut.writeInt(runningCount);
+					}
+					totals[0]++;
+					totals[1] += size;
+					offsetsOut.writeLong(totals[1]);
+				}
+			});
+		} finally {
+			keysOut.close();
+			offsetsOut.close();
+			charsOut.close();
+			countsOut.close();
+		}
+
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(modelFileLocation), IO_BUFFER_SIZE));
+		try {
+			MappedMarkovModel.writeHeader(out, kOrder, (int) totals[0], totals[1], charset);
+			copy(keysSection, out);
+			MappedMarkovModel.writePadding(out, totals[0] * kOrder * 2);
+			copy(offsetsSection, out);
+			copy(charsSection, out);
+			MappedMarkovModel.writePadding(out, totals[1] * 2);
+			copy(countsSection, out);
+		} finally {
+			out.close();
+			close();
+		}
+	}
+
+	/**
+	 * Merges the first MERGE_WIDTH runs into one new run.
+	 */
+	private void mergeRuns() throws IOException {
+		List<File> merged = new ArrayList<File>(runs.subList(0, MERGE_WIDTH));
+		final File run = createRun();
+		final DataOutputStream out = openRun(run);
+		final long[] keyCount = new long[1];
+		try {
+			// The key count is patched in once known
+			out.writeLong(0);
+			merge(merged, new MergeSink() {
+				@Override
+				public void accept(String key, char[] chars, int[] counts, int size) throws IOException {
+					out.writeChars(key);
+					out.writeInt(size);
+					for (int n = 0; n < size; n++) {
+						out.writeChar(chars[n]);
+						out.writeInt(counts[n]);
+					}
+					keyCount[0]++;
+				}
+			});
+		} finally {
+			out.close();
+		}
+		RandomAccessFile file = new RandomAccessFile(run, "rw");
+		try {
+			file.writeLong(keyCount[0]);
+		} finally {
+			file.close();
+		}
+		for (File mergedRun : merged) {
+			delete(mergedRun);
+		}
+	}
+
+	/**
+	 * k-way merge of sorted runs, the counts of a key found in several runs
+	 * are summed per subsequent char
+	 */
+	private void merge(List<File> mergedRuns, MergeSink sink) throws IOException {
+		int bufferSize = (int) Math.max(4096, Math.min(IO_BUFFER_SIZE, memoryBudget / 4 / (mergedRuns.size() + 1)));
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, mergedRuns.size()),
+				new Comparator<RunReader>() {
+					@Override
+					public int compare(RunReader a, RunReader b) {
+						return a.key.compareTo(b.key);
+					}
+				});
+		List<RunReader> readers = new ArrayList<RunReader>();
+		try {
+			for (File run : mergedRuns) {
+				RunReader reader = new RunReader(run, kOrder, bufferSize);
+				readers.add(reader);
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+
+			char[] chars = new char[16];
+			int[] counts = new int[16];
+			char[] mergedChars = new char[16];
+			int[] mergedCounts = new int[16];
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				String key = reader.key;
+				int size = reader.size;
+				if (size > chars.length) {
+					chars = Arrays.copyOf(chars, size);
+					counts = Arrays.copyOf(counts, size);
+				}
+				System.arraycopy(reader.chars, 0, chars, 0, size);
+				System.arraycopy(reader.counts, 0, counts, 0, size);
+				advance(reader, queue);
+
+				while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+					RunReader other = queue.poll();
+					// Merge two ascending lists of chars
+					int capacity = size + other.size;
+					if (capacity > mergedChars.length) {
+						mergedChars = new char[capacity];
+						mergedCounts = new int[capacity];
+					}
+					int n = 0, m = 0, merged = 0;
+					while (n < size || m < other.size) {
+						if (m == other.size || (n < size && chars[n] < other.chars[m])) {
+							mergedChars[merged] = chars[n];
+							mergedCounts[merged++] = counts[n++];
+						} else if (n == size || other.chars[m] < chars[n]) {
+							mergedChars[merged] = other.chars[m];
+							mergedCounts[merged++] = other.counts[m++];
+						} else {
+							mergedChars[merged] = chars[n];
+							mergedCounts[merged++] = addCounts(key, counts[n++], other.counts[m++]);
+						}
+					}
+					char[] swapChars = chars;
+					int[] swapCounts = counts;
+					chars = mergedChars;
+					counts = mergedCounts;
+					mergedChars = swapChars;
+					mergedCounts = swapCounts;
+					size = merged;
+					advance(other, queue);
+				}
+				sink.accept(key, chars, counts, size);
+			}
+		} finally {
+			for (RunReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Sum of two counts of a key, which like every count of a model must fit
+	 * an int
+	 */
+	private static int addCounts(String key, int count, int otherCount) {
+		long sum = (long) count + otherCount;
+		if (sum > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Counts of key \"" + key + "\" exceed " + Integer.MAX_VALUE);
+		}
+		return (int) sum;
+	}
+
+	private static void advance(RunReader reader, PriorityQueue<RunReader> queue) throws IOException {
+		if (reader.next()) {
+			queue.add(reader);
+		}
+	}
+
+	private static void copy(File section, OutputStream out) throws IOException {
+		InputStream in = new FileInputStream(section);
+		try {
+			byte[] buffer = new byte[IO_BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void delete(File run) {
+		run.delete();
+		runs.remove(run);
+	}
+
+	/**
+	 * Deletes every run, also done by write()
+	 */
+	@Override
+	public void close() {
+		for (File run : new ArrayList<File>(runs)) {
+			delete(run);
+		}
+		markovHashMap = null;
+	}
+}
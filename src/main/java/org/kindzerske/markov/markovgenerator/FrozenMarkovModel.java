@@ -0,0 +1,436 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Read-only copy of a HashMarkovModel in a flat, compressed-sparse-row layout,
+ * created by HashMarkovModel.freeze(). The hashed key table keeps the slots of
+ * the trained table, and every Markov becomes a row of a few flat arrays:
+ * <ul>
+ * <li>Keys: the packed key of each slot (0 for an empty slot), or for String
+ * keys the chars of all keys back to back with keyOffsets[slot] ..
+ * keyOffsets[slot + 1] holding the key of a slot (empty for an empty
+ * slot).</li>
+ * <li>Offsets: table size + 1 longs, the successors of slot n are
+ * [offsets[n], offsets[n + 1]).</li>
+ * <li>Successor chars, ascending per slot, and their cumulative counts.</li>
+ * </ul>
+ * A model is thus a handful of primitive arrays whatever the number of keys,
+ * so the garbage collector no longer traces millions of objects, and lookups
+ * and draws read consecutive memory without allocating. The arrays are
+ * PagedArrays of heap buffers, or of direct (off-heap) buffers if frozen with
+ * offHeap or trained off the heap (see MarkovModelBuilder.setOffHeap()), so
+ * slots and offsets are longs and no array is limited to 2 GB. Off-heap
+ * memory is released by close(), after which the model must not be used.
+ *
+ * A state is the slot, the same as of the HashMarkovModel it was frozen from,
+ * so both generate the same text for the same seed.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class FrozenMarkovModel implements MarkovModel, Closeable {
+
+	private final int minOrder;
+	private final int kOrder;
+	private final long keyCount;
+	// Dense index of the start slots, see HashMarkovModel
+	private PagedArray startSlots;
+	private final int startSlotCount;
+	private final long tableSize;
+	private final long mask;
+	private final boolean offHeap;
+	// kGramCodec and packedKeys, or keyOffsets and keyChars
+	private final KGramCodec kGramCodec;
+	private PagedArray packedKeys;
+	private PagedArray keyOffsets;
+	private PagedArray keyChars;
+	private PagedArray offsets;
+	private PagedArray successorChars;
+	private PagedArray cumulativeCounts;
+	// Off-heap arrays, released by close()
+	private List<PagedArray> directArrays = new ArrayList<PagedArray>();
+
+	FrozenMarkovModel(HashMarkovModel markovModel, boolean offHeap) {
+		this.minOrder = markovModel.getMinOrder();
+		this.kOrder = markovModel.getKOrder();
+		this.keyCount = markovModel.getKeyCount();
+		this.offHeap = offHeap;
+		this.kGramCodec = markovModel.getKGramCodec();
+		MarkovLongHashMap<Markov> packedMarkovHashMap = markovModel.getPackedMarkovHashMap();
+		MarkovProbingHashMap<String, Markov> markovHashMap = markovModel.getMarkovHashMap();
+		int tableSize = kGramCodec != null ? packedMarkovHashMap.getHashMapTableSize()
+				: markovHashMap.getHashMapTableSize();
+		this.tableSize = tableSize;
+		this.mask = tableSize - 1;
+
+		// Size the rows
+		long successorCount = 0;
+		long keyCharCount = 0;
+		int count = 0;
+		for (int slot = 0; slot < tableSize; slot++) {
+			Markov markov = markovModel.getMarkov(slot);
+			if (markov != null) {
+				successorCount += markov.getSubsequentCharCount();
+				if (kGramCodec == null) {
+					keyCharCount += markovHashMap.keyAt(slot).length();
+				}
+				count += markovModel.getKey(slot).length() == kOrder ? 1 : 0;
+			}
+		}
+		this.startSlotCount = count > 0 ? count : (int) keyCount;
+		this.startSlots = allocate(startSlotCount, 8);
+		for (int slot = 0, n = 0; slot < tableSize; slot++) {
+			if (markovModel.getMarkov(slot) != null
+					&& (count == 0 || markovModel.getKey(slot).length() == kOrder)) {
+				startSlots.putLong(n++, slot);
+			}
+		}
+
+		if (kGramCodec != null) {
+			this.packedKeys = allocate(tableSize, 8);
+			this.keyOffsets = null;
+			this.keyChars = null;
+		} else {
+			this.packedKeys = null;
+			this.keyOffsets = allocate((long) tableSize + 1, 8);
+			this.keyChars = allocate(keyCharCount, 2);
+		}
+		this.offsets = allocate((long) tableSize + 1, 8);
+		this.successorChars = allocate(successorCount, 2);
+		this.cumulativeCounts = allocate(successorCount, 4);
+
+		// Fill the rows slot by slot
+		long offset = 0;
+		long keyOffset = 0;
+		for (int slot = 0; slot < tableSize; slot++) {
+			offsets.putLong(slot, offset);
+			if (kGramCodec != null) {
+				packedKeys.putLong(slot, packedMarkovHashMap.keyAt(slot));
+			} else {
+				keyOffsets.putLong(slot, keyOffset);
+				String key = markovHashMap.keyAt(slot);
+				for (int n = 0; key != null && n < key.length(); n++) {
+					keyChars.putChar(keyOffset++, key.charAt(n));
+				}
+			}
+
+			Markov markov = markovModel.getMarkov(slot);
+			int runningCount = 0;
+			for (int n = 0; markov != null && n < markov.getSubsequentCharCount(); n++) {
+				runningCount += markov.getFrequencyCountAt(n);
+				successorChars.putChar(offset, markov.getSubsequentChar(n));
+				cumulativeCounts.putInt(offset, runningCount);
+				offset++;
+			}
+		}
+		offsets.putLong(tableSize, offset);
+		if (keyOffsets != null) {
+			keyOffsets.putLong(tableSize, keyOffset);
+		}
+	}
+
+	/**
+	 * Constructor for packed keys in off-heap arrays, see
+	 * OffHeapTransitionTable.freeze()
+	 */
+	FrozenMarkovModel(int minOrder, int kOrder, KGramCodec kGramCodec, PagedArray packedKeys, PagedArray offsets,
+			PagedArray successorChars, PagedArray cumulativeCounts) {
+		this.minOrder = minOrder;
+		this.kOrder = kOrder;
+		this.offHeap = true;
+		this.kGramCodec = kGramCodec;
+		this.packedKeys = packedKeys;
+		this.offsets = offsets;
+		this.successorChars = successorChars;
+		this.cumulativeCounts = cumulativeCounts;
+		this.directArrays.add(packedKeys);
+		this.directArrays.add(offsets);
+		this.directArrays.add(successorChars);
+		this.directArrays.add(cumulativeCounts);
+		this.tableSize = packedKeys.length();
+		this.mask = tableSize - 1;
+
+		long count = 0;
+		long kOrderCount = 0;
+		for (long slot = 0; slot < tableSize; slot++) {
+			long packedKey = packedKeys.getLong(slot);
+			if (packedKey != 0) {
+				count++;
+				kOrderCount += kGramCodec.lengthOf(packedKey) == kOrder ? 1 : 0;
+			}
+		}
+		this.keyCount = count;
+		long startCount = kOrderCount > 0 ? kOrderCount : count;
+		if (startCount > Integer.MAX_VALUE) {
+			// MarkovModel counts and indexes start states in ints
+			close();
+			throw new IllegalArgumentException("Too many start keys for a model: " + startCount);
+		}
+		this.startSlotCount = (int) startCount;
+		this.startSlots = allocate(startSlotCount, 8);
+		for (long slot = 0, n = 0; slot < tableSize; slot++) {
+			long packedKey = packedKeys.getLong(slot);
+			if (packedKey != 0 && (kOrderCount == 0 || kGramCodec.lengthOf(packedKey) == kOrder)) {
+				startSlots.putLong(n++, slot);
+			}
+		}
+	}
+
+	private PagedArray allocate(long length, int elementBytes) {
+		PagedArray array = new PagedArray(length, elementBytes, offHeap);
+		if (offHeap) {
+			directArrays.add(array);
+		}
+		return array;
+	}
+
+	/**
+	 * Releases the off-heap memory of the model now rather than when it is
+	 * garbage collected. The model must not be used afterwards. Does nothing
+	 * for a model on the heap.
+	 */
+	@Override
+	public void close() {
+		if (directArrays.isEmpty()) {
+			return;
+		}
+		// Drop the arrays first so a use after close fails rather than reads
+		// released memory
+		packedKeys = null;
+		startSlots = null;
+		keyOffsets = null;
+		keyChars = null;
+		offsets = null;
+		successorChars = null;
+		cumulativeCounts = null;
+		for (PagedArray array : directArrays) {
+			array.free();
+		}
+		directArrays.clear();
+	}
+
+	/**
+	 * Number of chars of the shortest keys, kOrder unless the model backs off
+	 *
+	 * @return int minOrder
+	 */
+	public int getMinOrder() {
+		return minOrder;
+	}
+
+	/**
+	 * True if the arrays are direct buffers outside of the Java heap
+	 *
+	 * @return boolean Off-heap
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	@Override
+	public int getKOrder() {
+		return kOrder;
+	}
+
+	/**
+	 * Number of keys, Integer.MAX_VALUE if a model trained off the heap has
+	 * more, see getLongKeyCount()
+	 */
+	@Override
+	public int getKeyCount() {
+		return (int) Math.min(keyCount, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Number of keys, which a model trained off the heap may have more of than
+	 * an int holds
+	 *
+	 * @return long Key count
+	 */
+	public long getLongKeyCount() {
+		return keyCount;
+	}
+
+	private boolean isEmpty(long slot) {
+		return kGramCodec != null ? packedKeys.getLong(slot) == 0
+				: keyOffsets.getLong(slot) == keyOffsets.getLong(slot + 1);
+	}
+
+	private long indexOf(long packedKey) {
+		// The low 32 bits of the hash are those of the trained table
+		long slot = MarkovLongHashMap.spreadLong(packedKey) & mask;
+		long slotKey;
+		while ((slotKey = packedKeys.getLong(slot)) != 0) {
+			if (slotKey == packedKey) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Slot of the String key text[start, end), hashed as String.hashCode() so
+	 * the slots are those of the MarkovProbingHashMap the model was frozen from
+	 */
+	private long indexOf(CharSequence text, int start, int end) {
+		int hashCode = 0;
+		for (int n = start; n < end; n++) {
+			hashCode = 31 * hashCode + text.charAt(n);
+		}
+		long slot = MarkovProbingHashMap.spread(hashCode) & mask;
+		while (!isEmpty(slot)) {
+			long keyStart = keyOffsets.getLong(slot);
+			if (keyOffsets.getLong(slot + 1) - keyStart == end - start && keyEquals(keyStart, text, start, end)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private boolean keyEquals(long keyStart, CharSequence text, int start, int end) {
+		for (int n = start; n < end; n++) {
+			if (keyChars.getChar(keyStart + n - start) != text.charAt(n)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public long findState(CharSequence text, int end) {
+		int longest = Math.min(kOrder, end);
+		if (kGramCodec == null) {
+			for (int order = longest; order >= minOrder; order--) {
+				long slot = indexOf(text, end - order, end);
+				if (slot >= 0) {
+					return slot;
+				}
+			}
+			return -1;
+		}
+
+		long packedKey = 0;
+		int order = 0;
+		for (int n = end - longest; n < end; n++) {
+			int code = kGramCodec.codeOf(text.charAt(n));
+			if (code == 0) {
+				// Not in the alphabet, only the chars after it can be a key
+				packedKey = 0;
+				order = 0;
+			} else {
+				packedKey = kGramCodec.shift(packedKey, code);
+				order++;
+			}
+		}
+		for (; order >= minOrder; order--) {
+			long slot = indexOf(kGramCodec.suffix(packedKey, order));
+			if (slot >= 0) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public long nextState(long state, CharSequence text, int end) {
+		if (kGramCodec == null || minOrder < kOrder) {
+			return findState(text, end);
+		}
+
+		// Roll the key of the previous state forward by the appended char
+		int code = kGramCodec.codeOf(text.charAt(end - 1));
+		if (code == 0) {
+			return -1;
+		}
+		return indexOf(kGramCodec.shift(packedKeys.getLong(state), code));
+	}
+
+	@Override
+	public int getStartStateCount() {
+		return startSlotCount;
+	}
+
+	@Override
+	public long getStartState(int index) {
+		return startSlots.getLong(index);
+	}
+
+	@Override
+	public int getCount(long state) {
+		return cumulativeCounts.getInt(offsets.getLong(state + 1) - 1);
+	}
+
+	/**
+	 * Same draw from the same dense index as HashMarkovModel, so a seed gives
+	 * the same text
+	 */
+	@Override
+	public long getRandomState(Random rand) {
+		return startSlotCount == 0 ? -1 : startSlots.getLong(rand.nextInt(startSlotCount));
+	}
+
+	private int getKeyLength(long slot) {
+		return kGramCodec != null ? kGramCodec.lengthOf(packedKeys.getLong(slot))
+				: (int) (keyOffsets.getLong(slot + 1) - keyOffsets.getLong(slot));
+	}
+
+	@Override
+	public String getKey(long state) {
+		if (kGramCodec != null) {
+			return kGramCodec.unpack(packedKeys.getLong(state));
+		}
+		char[] key = new char[getKeyLength(state)];
+		long keyStart = keyOffsets.getLong(state);
+		for (int n = 0; n < key.length; n++) {
+			key[n] = keyChars.getChar(keyStart + n);
+		}
+		return new String(key);
+	}
+
+	@Override
+	public char getRandomSubsequentChar(long state, Random rand) {
+		long low = offsets.getLong(state);
+		long high = offsets.getLong(state + 1) - 1;
+		int target = rand.nextInt(cumulativeCounts.getInt(high));
+		// Find the first cumulative count strictly greater than the target
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (cumulativeCounts.getInt(mid) > target) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return successorChars.getChar(low);
+	}
+
+	@Override
+	public int getSubsequentCharCount(long state) {
+		return (int) (offsets.getLong(state + 1) - offsets.getLong(state));
+	}
+
+	@Override
+	public char getSubsequentChar(long state, int index) {
+		return successorChars.getChar(offsets.getLong(state) + index);
+	}
+
+	@Override
+	public String getSubsequentCharsString(long state) {
+		StringBuilder returnString = new StringBuilder("{");
+		int previousCount = 0;
+		for (long n = offsets.getLong(state); n < offsets.getLong(state + 1); n++) {
+			if (previousCount > 0) {
+				returnString.append(", ");
+			}
+			returnString.append(successorChars.getChar(n)).append('=').append(cumulativeCounts.getInt(n) - previousCount);
+			previousCount = cumulativeCounts.getInt(n);
+		}
+		return returnString.append('}').toString();
+	}
+}
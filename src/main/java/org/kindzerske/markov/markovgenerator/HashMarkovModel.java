@@ -0,0 +1,256 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.Random;
+
+/**
+ * MarkovModel over the hashmaps built by a MarkovTrainer. A state is the slot
+ * of the key in the packed (or, if the alphabet did not fit, String keyed)
+ * hashmap. Instances are created by MarkovModelBuilder, which hands over the
+ * hashmaps and never touches them again.
+ *
+ * If the trainer counted every order from a minOrder below kOrder, lookups
+ * back off: the state of a text is that of its longest suffix of minOrder to
+ * kOrder chars which was seen in training, so generation only ends when not
+ * even the minOrder chars were ever followed by anything.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class HashMarkovModel implements MarkovModel {
+
+	private final int minOrder;
+	private final int kOrder;
+	// Dense index of the slots of the keys of kOrder chars (of all keys if
+	// there are none), random states are drawn from these
+	private final int[] startSlots;
+	// kGramCodec and packedMarkovHashMap, or markovHashMap
+	private final KGramCodec kGramCodec;
+	private final MarkovLongHashMap<Markov> packedMarkovHashMap;
+	private final MarkovProbingHashMap<String, Markov> markovHashMap;
+
+	HashMarkovModel(MarkovTrainer markovTrainer) {
+		this.minOrder = markovTrainer.getMinOrder();
+		this.kOrder = markovTrainer.getKOrder();
+		this.kGramCodec = markovTrainer.getKGramCodec();
+		this.packedMarkovHashMap = markovTrainer.getPackedMarkovHashMap();
+		this.markovHashMap = markovTrainer.getMarkovHashMap();
+
+		// Compile every sampling table up front, afterwards the Markovs are
+		// only ever read
+		int count = 0;
+		for (int slot = 0; slot < getTableSize(); slot++) {
+			Markov markov = getMarkov(slot);
+			if (markov != null) {
+				markov.compile();
+				count += getOrder(slot) == kOrder ? 1 : 0;
+			}
+		}
+		this.startSlots = indexStartSlots(count);
+	}
+
+	private int[] indexStartSlots(int kOrderKeyCount) {
+		int[] slots = new int[kOrderKeyCount > 0 ? kOrderKeyCount : getKeyCount()];
+		int n = 0;
+		for (int slot = 0; slot < getTableSize(); slot++) {
+			if (getMarkov(slot) != null && (kOrderKeyCount == 0 || getOrder(slot) == kOrder)) {
+				slots[n++] = slot;
+			}
+		}
+		return slots;
+	}
+
+	/**
+	 * Number of chars of the key of a state
+	 */
+	private int getOrder(long state) {
+		return kGramCodec != null ? kGramCodec.lengthOf(packedMarkovHashMap.keyAt((int) state))
+				: markovHashMap.keyAt((int) state).length();
+	}
+
+	private int getTableSize() {
+		return kGramCodec != null ? packedMarkovHashMap.getHashMapTableSize() : markovHashMap.getHashMapTableSize();
+	}
+
+	/**
+	 * Markov of a state (slot)
+	 *
+	 * @param state
+	 *            State returned by this model
+	 * @return Markov, or null for an empty slot
+	 */
+	Markov getMarkov(long state) {
+		return kGramCodec != null ? packedMarkovHashMap.valueAt((int) state) : markovHashMap.valueAt((int) state);
+	}
+
+	/**
+	 * Number of chars of the shortest keys, kOrder unless the model backs off
+	 *
+	 * @return int minOrder
+	 */
+	public int getMinOrder() {
+		return minOrder;
+	}
+
+	@Override
+	public int getKOrder() {
+		return kOrder;
+	}
+
+	@Override
+	public int getKeyCount() {
+		return kGramCodec != null ? packedMarkovHashMap.getHashMapTableContentCount()
+				: markovHashMap.getHashMapTableContentCount();
+	}
+
+	@Override
+	public long findState(CharSequence text, int end) {
+		int longest = Math.min(kOrder, end);
+		if (kGramCodec == null) {
+			for (int order = longest; order >= minOrder; order--) {
+				int slot = markovHashMap.indexOf(text.subSequence(end - order, end).toString());
+				if (slot >= 0) {
+					return slot;
+				}
+			}
+			return -1;
+		}
+
+		long packedKey = 0;
+		int order = 0;
+		for (int n = end - longest; n < end; n++) {
+			int code = kGramCodec.codeOf(text.charAt(n));
+			if (code == 0) {
+				// Not in the alphabet, so not in any key, only the chars
+				// after it can be
+				packedKey = 0;
+				order = 0;
+			} else {
+				packedKey = kGramCodec.shift(packedKey, code);
+				order++;
+			}
+		}
+		for (; order >= minOrder; order--) {
+			int slot = packedMarkovHashMap.indexOf(kGramCodec.suffix(packedKey, order));
+			if (slot >= 0) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public long nextState(long state, CharSequence text, int end) {
+		if (kGramCodec == null || minOrder < kOrder) {
+			// A backed off state is shorter than the key to try first
+			return findState(text, end);
+		}
+
+		// Roll the key of the previous state forward by the appended char
+		int code = kGramCodec.codeOf(text.charAt(end - 1));
+		if (code == 0) {
+			return -1;
+		}
+		return packedMarkovHashMap.indexOf(kGramCodec.shift(packedMarkovHashMap.keyAt((int) state), code));
+	}
+
+	@Override
+	public int getStartStateCount() {
+		return startSlots.length;
+	}
+
+	@Override
+	public long getStartState(int index) {
+		return startSlots[index];
+	}
+
+	@Override
+	public int getCount(long state) {
+		return getMarkov(state).getCount();
+	}
+
+	/**
+	 * Uniform over the keys of kOrder chars, a single draw from the dense
+	 * index whatever the occupancy of the table. Backed off models thus start
+	 * from a key of kOrder chars, if there is one.
+	 */
+	@Override
+	public long getRandomState(Random rand) {
+		return startSlots.length == 0 ? -1 : startSlots[rand.nextInt(startSlots.length)];
+	}
+
+	@Override
+	public String getKey(long state) {
+		return kGramCodec != null ? kGramCodec.unpack(packedMarkovHashMap.keyAt((int) state))
+				: markovHashMap.keyAt((int) state);
+	}
+
+	@Override
+	public char getRandomSubsequentChar(long state, Random rand) {
+		return getMarkov(state).getRandomSubsequentChar(rand);
+	}
+
+	@Override
+	public int getSubsequentCharCount(long state) {
+		return getMarkov(state).getSubsequentCharCount();
+	}
+
+	@Override
+	public String getSubsequentCharsString(long state) {
+		return getMarkov(state).getSubsequentCharsString();
+	}
+
+	@Override
+	public char getSubsequentChar(long state, int index) {
+		return getMarkov(state).getSubsequentChar(index);
+	}
+
+	/**
+	 * Copies the model into the flat layout of a FrozenMarkovModel, which
+	 * generates the same text without keeping any Markov objects. This model
+	 * can be dropped afterwards.
+	 *
+	 * @return FrozenMarkovModel on the Java heap
+	 */
+	public FrozenMarkovModel freeze() {
+		return freeze(false);
+	}
+
+	/**
+	 * Same as freeze(), optionally with the arrays in direct buffers outside
+	 * of the Java heap.
+	 *
+	 * @param offHeap
+	 *            True for direct buffers
+	 * @return FrozenMarkovModel
+	 */
+	public FrozenMarkovModel freeze(boolean offHeap) {
+		return new FrozenMarkovModel(this, offHeap);
+	}
+
+	/**
+	 * Codec of the packed keys
+	 *
+	 * @return KGramCodec, or null if the keys are Strings
+	 */
+	KGramCodec getKGramCodec() {
+		return kGramCodec;
+	}
+
+	/**
+	 * Hashmap of packed keys, populated iff getKGramCodec() is not null
+	 *
+	 * @return MarkovLongHashMap or null
+	 */
+	MarkovLongHashMap<Markov> getPackedMarkovHashMap() {
+		return packedMarkovHashMap;
+	}
+
+	/**
+	 * Hashmap of String keys, populated iff getKGramCodec() is null
+	 *
+	 * @return MarkovProbingHashMap or null
+	 */
+	MarkovProbingHashMap<String, Markov> getMarkovHashMap() {
+		return markovHashMap;
+	}
+}
@@ -0,0 +1,228 @@
+package org.kindzerske.markov.markovgenerator;
+
+/**
+ * Packs a k-character string into a single long. Each distinct char is
+ * interned to a small code (1..capacity) and a k-gram is the concatenation of
+ * its k codes, so the oldest char sits in the high bits. Since codes start at
+ * 1 a packed k-gram is never 0, which leaves 0 free as an empty marker.
+ *
+ * The width of a code is fixed by kOrder (64 / kOrder bits, at most 16), i.e.
+ * k up to 4 packs any char, k=8 packs up to 255 distinct chars, and k=12 packs
+ * up to 31 distinct chars. When the alphabet of a text does not fit, callers
+ * fall back to String keys.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class KGramCodec {
+
+	// Longest key which packs, at one bit per char
+	static final int MAXIMUM_K_ORDER = 64;
+	private static final int MAXIMUM_BITS_PER_CHAR = 16;
+
+	private final int kOrder;
+	private final int bitsPerChar;
+	private final int capacity;
+	private final long keyMask;
+
+	// char -> code (0 for not yet interned), code -> char
+	private final char[] codes = new char[Character.MAX_VALUE + 1];
+	private final char[] alphabet;
+	private int alphabetSize = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param kOrder
+	 *            Number of chars per key
+	 */
+	public KGramCodec(int kOrder) {
+		if (kOrder < 1 || kOrder > MAXIMUM_K_ORDER) {
+			throw new IllegalArgumentException("kOrder must be between 1 and " + MAXIMUM_K_ORDER + ": " + kOrder);
+		}
+		this.kOrder = kOrder;
+		this.bitsPerChar = Math.min(MAXIMUM_BITS_PER_CHAR, 64 / kOrder);
+		this.capacity = (1 << bitsPerChar) - 1;
+		this.keyMask = (kOrder * bitsPerChar == 64) ? -1L : (1L << (kOrder * bitsPerChar)) - 1;
+		this.alphabet = new char[capacity + 1];
+	}
+
+	/**
+	 * Returns the code of the char, interning it if it has not been seen.
+	 *
+	 * @param c
+	 *            char to intern
+	 * @return int code (1..capacity), or -1 if the alphabet is full
+	 */
+	public int intern(char c) {
+		int code = codes[c];
+		if (code == 0) {
+			if (alphabetSize == capacity) {
+				return -1;
+			}
+			code = ++alphabetSize;
+			codes[c] = (char) code;
+			alphabet[code] = c;
+		}
+		return code;
+	}
+
+	/**
+	 * Interns every char of the text.
+	 *
+	 * @param text
+	 *            Sample text
+	 * @return boolean False if the alphabet overflowed, in which case the text
+	 *         can not be packed
+	 */
+	public boolean internAll(CharSequence text) {
+		for (int n = 0; n < text.length(); n++) {
+			if (intern(text.charAt(n)) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Interns the chars [from, to) of the array.
+	 *
+	 * @param chars
+	 *            Sample text
+	 * @param from
+	 *            Index of the first char
+	 * @param to
+	 *            Index after the last char
+	 * @return boolean False if the alphabet overflowed, in which case the text
+	 *         can not be packed
+	 */
+	public boolean internAll(char[] chars, int from, int to) {
+		for (int n = from; n < to; n++) {
+			if (intern(chars[n]) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the code of an already interned char without interning it.
+	 *
+	 * @param c
+	 *            char to look up
+	 * @return int code, or 0 if the char was never interned
+	 */
+	public int codeOf(char c) {
+		return codes[c];
+	}
+
+	/**
+	 * Rolling update, shifts the code of the next char into a packed k-gram
+	 * and masks off the oldest char.
+	 *
+	 * @param packedKey
+	 *            Packed k-gram (or partial k-gram while the first k chars are
+	 *            being shifted in)
+	 * @param code
+	 *            Code of the next char
+	 * @return long packed k-gram ending with the next char
+	 */
+	public long shift(long packedKey, int code) {
+		return ((packedKey << bitsPerChar) | code) & keyMask;
+	}
+
+	/**
+	 * Packs the first kOrder chars of the sequence starting at offset. All the
+	 * chars must already be interned.
+	 *
+	 * @param text
+	 *            Source chars
+	 * @param offset
+	 *            Index of the first char of the k-gram
+	 * @return long packed k-gram
+	 */
+	public long pack(CharSequence text, int offset) {
+		long packedKey = 0;
+		for (int n = offset; n < offset + kOrder; n++) {
+			packedKey = shift(packedKey, codes[text.charAt(n)]);
+		}
+		return packedKey;
+	}
+
+	/**
+	 * Packs the first kOrder chars of the array starting at offset. All the
+	 * chars must already be interned.
+	 *
+	 * @param chars
+	 *            Source chars
+	 * @param offset
+	 *            Index of the first char of the k-gram
+	 * @return long packed k-gram
+	 */
+	public long pack(char[] chars, int offset) {
+		long packedKey = 0;
+		for (int n = offset; n < offset + kOrder; n++) {
+			packedKey = shift(packedKey, codes[chars[n]]);
+		}
+		return packedKey;
+	}
+
+	/**
+	 * Keeps the last length chars of a packed k-gram. The result is the packed
+	 * key of that shorter suffix, which never equals a key of another length
+	 * since the codes of unused high chars are 0.
+	 *
+	 * @param packedKey
+	 *            Packed k-gram
+	 * @param length
+	 *            Number of trailing chars to keep, 1..kOrder
+	 * @return long packed suffix
+	 */
+	public long suffix(long packedKey, int length) {
+		return length >= kOrder ? packedKey : packedKey & ((1L << (length * bitsPerChar)) - 1);
+	}
+
+	/**
+	 * Number of chars in a packed key, kOrder unless it was cut by suffix()
+	 *
+	 * @param packedKey
+	 *            Packed k-gram
+	 * @return int Number of chars
+	 */
+	public int lengthOf(long packedKey) {
+		return (64 - Long.numberOfLeadingZeros(packedKey) + bitsPerChar - 1) / bitsPerChar;
+	}
+
+	/**
+	 * Unpacks a k-gram (or a suffix of one) back into a String.
+	 *
+	 * @param packedKey
+	 *            Packed k-gram
+	 * @return String of lengthOf(packedKey) chars
+	 */
+	public String unpack(long packedKey) {
+		char[] chars = new char[lengthOf(packedKey)];
+		for (int n = chars.length - 1; n >= 0; n--) {
+			chars[n] = alphabet[(int) (packedKey & capacity)];
+			packedKey >>>= bitsPerChar;
+		}
+		return new String(chars);
+	}
+
+	public int getKOrder() {
+		return kOrder;
+	}
+
+	public int getBitsPerChar() {
+		return bitsPerChar;
+	}
+
+	/**
+	 * Number of distinct chars interned so far
+	 *
+	 * @return int Alphabet size
+	 */
+	public int getAlphabetSize() {
+		return alphabetSize;
+	}
+}
@@ -0,0 +1,469 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Trained markov model in a flat binary layout which is used as is, i.e. a
+ * model file is memory-mapped and generated from without rebuilding any
+ * MarkovHashMap or Markov objects. A state is the index of a key.
+ *
+ * The file is mapped in pages of 2^PagedArray.PAGE_SHIFT bytes with long
+ * offsets, so it may exceed the 2 GB of a single mapping.
+ *
+ * File layout (big-endian, every section padded to 8 bytes):
+ * <ul>
+ * <li>Header: magic "MRKV", format version, kOrder, key count, successor count
+ * (a long), length of the charset name, the charset name (US-ASCII).</li>
+ * <li>Keys: key count * kOrder chars, sorted by char value so a key is found
+ * by binary search.</li>
+ * <li>Offsets: key count + 1 longs, the successors of key n are [offsets[n],
+ * offsets[n + 1]).</li>
+ * <li>Successor chars: successor count chars, ascending per key.</li>
+ * <li>Cumulative counts: successor count ints, the running total of
+ * occurrences per key, so the last one of a key is its total count.</li>
+ * </ul>
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class MappedMarkovModel implements MarkovModel {
+
+	private static final int MAGIC = 0x4D524B56; // "MRKV"
+	// 2: long successor count and offsets, sections padded to 8 bytes
+	private static final int VERSION = 2;
+	private static final int HEADER_LENGTH = 28;
+
+	/**
+	 * Maps the bytes of a model, a page at a time
+	 */
+	private interface PageSource {
+		ByteBuffer map(long position, int length) throws IOException;
+	}
+
+	private final int kOrder;
+	private final int keyCount;
+	private final String charsetName;
+	private final PagedArray keys;
+	private final PagedArray offsets;
+	private final PagedArray successorChars;
+	private final PagedArray cumulativeCounts;
+
+	/**
+	 * Wraps a buffer holding a model in the layout described above.
+	 *
+	 * @param buffer
+	 *            Model bytes, e.g. a mapped model file
+	 * @throws IOException
+	 *             If the buffer does not hold a model of a supported version
+	 */
+	public MappedMarkovModel(final ByteBuffer buffer) throws IOException {
+		this(new PageSource() {
+			@Override
+			public ByteBuffer map(long position, int length) {
+				ByteBuffer page = buffer.duplicate();
+				page.limit((int) position + length);
+				page.position((int) position);
+				return page.slice();
+			}
+		}, buffer.limit(), PagedArray.PAGE_SHIFT);
+	}
+
+	private MappedMarkovModel(PageSource source, long size, int pageShift) throws IOException {
+		ByteBuffer header = size < HEADER_LENGTH ? null : source.map(0, HEADER_LENGTH);
+		if (header == null || header.getInt(0) != MAGIC) {
+			throw new IOException("Not a markov model file");
+		}
+		if (header.getInt(4) != VERSION) {
+			throw new IOException("Unsupported markov model version: " + header.getInt(4));
+		}
+		this.kOrder = header.getInt(8);
+		this.keyCount = header.getInt(12);
+		long successorCount = header.getLong(16);
+		int charsetNameLength = header.getInt(24);
+		if (kOrder < 1 || keyCount < 0 || successorCount < 0 || charsetNameLength < 0
+				|| HEADER_LENGTH + (long) charsetNameLength > size) {
+			throw new IOException("Corrupt markov model header");
+		}
+
+		byte[] charsetNameBytes = new byte[charsetNameLength];
+		source.map(HEADER_LENGTH, charsetNameLength).get(charsetNameBytes);
+		this.charsetName = new String(charsetNameBytes, "US-ASCII");
+
+		long position = pad(HEADER_LENGTH + charsetNameLength);
+		long keyLength = (long) keyCount * kOrder;
+		long successorsPosition = pad(position + keyLength * 2) + (keyCount + 1L) * 8;
+		long countsPosition = pad(successorsPosition + successorCount * 2);
+		if (countsPosition + successorCount * 4 > size) {
+			throw new IOException("Truncated markov model file");
+		}
+		this.keys = section(source, position, keyLength, 2, pageShift);
+		this.offsets = section(source, pad(position + keyLength * 2), keyCount + 1L, 8, pageShift);
+		this.successorChars = section(source, successorsPosition, successorCount, 2, pageShift);
+		this.cumulativeCounts = section(source, countsPosition, successorCount, 4, pageShift);
+	}
+
+	private static long pad(long position) {
+		return (position + 7) & ~7L;
+	}
+
+	private static PagedArray section(PageSource source, long position, long length, int elementBytes, int pageShift)
+			throws IOException {
+		long bytes = length * elementBytes;
+		long pageBytes = 1L << pageShift;
+		ByteBuffer[] pages = new ByteBuffer[(int) ((bytes + pageBytes - 1) >>> pageShift)];
+		for (int n = 0; n < pages.length; n++) {
+			long pageStart = (long) n << pageShift;
+			pages[n] = source.map(position + pageStart, (int) Math.min(bytes - pageStart, pageBytes));
+		}
+		return new PagedArray(pages, length, pageShift);
+	}
+
+	/**
+	 * Memory-maps a model file written by write(). Only the header is read,
+	 * so this takes milliseconds regardless of the size of the model.
+	 *
+	 * @param modelFileLocation
+	 *            Path+filename of the model file
+	 * @return MappedMarkovModel backed by the mapping
+	 * @throws IOException
+	 */
+	public static MappedMarkovModel open(String modelFileLocation) throws IOException {
+		return open(modelFileLocation, PagedArray.PAGE_SHIFT);
+	}
+
+	/**
+	 * Memory-maps a model file in smaller pages than 2^PagedArray.PAGE_SHIFT
+	 * bytes, for tests
+	 */
+	static MappedMarkovModel open(String modelFileLocation, int pageShift) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(modelFileLocation, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			// The mappings stay valid after the channel is closed
+			return new MappedMarkovModel(new PageSource() {
+				@Override
+				public ByteBuffer map(long position, int length) throws IOException {
+					return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				}
+			}, channel.size(), pageShift);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Writes a model built by MarkovModelBuilder to a file.
+	 *
+	 * @param markovModel
+	 *            Trained model
+	 * @param charset
+	 *            Charset the sample texts were decoded with, recorded in the
+	 *            header
+	 * @param modelFileLocation
+	 *            Path+filename of the model file
+	 * @throws IOException
+	 */
+	public static void write(HashMarkovModel markovModel, Charset charset, String modelFileLocation)
+			throws IOException {
+		if (markovModel.getMinOrder() < markovModel.getKOrder()) {
+			throw new IllegalArgumentException("Backed off models have keys of several lengths and can not be written");
+		}
+		int kOrder = markovModel.getKOrder();
+		// Gather the keys as Strings, sorted, with their Markov
+		String[] sortedKeys;
+		Markov[] markovs;
+		if (markovModel.getKGramCodec() != null) {
+			MarkovLongHashMap<Markov> packedMarkovHashMap = markovModel.getPackedMarkovHashMap();
+			KGramCodec codec = markovModel.getKGramCodec();
+			sortedKeys = new String[packedMarkovHashMap.getHashMapTableContentCount()];
+			int n = 0;
+			for (int slot = 0; slot < packedMarkovHashMap.getHashMapTableSize(); slot++) {
+				if (packedMarkovHashMap.keyAt(slot) != 0) {
+					sortedKeys[n++] = codec.unpack(packedMarkovHashMap.keyAt(slot));
+				}
+			}
+			Arrays.sort(sortedKeys);
+			markovs = new Markov[sortedKeys.length];
+			for (n = 0; n < sortedKeys.length; n++) {
+				markovs[n] = packedMarkovHashMap.get(codec.pack(sortedKeys[n], 0));
+			}
+		} else {
+			MarkovProbingHashMap<String, Markov> markovHashMap = markovModel.getMarkovHashMap();
+			sortedKeys = new String[markovHashMap.getHashMapTableContentCount()];
+			int n = 0;
+			for (int slot = 0; slot < markovHashMap.getHashMapTableSize(); slot++) {
+				if (markovHashMap.keyAt(slot) != null) {
+					sortedKeys[n++] = markovHashMap.keyAt(slot);
+				}
+			}
+			Arrays.sort(sortedKeys);
+			markovs = new Markov[sortedKeys.length];
+			for (n = 0; n < sortedKeys.length; n++) {
+				markovs[n] = markovHashMap.get(sortedKeys[n]);
+			}
+		}
+
+		long successorCount = 0;
+		for (Markov markov : markovs) {
+			successorCount += markov.getSubsequentCharCount();
+		}
+
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(modelFileLocation), 1 << 16));
+		try {
+			writeHeader(out, kOrder, sortedKeys.length, successorCount, charset);
+
+			for (String key : sortedKeys) {
+				out.writeChars(key);
+			}
+			writePadding(out, (long) sortedKeys.length * kOrder * 2);
+
+			long offset = 0;
+			out.writeLong(offset);
+			for (Markov markov : markovs) {
+				offset += markov.getSubsequentCharCount();
+				out.writeLong(offset);
+			}
+
+			for (Markov markov : markovs) {
+				for (int n = 0; n < markov.getSubsequentCharCount(); n++) {
+					out.writeChar(markov.getSubsequentChar(n));
+				}
+			}
+			writePadding(out, successorCount * 2);
+
+			for (Markov markov : markovs) {
+				int runningCount = 0;
+				for (int n = 0; n < markov.getSubsequentCharCount(); n++) {
+					runningCount += markov.getFrequencyCountAt(n);
+					out.writeInt(runningCount);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the header of a model file, padded, see the class comment
+	 */
+	static void writeHeader(DataOutputStream out, int kOrder, int keyCount, long successorCount, Charset charset)
+			throws IOException {
+		byte[] charsetNameBytes = charset.name().getBytes("US-ASCII");
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(kOrder);
+		out.writeInt(keyCount);
+		out.writeLong(successorCount);
+		out.writeInt(charsetNameBytes.length);
+		out.write(charsetNameBytes);
+		writePadding(out, HEADER_LENGTH + charsetNameBytes.length);
+	}
+
+	/**
+	 * Pads a section of the given length to 8 bytes. The length is passed in
+	 * as DataOutputStream.size() stops counting at 2 GB.
+	 */
+	static void writePadding(DataOutputStream out, long sectionLength) throws IOException {
+		for (long n = sectionLength; n < pad(sectionLength); n++) {
+			out.writeByte(0);
+		}
+	}
+
+	/**
+	 * Finds the key equal to the kOrder chars of the text starting at offset.
+	 *
+	 * @param text
+	 *            Text holding the key
+	 * @param offset
+	 *            Index of the first char of the key
+	 * @return int Index of the key, or -1 if not found
+	 */
+	public int findKey(CharSequence text, int offset) {
+		int low = 0;
+		int high = keyCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int comparison = compareKey(mid, text, offset);
+			if (comparison < 0) {
+				low = mid + 1;
+			} else if (comparison > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int compareKey(int keyIndex, CharSequence text, int offset) {
+		long keyStart = (long) keyIndex * kOrder;
+		for (int n = 0; n < kOrder; n++) {
+			char keyChar = keys.getChar(keyStart + n);
+			char textChar = text.charAt(offset + n);
+			if (keyChar != textChar) {
+				return keyChar < textChar ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public long findState(CharSequence text, int end) {
+		return end < kOrder ? -1 : findKey(text, end - kOrder);
+	}
+
+	@Override
+	public long nextState(long state, CharSequence text, int end) {
+		return findKey(text, end - kOrder);
+	}
+
+	@Override
+	public int getStartStateCount() {
+		return keyCount;
+	}
+
+	/**
+	 * The keys are all of kOrder chars and already dense, the index is the
+	 * state
+	 */
+	@Override
+	public long getStartState(int index) {
+		return index;
+	}
+
+	@Override
+	public int getCount(long state) {
+		return cumulativeCounts.getInt(offsets.getLong(state + 1) - 1);
+	}
+
+	@Override
+	public long getRandomState(Random rand) {
+		return keyCount == 0 ? -1 : rand.nextInt(keyCount);
+	}
+
+	@Override
+	public char getRandomSubsequentChar(long state, Random rand) {
+		return getRandomSubsequentChar((int) state, rand);
+	}
+
+	@Override
+	public int getSubsequentCharCount(long state) {
+		return getSubsequentCharCount((int) state);
+	}
+
+	@Override
+	public char getSubsequentChar(long state, int index) {
+		return successorChars.getChar(offsets.getLong(state) + index);
+	}
+
+	@Override
+	public String getSubsequentCharsString(long state) {
+		return getSubsequentCharsString((int) state);
+	}
+
+	@Override
+	public String getKey(long state) {
+		return getKey((int) state);
+	}
+
+	/**
+	 * Using the cumulative counts of the key, sample a subsequent char.
+	 *
+	 * @param keyIndex
+	 *            Index of the key
+	 * @param rand
+	 *            Source of randomness
+	 * @return char subsequent char based on frequency counts
+	 */
+	public char getRandomSubsequentChar(int keyIndex, Random rand) {
+		long low = offsets.getLong(keyIndex);
+		long high = offsets.getLong(keyIndex + 1) - 1;
+		int target = rand.nextInt(cumulativeCounts.getInt(high));
+		// Find the first cumulative count strictly greater than the target
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (cumulativeCounts.getInt(mid) > target) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return successorChars.getChar(low);
+	}
+
+	/**
+	 * Number of distinct subsequent chars of the key
+	 *
+	 * @param keyIndex
+	 *            Index of the key
+	 * @return int Number of subsequent chars
+	 */
+	public int getSubsequentCharCount(int keyIndex) {
+		return (int) (offsets.getLong(keyIndex + 1) - offsets.getLong(keyIndex));
+	}
+
+	/**
+	 * Key at an index
+	 *
+	 * @param keyIndex
+	 *            Index of the key, 0..getKeyCount()
+	 * @return String key of kOrder chars
+	 */
+	public String getKey(int keyIndex) {
+		char[] key = new char[kOrder];
+		for (int n = 0; n < kOrder; n++) {
+			key[n] = keys.getChar((long) keyIndex * kOrder + n);
+		}
+		return new String(key);
+	}
+
+	/**
+	 * String formatted representation of the subsequent chars of a key, in the
+	 * same form as Markov.getSubsequentCharsString()
+	 *
+	 * @param keyIndex
+	 *            Index of the key
+	 * @return String such as "{a=2, b=1}"
+	 */
+	public String getSubsequentCharsString(int keyIndex) {
+		StringBuilder returnString = new StringBuilder("{");
+		int previousCount = 0;
+		for (long n = offsets.getLong(keyIndex); n < offsets.getLong(keyIndex + 1); n++) {
+			if (previousCount > 0) {
+				returnString.append(", ");
+			}
+			returnString.append(successorChars.getChar(n)).append('=').append(cumulativeCounts.getInt(n) - previousCount);
+			previousCount = cumulativeCounts.getInt(n);
+		}
+		return returnString.append('}').toString();
+	}
+
+	@Override
+	public int getKOrder() {
+		return kOrder;
+	}
+
+	@Override
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * Name of the charset the sample texts were decoded with
+	 *
+	 * @return String charset name
+	 */
+	public String getCharsetName() {
+		return charsetName;
+	}
+}
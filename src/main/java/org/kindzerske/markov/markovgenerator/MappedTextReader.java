@@ -0,0 +1,134 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads a text file by memory-mapping it and decoding the mapped bytes
+ * straight into the caller's char array, so there is no intermediate byte
+ * buffer copy. Files larger than a single mapping (2 GB) are read through a
+ * sliding window which is remapped as the decoder advances; bytes of a
+ * multi-byte char cut off by the end of a window are decoded from the start
+ * of the next one. Malformed input is replaced rather than rejected.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class MappedTextReader extends Reader {
+
+	// Bytes mapped at a time
+	private static final long WINDOW_LENGTH = 1L << 28;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileLength;
+	private final long windowLength;
+	private final CharsetDecoder decoder;
+
+	private MappedByteBuffer window;
+	private long windowStart = 0;
+	private boolean finished = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param fileLocation
+	 *            Path+filename of the text file
+	 * @param charset
+	 *            Charset of the text file
+	 * @throws IOException
+	 */
+	public MappedTextReader(String fileLocation, Charset charset) throws IOException {
+		this(fileLocation, charset, WINDOW_LENGTH);
+	}
+
+	MappedTextReader(String fileLocation, Charset charset, long windowLength) throws IOException {
+		this.file = new RandomAccessFile(fileLocation, "r");
+		this.channel = file.getChannel();
+		this.fileLength = channel.size();
+		this.windowLength = windowLength;
+		this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (finished) {
+			return -1;
+		}
+
+		CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+		while (out.hasRemaining()) {
+			if (window == null) {
+				mapWindow(0);
+			}
+			boolean lastWindow = windowStart + window.limit() == fileLength;
+
+			CoderResult result = decoder.decode(window, out, lastWindow);
+			if (result.isOverflow()) {
+				break;
+			} else if (result.isError()) {
+				result.throwException();
+			}
+
+			// Underflow, the window is consumed apart from at most a partial
+			// char
+			if (!lastWindow) {
+				mapWindow(windowStart + window.position());
+			} else if (decoder.flush(out).isUnderflow()) {
+				finished = true;
+				break;
+			} else {
+				break;
+			}
+		}
+
+		int read = out.position() - off;
+		return (read == 0 && finished) ? -1 : read;
+	}
+
+	private void mapWindow(long position) throws IOException {
+		windowStart = position;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+				Math.min(windowLength, fileLength - windowStart));
+	}
+
+	/**
+	 * Number of bytes of the file decoded so far
+	 *
+	 * @return long Byte count
+	 */
+	public long getBytesRead() {
+		return window == null ? windowStart : windowStart + window.position();
+	}
+
+	/**
+	 * Size of the file in bytes
+	 *
+	 * @return long Byte count
+	 */
+	public long getFileLength() {
+		return fileLength;
+	}
+
+	/**
+	 * Closes the file. The last mapping is released when it is garbage
+	 * collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (window != null) {
+			windowStart += window.position();
+			window = null;
+		}
+		file.close();
+	}
+}
@@ -1,13 +1,21 @@
 package org.kindzerske.markov.markovgenerator;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.TreeMap;
-import java.util.Map.Entry;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * Represents a k-character string, a count of all occurrences, and a TreeMap of
- * all encountered occurrences with subsequent char
+ * Represents a k-character string, a count of all occurrences, and the counts
+ * of every subsequent char encountered after it.
+ * 
+ * Most keys of a trained model are followed by one or two distinct chars, so
+ * the counts are stored compactly: a single subsequent char is kept inline
+ * (its count is the total count), further chars go to a pair of small parallel
+ * arrays sorted by char which grow as needed. compile() trims the arrays and
+ * turns the counts into cumulative counts in place, which is the sampling
+ * table, so a trained Markov takes about 40 bytes plus 6 bytes per distinct
+ * subsequent char instead of a TreeMap with boxed entries.
  * 
  * @author matthew.kindzerske
  * 
@@ -16,20 +24,29 @@ public class Markov {
 
 	private String subString;
 	private int count = 0;
-	private TreeMap<Character, Integer> subsequentMap;
+	// The only subsequent char while chars is null
+	private char singleChar;
+	// Sorted subsequent chars and their counts (cumulative once compiled),
+	// null while there is a single subsequent char
+	private char[] chars;
+	private int[] counts;
+	private int size;
+	private boolean compiled = false;
 
 	/**
 	 * Constructor using a substring and subsequent char. (i.e. 'the plac' and
 	 * 'e')
 	 * 
 	 * @param subString
+	 *            The key, may be null when the owning table keys on packed
+	 *            k-grams
 	 * @param subsequentChar
 	 */
-	public Markov(String subString, Character subsequentChar) {
+	public Markov(String subString, char subsequentChar) {
 		this.subString = subString;
-		subsequentMap = new TreeMap<Character, Integer>();
-		// Add the char
-		add(subsequentChar);
+		this.singleChar = subsequentChar;
+		this.size = 1;
+		this.count = 1;
 	}
 
 	/**
@@ -37,52 +54,125 @@ public class Markov {
 	 * 
 	 * @param subsequentChar
 	 */
-	public void add(Character subsequentChar) {
-		// Add a subsequentChat to the mapping and keep accounting
-		addOneToCount();
-		if (subsequentMap.containsKey(subsequentChar)) {
-			// Update the count for this char
-			int charCount = subsequentMap.get(subsequentChar);
-			subsequentMap.put(subsequentChar, charCount + 1);
-		} else {
-			// Add the new char
-			subsequentMap.put(subsequentChar, 1);
+	public void add(char subsequentChar) {
+		add(subsequentChar, 1);
+	}
+
+	private void add(char subsequentChar, int occurrences) {
+		count += occurrences;
+		if (chars == null) {
+			if (subsequentChar == singleChar) {
+				return;
+			}
+			// Second distinct char, move to the arrays
+			chars = new char[] { singleChar, 0 };
+			counts = new int[] { count - occurrences, 0 };
+		} else if (compiled) {
+			// Any compiled sampling table is now stale, back to plain counts
+			for (int n = size - 1; n > 0; n--) {
+				counts[n] -= counts[n - 1];
+			}
+			compiled = false;
+		}
+
+		int index = binarySearch(subsequentChar);
+		if (index >= 0) {
+			counts[index] += occurrences;
+			return;
+		}
+
+		index = -index - 1;
+		if (size == chars.length) {
+			int capacity = size + Math.max(2, size >> 1);
+			chars = Arrays.copyOf(chars, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+		}
+		System.arraycopy(chars, index, chars, index + 1, size - index);
+		System.arraycopy(counts, index, counts, index + 1, size - index);
+		chars[index] = subsequentChar;
+		counts[index] = occurrences;
+		size++;
+	}
+
+	private int binarySearch(char subsequentChar) {
+		return Arrays.binarySearch(chars, 0, size, subsequentChar);
+	}
+
+	/**
+	 * Adds all occurrences counted by another Markov of the same key, i.e. a
+	 * partial count trained from a different chunk of the text.
+	 * 
+	 * @param other
+	 *            Markov whose counts are added to this one
+	 */
+	public void merge(Markov other) {
+		for (int n = 0; n < other.size; n++) {
+			add(other.getSubsequentChar(n), other.getFrequencyCountAt(n));
 		}
 	}
 
 	/**
 	 * Using the frequency counts, properly weight each char and sample
-	 * appropriately to return a subsequent character.
+	 * appropriately to return a subsequent character. The first call after
+	 * training (or after any add()) compiles the counts into cumulative
+	 * counts, subsequent calls draw from them without allocating. Draws use
+	 * the ThreadLocalRandom of the calling thread, so threads never contend on
+	 * a shared seed.
 	 * 
 	 * @return subsequent char based on frequency counts
 	 */
 	public char getRandomSubsequentChar() {
-		Character returnChar = null;
-		ArrayList<Character> weightedSubsequentCharArray = new ArrayList<Character>();
-
-		for (Entry<Character, Integer> entry : subsequentMap.entrySet()) {
-			// Iterate over each character
-			char currentChar = entry.getKey();
-			for (int n = 0; n < entry.getValue(); n++) {
-				// Iterate over number of occurrences
-				weightedSubsequentCharArray.add(currentChar);
-			}
-		}
+		return getRandomSubsequentChar(ThreadLocalRandom.current());
+	}
 
-		// Print out any opportunities for the generated text to bifurcate
-		if (subsequentMap.size() > 1) {
-			System.out.println("  Bifurcation: '" + this.subString + "'; " + weightedSubsequentCharArray.toString());
+	/**
+	 * Same as getRandomSubsequentChar() with a caller supplied source of
+	 * randomness.
+	 * 
+	 * @param rand
+	 *            Source of randomness
+	 * @return subsequent char based on frequency counts
+	 */
+	public char getRandomSubsequentChar(Random rand) {
+		// Drawn even for a single char, so a seed gives the same text as with
+		// the other MarkovModel engines
+		int target = rand.nextInt(count);
+		if (chars == null) {
+			return singleChar;
 		}
+		compile();
 
-		Random rand = new Random();
-		int retIndex = rand.nextInt(weightedSubsequentCharArray.size());
-		returnChar = weightedSubsequentCharArray.get(retIndex);
+		// Find the first cumulative count strictly greater than the target
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (counts[mid] > target) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
 
-		return returnChar;
+		return chars[low];
 	}
 
-	private void addOneToCount() {
-		count++;
+	/**
+	 * Compiles the sampling table now rather than on the first draw, so that a
+	 * trained Markov which is no longer added to is only read by draws.
+	 */
+	public void compile() {
+		if (compiled || chars == null) {
+			return;
+		}
+		if (size < chars.length) {
+			chars = Arrays.copyOf(chars, size);
+			counts = Arrays.copyOf(counts, size);
+		}
+		for (int n = 1; n < size; n++) {
+			counts[n] += counts[n - 1];
+		}
+		compiled = true;
 	}
 
 	/**
@@ -98,6 +188,40 @@ public class Markov {
 		return this.subString;
 	}
 
+	/**
+	 * Number of distinct subsequent chars
+	 * 
+	 * @return int Number of distinct subsequent chars
+	 */
+	public int getSubsequentCharCount() {
+		return size;
+	}
+
+	/**
+	 * The n-th distinct subsequent char, in ascending order
+	 * 
+	 * @param index
+	 *            0..getSubsequentCharCount() - 1
+	 * @return char subsequent char
+	 */
+	public char getSubsequentChar(int index) {
+		return chars == null ? singleChar : chars[index];
+	}
+
+	/**
+	 * Frequency count of the n-th distinct subsequent char
+	 * 
+	 * @param index
+	 *            0..getSubsequentCharCount() - 1
+	 * @return int Count of occurrences
+	 */
+	public int getFrequencyCountAt(int index) {
+		if (chars == null) {
+			return count;
+		}
+		return compiled && index > 0 ? counts[index] - counts[index - 1] : counts[index];
+	}
+
 	/**
 	 * Return the frequency count of a specified char, if not found returns -1
 	 * 
@@ -105,32 +229,55 @@ public class Markov {
 	 *            Queried subsequentChar
 	 * @return int Count of occurrences, or -1 if not found.
 	 */
-	public int getFrequencyCount(Character subsequentChar) {
-		if (!subsequentMap.containsKey(subsequentChar)) {
-			return -1;
-		} else {
-			return subsequentMap.get(subsequentChar);
+	public int getFrequencyCount(char subsequentChar) {
+		if (chars == null) {
+			return subsequentChar == singleChar ? count : -1;
 		}
+		int index = binarySearch(subsequentChar);
+		return index < 0 ? -1 : getFrequencyCountAt(index);
 	}
 
 	/**
-	 * TreeMap representation of the subsequentChars
+	 * TreeMap representation of the subsequentChars, a copy built on each
+	 * call
 	 * 
 	 * @return TreeMap
 	 */
 	public TreeMap<Character, Integer> getSubsequentMap() {
-		return this.subsequentMap;
+		TreeMap<Character, Integer> subsequentMap = new TreeMap<Character, Integer>();
+		for (int n = 0; n < size; n++) {
+			subsequentMap.put(getSubsequentChar(n), getFrequencyCountAt(n));
+		}
+		return subsequentMap;
+	}
+
+	/**
+	 * String formatted representation of the subsequentChars, the same as
+	 * getSubsequentMap().toString()
+	 * 
+	 * @return String such as "{a=2, b=1}"
+	 */
+	public String getSubsequentCharsString() {
+		StringBuilder stringBuilder = new StringBuilder("{");
+		for (int n = 0; n < size; n++) {
+			if (n > 0) {
+				stringBuilder.append(", ");
+			}
+			stringBuilder.append(getSubsequentChar(n)).append('=').append(getFrequencyCountAt(n));
+		}
+		return stringBuilder.append('}').toString();
 	}
 
 	/**
 	 * String formatted representation of the Markov instance.
 	 */
 	public String toString() {
-		String returnString = this.subString + ":";
-		for (Entry<Character, Integer> entry : subsequentMap.entrySet()) {
-			returnString += "\n  " + entry.getKey() + " (" + entry.getValue() + ")";
+		StringBuilder stringBuilder = new StringBuilder().append(this.subString).append(':');
+		for (int n = 0; n < size; n++) {
+			stringBuilder.append("\n  ").append(getSubsequentChar(n)).append(" (").append(getFrequencyCountAt(n))
+					.append(')');
 		}
-		return returnString;
+		return stringBuilder.toString();
 	}
 
 }
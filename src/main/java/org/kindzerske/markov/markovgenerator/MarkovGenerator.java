@@ -0,0 +1,366 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates text from a MarkovModel.
+ *
+ * Thread safety: a MarkovModel is read-only once built and a generator holds
+ * nothing but the model and its settings. Each call keeps its key state and
+ * text on its own stack and draws from its own source of randomness (the
+ * ThreadLocalRandom of the calling thread unless one is supplied), so a single
+ * model and generator can be shared by any number of threads without locking.
+ * Nothing is written to System.out unless the generator is verbose, which is
+ * meant for the CLI only since every thread then contends for the console.
+ * Events of generation go to a MarkovListener, by default NONE, for which the
+ * per char events are skipped altogether.
+ *
+ * A text ends short of textLength where its key was never followed by
+ * anything in training, unless the generator was given a DeadEndAnalysis of
+ * the model: it then redraws chars which lead into a dead end from keys which
+ * have another way out, and restarts from a random live key where the text
+ * still runs into one (e.g. from a start key given by the caller), so every
+ * text has textLength chars.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class MarkovGenerator {
+
+	private final MarkovModel markovModel;
+	// Null to start from MarkovModel.getRandomState()
+	private final StartKeySampler startKeySampler;
+	private final MarkovListener listener;
+	// Null to stop at dead ends
+	private final DeadEndAnalysis deadEndAnalysis;
+
+	/**
+	 * Constructor
+	 *
+	 * @param markovModel
+	 *            Trained model
+	 */
+	public MarkovGenerator(MarkovModel markovModel) {
+		this(markovModel, false);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param markovModel
+	 *            Trained model
+	 * @param verbose
+	 *            Print every key and bifurcation to System.out
+	 */
+	public MarkovGenerator(MarkovModel markovModel, boolean verbose) {
+		this(markovModel, verbose, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param markovModel
+	 *            Trained model
+	 * @param verbose
+	 *            Print every key and bifurcation to System.out
+	 * @param startKeySampler
+	 *            Draws the random start keys, e.g. weighted or at sentence
+	 *            boundaries, or null for MarkovModel.getRandomState()
+	 */
+	public MarkovGenerator(MarkovModel markovModel, boolean verbose, StartKeySampler startKeySampler) {
+		this(markovModel, startKeySampler, verbose ? new SampledLogger(1, null, MarkovListener.NONE)
+				: MarkovListener.NONE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param markovModel
+	 *            Trained model
+	 * @param startKeySampler
+	 *            Draws the random start keys, or null for
+	 *            MarkovModel.getRandomState()
+	 * @param listener
+	 *            Receives the events of generation, e.g. a MarkovMetrics or a
+	 *            SampledLogger
+	 */
+	public MarkovGenerator(MarkovModel markovModel, StartKeySampler startKeySampler, MarkovListener listener) {
+		this(markovModel, startKeySampler, listener, null);
+	}
+
+	/**
+	 * Constructor for a generator which always generates textLength chars
+	 *
+	 * @param markovModel
+	 *            Trained model
+	 * @param startKeySampler
+	 *            Draws the random start keys, or null for
+	 *            MarkovModel.getRandomState()
+	 * @param listener
+	 *            Receives the events of generation
+	 * @param deadEndAnalysis
+	 *            Analysis of the model, or null to end texts at dead ends
+	 */
+	public MarkovGenerator(MarkovModel markovModel, StartKeySampler startKeySampler, MarkovListener listener,
+			DeadEndAnalysis deadEndAnalysis) {
+		if (deadEndAnalysis != null && deadEndAnalysis.getMarkovModel() != markovModel) {
+			throw new IllegalArgumentException("The DeadEndAnalysis is of another model");
+		}
+		this.markovModel = markovModel;
+		this.startKeySampler = startKeySampler;
+		this.listener = listener;
+		this.deadEndAnalysis = deadEndAnalysis;
+	}
+
+	public MarkovModel getMarkovModel() {
+		return markovModel;
+	}
+
+	/**
+	 * Generates a text starting from a random key, drawing from the
+	 * ThreadLocalRandom of the calling thread.
+	 *
+	 * @param textLength
+	 *            Length of the desired generated text
+	 * @return String of at most textLength chars, shorter if a key without
+	 *         subsequent chars is reached and there is no DeadEndAnalysis
+	 */
+	public String generate(int textLength) {
+		return generate(textLength, ThreadLocalRandom.current(), null);
+	}
+
+	/**
+	 * Generates a reproducible text, the same model, seed and start key always
+	 * give the same text. Seeded draws come from a SplitMixRandom, which is as
+	 * fast as the unseeded ThreadLocalRandom.
+	 *
+	 * @param textLength
+	 *            Length of the desired generated text
+	 * @param seed
+	 *            Seed of the random draws
+	 * @param startKey
+	 *            Text to continue from (its last kOrder chars are the first
+	 *            key), or null to start from a random key
+	 * @return String of at most textLength chars, shorter if a key without
+	 *         subsequent chars is reached and there is no DeadEndAnalysis
+	 */
+	public String generate(int textLength, long seed, String startKey) {
+		return generate(textLength, new SplitMixRandom(seed), startKey);
+	}
+
+	/**
+	 * Generates a text drawing from a caller supplied source of randomness,
+	 * which must not be shared with another thread while this runs.
+	 *
+	 * @param textLength
+	 *            Length of the desired generated text
+	 * @param rand
+	 *            Source of randomness, e.g. ThreadLocalRandom.current() or a
+	 *            seeded Random per request
+	 * @param startKey
+	 *            Text to continue from (its last kOrder chars are the first
+	 *            key), or null to start from a random key
+	 * @return String of at most textLength chars, shorter if a key without
+	 *         subsequent chars is reached and there is no DeadEndAnalysis
+	 */
+	public String generate(int textLength, Random rand, String startKey) {
+		StringBuilder generatedStringBuilder = new StringBuilder(Math.max(textLength, markovModel.getKOrder()));
+		try {
+			generate(textLength, rand, startKey, generatedStringBuilder);
+		} catch (IOException e) {
+			// A StringBuilder does not throw
+			throw new IllegalStateException(e);
+		}
+		return generatedStringBuilder.toString();
+	}
+
+	/**
+	 * Streams a reproducible text to out, see generate(textLength, seed,
+	 * startKey).
+	 *
+	 * @param textLength
+	 *            Length of the desired generated text
+	 * @param seed
+	 *            Seed of the random draws
+	 * @param startKey
+	 *            Text to continue from, or null to start from a random key
+	 * @param out
+	 *            Receives the text, e.g. a BufferedWriter or a CharBuffer
+	 * @return long Number of chars written
+	 * @throws IOException
+	 *             If out throws
+	 */
+	public long generate(long textLength, long seed, String startKey, Appendable out) throws IOException {
+		return generate(textLength, new SplitMixRandom(seed), startKey, out);
+	}
+
+	/**
+	 * Streams a text to out one char at a time, keeping nothing of the text
+	 * but the last kOrder chars, so the text may be far larger than the heap.
+	 * Each char costs constant time and memory, and so do its events. The same
+	 * arguments write the same chars as generate() returns.
+	 *
+	 * @param textLength
+	 *            Length of the desired generated text
+	 * @param rand
+	 *            Source of randomness
+	 * @param startKey
+	 *            Text to continue from (it is written first, its last kOrder
+	 *            chars are the first key), or null to start from a random key
+	 * @param out
+	 *            Receives the text, e.g. a BufferedWriter or a CharBuffer
+	 * @return long Number of chars written, fewer than textLength if a key
+	 *         without subsequent chars is reached and there is no
+	 *         DeadEndAnalysis
+	 * @throws IOException
+	 *             If out throws
+	 */
+	public long generate(long textLength, Random rand, String startKey, Appendable out) throws IOException {
+		int kOrder = markovModel.getKOrder();
+		ContextWindow context = new ContextWindow(kOrder);
+		boolean observed = listener != MarkovListener.NONE;
+		long startNanos = observed ? System.nanoTime() : 0;
+
+		// Start with a random key from the model unless one was given. A
+		// random key is a valid starting point which will have at least one
+		// subsequent character.
+		long state;
+		String start;
+		if (startKey == null) {
+			state = startKeySampler != null ? startKeySampler.sample(rand) : markovModel.getRandomState(rand);
+			if (deadEndAnalysis != null && deadEndAnalysis.isDoomed(state)) {
+				long liveState = deadEndAnalysis.getRandomLiveState(rand);
+				state = liveState >= 0 ? liveState : state;
+			}
+			if (state < 0) {
+				// Empty model (or no candidate key), nothing to generate
+				return 0;
+			}
+			start = markovModel.getKey(state);
+			context.append(start, 0, start.length());
+		} else {
+			start = startKey;
+			context.append(start, Math.max(0, start.length() - kOrder), start.length());
+			state = markovModel.findState(context, context.length());
+		}
+		out.append(start);
+		long length = start.length();
+
+		while (length < textLength) {
+			if (state < 0) {
+				if (deadEndAnalysis == null || (state = restartState(rand)) < 0) {
+					break;
+				}
+				// The text goes on with the chars of the new key
+				String key = markovModel.getKey(state);
+				int restartLength = (int) Math.min(key.length(), textLength - length);
+				out.append(key, 0, restartLength);
+				context.append(key, 0, restartLength);
+				length += restartLength;
+				continue;
+			}
+			if (observed) {
+				listener.onStep(markovModel, state);
+				// Any opportunity for the generated text to bifurcate
+				if (markovModel.getSubsequentCharCount(state) > 1) {
+					listener.onBifurcation(markovModel, state);
+				}
+			}
+			// Exits if no subsequent state is found for the new key
+			char subsequentChar = markovModel.getRandomSubsequentChar(state, rand);
+			context.append(subsequentChar);
+			long nextState = markovModel.nextState(state, context, context.length());
+			if (deadEndAnalysis != null && (nextState < 0 || deadEndAnalysis.isDoomed(nextState))
+					&& deadEndAnalysis.isRisky(state)) {
+				// Redraw until the char leads somewhere live, which draws from
+				// the chars that do in proportion to their counts
+				do {
+					context.removeLast();
+					subsequentChar = markovModel.getRandomSubsequentChar(state, rand);
+					context.append(subsequentChar);
+					nextState = markovModel.nextState(state, context, context.length());
+				} while (nextState < 0 || deadEndAnalysis.isDoomed(nextState));
+			}
+			out.append(subsequentChar);
+			length++;
+			state = nextState;
+		}
+
+		if (observed) {
+			if (length < textLength) {
+				listener.onDeadEnd(length, textLength);
+			}
+			listener.onGenerated(length, System.nanoTime() - startNanos);
+		}
+		return length;
+	}
+
+	/**
+	 * Random live start state to go on from after a dead end, any start state
+	 * if every one is doomed
+	 */
+	private long restartState(Random rand) {
+		long state = deadEndAnalysis.getRandomLiveState(rand);
+		return state >= 0 ? state : markovModel.getRandomState(rand);
+	}
+
+	/**
+	 * The last chars of a text, at least kOrder of them once the text is that
+	 * long. Appends shift the window back by kOrder chars whenever it fills,
+	 * so each char is copied at most once on average.
+	 */
+	private static final class ContextWindow implements CharSequence {
+		private final int kOrder;
+		private final char[] chars;
+		private int length;
+
+		ContextWindow(int kOrder) {
+			this.kOrder = kOrder;
+			this.chars = new char[Math.max(16, 2 * kOrder)];
+		}
+
+		void append(char c) {
+			if (length == chars.length) {
+				System.arraycopy(chars, length - kOrder, chars, 0, kOrder);
+				length = kOrder;
+			}
+			chars[length++] = c;
+		}
+
+		/**
+		 * Takes back the last char appended, the window still ends with at
+		 * least kOrder chars before it
+		 */
+		void removeLast() {
+			length--;
+		}
+
+		void append(String text, int start, int end) {
+			for (int n = start; n < end; n++) {
+				append(text.charAt(n));
+			}
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return chars[index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(chars, start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(chars, 0, length);
+		}
+	}
+}
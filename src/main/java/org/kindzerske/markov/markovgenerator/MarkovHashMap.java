@@ -3,11 +3,21 @@ package org.kindzerske.markov.markovgenerator;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Hash table, implemented for Markov text generation purpose. Under the hash
  * map is a linked list of Markov classes
  * 
+ * Resizing is incremental: once the load factor is hit a larger table takes
+ * over for new entries and every following put() moves a few buckets of the
+ * old table, so put() latency stays flat as the table grows instead of one
+ * put() rehashing every entry.
+ * 
+ * Every key is also appended to a dense list as it is first put, so
+ * getRandomKey() is a single uniform draw whatever the occupancy of the
+ * buckets.
+ * 
  * @author matthew.kindzerske
  * 
  * @param <K>
@@ -49,69 +59,114 @@ public class MarkovHashMap<K, V> {
 		}
 	}
 
+	// Buckets are created on first use, so a new table is a bare array
 	private LinkedList<HashMapEntry> hashMapTable[];
+	// Table being migrated into hashMapTable, null when no resize is under
+	// way. Its buckets below migrationIndex have been moved.
+	private LinkedList<HashMapEntry> oldHashMapTable[];
+	private int migrationIndex;
 	private int hashMapTableSize;
+	// Every key in insertion order, for uniform random keys
+	private final ArrayList<K> keys = new ArrayList<K>();
 	private float loadFactor; // Used for deciding when to resizes
-	private ArrayList<Integer> primes = new ArrayList<Integer>();
+
+	// Number of old buckets moved by each put() while a resize is under way.
+	// The table (at least) doubles and the next resize is due after a
+	// loadFactor share of its new length in puts, so a migration always
+	// ends long before the next one starts.
+	private static final int MIGRATION_STEP = 4;
+
+	// Used for resizing the hash when beyond the loadFactor.
+	private static final int[] PRIMES = { 11, 23, 47, 97, 197, 397, 797, 1597, 3203, 6421, 12853, 25717, 51437,
+			102877, 205759, 411527, 823117, 1646237, 3292489, 6584983, 13169977, 26339969, 52679969, 105359939,
+			210719881, 421439783, 842879579, 1685759167 };
 
 	@SuppressWarnings("unchecked")
 	public MarkovHashMap(int capacity, float loadFactor) {
 		hashMapTable = (LinkedList<HashMapEntry>[]) new LinkedList[capacity];
 		this.loadFactor = loadFactor;
 		this.hashMapTableSize = 0;
+	}
+
+	/**
+	 * Starts an incremental resize: a larger, empty table takes over and the
+	 * entries of the old one are moved a few buckets per put() (see
+	 * migrate()), so no single put() pays for rehashing the whole table.
+	 * Until then get() and containsKey() look in both tables.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void resize() {
+		int newLength = primeHelper(hashMapTable.length);
+		if (newLength < 0) {
+			// Already at the largest prime
+			return;
+		}
+		if (oldHashMapTable != null) {
+			// Not expected (see MIGRATION_STEP), but a resize must never
+			// start while one is under way
+			migrate(oldHashMapTable.length);
+		}
+		oldHashMapTable = hashMapTable;
+		migrationIndex = 0;
+		hashMapTable = (LinkedList<HashMapEntry>[]) new LinkedList[newLength];
+		// Resized tables use a load factor of 0.75, as they always have
+		this.loadFactor = (float) 0.75;
+	}
 
-		for (int i = 0; i < hashMapTable.length; i++) {
-			hashMapTable[i] = new LinkedList<HashMapEntry>();
+	/**
+	 * Moves up to bucketCount buckets of the old table into the current one,
+	 * reusing their entries.
+	 */
+	private void migrate(int bucketCount) {
+		if (oldHashMapTable == null) {
+			return;
 		}
+		int end = Math.min(oldHashMapTable.length, migrationIndex + bucketCount);
+		for (; migrationIndex < end; migrationIndex++) {
+			migrateBucket(migrationIndex);
+		}
+		if (migrationIndex == oldHashMapTable.length) {
+			oldHashMapTable = null;
+		}
+	}
 
-		setPrimesForResizing();
+	private void migrateBucket(int index) {
+		LinkedList<HashMapEntry> bin = oldHashMapTable[index];
+		if (bin != null) {
+			for (HashMapEntry hashMapEntry : bin) {
+				bucket(hashMapTable, hashMapEntry.key, true).add(hashMapEntry);
+			}
+			oldHashMapTable[index] = null;
+		}
 	}
 
-	private void setPrimesForResizing() {
-		// Used for resizing the hash when beyond the loadFactor.
-		primes.add(11);
-		primes.add(23);
-		primes.add(47);
-		primes.add(97);
-		primes.add(197);
-		primes.add(397);
-		primes.add(797);
-		primes.add(1597);
-		primes.add(3203);
-		primes.add(6421);
-		primes.add(12853);
-		primes.add(25717);
-		primes.add(51437);
-		primes.add(102877);
-		primes.add(205759);
-		primes.add(411527);
-		primes.add(823117);
-		primes.add(1646237);
-		primes.add(3292489);
-		primes.add(6584983);
-		primes.add(13169977);
-		primes.add(26339969);
-		primes.add(52679969);
-		primes.add(105359939);
-		primes.add(210719881);
-		primes.add(421439783);
-		primes.add(842879579);
-		primes.add(1685759167);
+	private static int indexFor(Object key, int length) {
+		return Math.abs(key.hashCode()) % length;
 	}
 
-	private void resize() {
-		MarkovHashMap<K, V> tmp = new MarkovHashMap<K, V>(primeHelper(hashMapTable.length), (float) 0.75);
+	/**
+	 * Bucket of the key in a table, created if asked to and missing
+	 */
+	private LinkedList<HashMapEntry> bucket(LinkedList<HashMapEntry>[] table, K key, boolean create) {
+		int mapping = indexFor(key, table.length);
+		LinkedList<HashMapEntry> bin = table[mapping];
+		if (bin == null && create) {
+			bin = new LinkedList<HashMapEntry>();
+			table[mapping] = bin;
+		}
+		return bin;
+	}
 
-		for (LinkedList<HashMapEntry> hashMapEntryList : hashMapTable) {
-			for (HashMapEntry hashMapEntry : hashMapEntryList) {
-				K key = hashMapEntry.key;
-				V value = hashMapEntry.value;
-				tmp.put(key, value);
-			}
+	/**
+	 * Bucket of the key in the old table if it has not been moved yet,
+	 * otherwise null
+	 */
+	private LinkedList<HashMapEntry> unmigratedBucket(K key) {
+		if (oldHashMapTable == null) {
+			return null;
 		}
-		this.hashMapTable = tmp.hashMapTable;
-		this.hashMapTableSize = tmp.hashMapTableSize;
-		this.loadFactor = tmp.loadFactor;
+		int mapping = indexFor(key, oldHashMapTable.length);
+		return mapping < migrationIndex ? null : oldHashMapTable[mapping];
 	}
 
 	/**
@@ -119,18 +174,15 @@ public class MarkovHashMap<K, V> {
 	 * 
 	 * @param i
 	 *            integer Current size of the hashMap
-	 * @return Next largest prime after i, or mazimum prime described by
-	 *         setPrimesForResizing()
+	 * @return Next largest prime after i, or -1 beyond the largest prime
 	 */
 	public int primeHelper(int i) {
-		int ret = -1;
-		for (int j = 0; j < primes.size(); j++) {
-			if (primes.get(j) > i) {
-				ret = primes.get(j);
-				break;
+		for (int prime : PRIMES) {
+			if (prime > i) {
+				return prime;
 			}
 		}
-		return ret;
+		return -1;
 	}
 
 	/**
@@ -143,7 +195,8 @@ public class MarkovHashMap<K, V> {
 	}
 
 	/**
-	 * Returns the length of the hashMapTable
+	 * Returns the length of the hashMapTable (the new table while a resize is
+	 * under way)
 	 * 
 	 * @return int Length of the hashMapTable
 	 */
@@ -151,6 +204,15 @@ public class MarkovHashMap<K, V> {
 		return hashMapTable.length;
 	}
 
+	/**
+	 * True while entries are still being moved from a smaller table
+	 * 
+	 * @return boolean Resize under way
+	 */
+	boolean isResizing() {
+		return oldHashMapTable != null;
+	}
+
 	/**
 	 * Puts a value into into the hashMapTable using the key to assign in the
 	 * proper hash/bucket
@@ -163,18 +225,27 @@ public class MarkovHashMap<K, V> {
 	 *         existed.
 	 */
 	public V put(K key, V value) {
+		if (oldHashMapTable != null) {
+			// The key's old bucket first, so the key is only ever looked up
+			// and stored in the current table below
+			int mapping = indexFor(key, oldHashMapTable.length);
+			if (mapping >= migrationIndex) {
+				migrateBucket(mapping);
+			}
+			migrate(MIGRATION_STEP);
+		}
+
 		HashMapEntry entry = new HashMapEntry(key, value);
-		int hashCode = Math.abs(key.hashCode());
-		int mapping = hashCode % (hashMapTable.length);
-		LinkedList<HashMapEntry> bin = hashMapTable[mapping];
+		LinkedList<HashMapEntry> bin = bucket(hashMapTable, key, true);
 		V ret = null;
 
-		if (bin.contains(entry)) {
-			int index = bin.indexOf(entry);
+		int index = bin.indexOf(entry);
+		if (index >= 0) {
 			ret = bin.get(index).value;
 			bin.set(index, entry);
 		} else {
 			bin.add(entry);
+			keys.add(key);
 			// Only add to the hashMapTableSize if a NEW entry is added. (A
 			// subsequent hit on a particular substring should not count against
 			// the hash, even though it builds up the underlying Markov.)
@@ -187,6 +258,23 @@ public class MarkovHashMap<K, V> {
 		return ret;
 	}
 
+	private HashMapEntry find(LinkedList<HashMapEntry> bin, HashMapEntry queryObj) {
+		if (bin != null) {
+			for (HashMapEntry hashMapEntry : bin) {
+				if (hashMapEntry.equals(queryObj)) {
+					return hashMapEntry;
+				}
+			}
+		}
+		return null;
+	}
+
+	private HashMapEntry find(K key) {
+		HashMapEntry queryObj = new HashMapEntry(key, null);
+		HashMapEntry found = find(bucket(hashMapTable, key, false), queryObj);
+		return found != null ? found : find(unmigratedBucket(key), queryObj);
+	}
+
 	/**
 	 * Get the generic V from the hashMapTable basedo n the hashed key.
 	 * 
@@ -196,43 +284,28 @@ public class MarkovHashMap<K, V> {
 	 */
 	public V get(K key) {
 		// Return the object V based on K key, if not found returns null
-		V returnObject = null;
-		HashMapEntry queryObj = new HashMapEntry(key, null);
-		int hashCode = Math.abs(key.hashCode());
-		int mapping = hashCode % (hashMapTable.length);
-		LinkedList<HashMapEntry> bin = hashMapTable[mapping];
-		for (HashMapEntry hashMapEntry : bin) {
-			if (hashMapEntry.equals(queryObj)) {
-				returnObject = hashMapEntry.value;
-				break;
-			}
-		}
-		return returnObject;
+		HashMapEntry found = find(key);
+		return found != null ? found.value : null;
 	}
 
 	/**
-	 * Finds a random K key and returns the object.
+	 * Finds a random K key, uniform over the keys.
 	 * 
-	 * @return random K key
+	 * @return random K key, or null if the map is empty
 	 */
 	public K getRandomKey() {
-		@SuppressWarnings("unchecked")
-		K returnKey = (K) "";
-
-		Random rand = new Random();
-		int tableIndex = rand.nextInt(hashMapTable.length);
-		LinkedList<HashMapEntry> bucket = hashMapTable[tableIndex];
-		while (bucket.size() == 0) {
-			// Ensure we get a non-empty bucket
-			tableIndex = rand.nextInt(hashMapTable.length);
-			bucket = hashMapTable[tableIndex];
-		}
-
-		int bucketIndex = rand.nextInt(bucket.size());
-		returnKey = (K) bucket.get(bucketIndex).key;
-		// System.out.println(bucket.get(bucketIndex).toString());
+		return getRandomKey(ThreadLocalRandom.current());
+	}
 
-		return returnKey;
+	/**
+	 * Finds a random K key, uniform over the keys, in constant time.
+	 * 
+	 * @param rand
+	 *            Source of randomness
+	 * @return random K key, or null if the map is empty
+	 */
+	public K getRandomKey(Random rand) {
+		return keys.isEmpty() ? null : keys.get(rand.nextInt(keys.size()));
 	}
 
 	/**
@@ -244,17 +317,7 @@ public class MarkovHashMap<K, V> {
 	 */
 	public boolean containsKey(K queryKey) {
 		// Determines if the MarkovHashMap already contains the <K>queryKey
-		boolean returnResult = false;
-
-		HashMapEntry testEntry = new HashMapEntry(queryKey, null);
-		int hashCode = Math.abs(queryKey.hashCode());
-		int mapping = hashCode % (hashMapTable.length);
-		LinkedList<HashMapEntry> bin = hashMapTable[mapping];
-		if (bin.contains(testEntry)) {
-			returnResult = true;
-		}
-
-		return returnResult;
+		return find(queryKey) != null;
 	}
 
 	/**
@@ -267,11 +330,18 @@ public class MarkovHashMap<K, V> {
 		for (int n = 0; n < hashMapTable.length; n++) {
 			returnString += "\n bin_" + n;
 			LinkedList<HashMapEntry> bin = hashMapTable[n];
-			for (int m = 0; m < bin.size(); m++) {
+			for (int m = 0; bin != null && m < bin.size(); m++) {
 				HashMapEntry hashMap = bin.get(m);
 				returnString += "\n  " + hashMap.value.toString();
 			}
 		}
+		for (int n = migrationIndex; oldHashMapTable != null && n < oldHashMapTable.length; n++) {
+			// Not yet moved by an incremental resize
+			LinkedList<HashMapEntry> bin = oldHashMapTable[n];
+			for (int m = 0; bin != null && m < bin.size(); m++) {
+				returnString += "\n  " + bin.get(m).value.toString();
+			}
+		}
 		return returnString;
 	}
 }
@@ -0,0 +1,120 @@
+package org.kindzerske.markov.markovgenerator;
+
+/**
+ * Receives the events of training and generation, for metrics and tracing.
+ * Every method does nothing by default, so an implementation overrides only
+ * what it records.
+ *
+ * Events carry raw values (a model and a state rather than a formatted key),
+ * so nothing is formatted unless a listener chooses to. Generation skips the
+ * per char events altogether for NONE, the default, so an unobserved
+ * generator pays nothing for them. Listeners are called from every thread
+ * which trains or generates and must be thread-safe.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public interface MarkovListener {
+
+	/**
+	 * Listener which ignores every event
+	 */
+	MarkovListener NONE = new MarkovListener() {
+	};
+
+	/**
+	 * A block of a text was trained.
+	 *
+	 * @param chars
+	 *            Number of chars of the block
+	 * @param keysInserted
+	 *            Number of keys seen for the first time
+	 * @param nanos
+	 *            Time taken
+	 */
+	default void onBlockTrained(int chars, int keysInserted, long nanos) {
+	}
+
+	/**
+	 * The hashmap of a trainer grew while training a block, once or more.
+	 *
+	 * @param oldCapacity
+	 *            Slots before
+	 * @param newCapacity
+	 *            Slots after
+	 */
+	default void onResize(int oldCapacity, int newCapacity) {
+	}
+
+	/**
+	 * A text location was read and trained by MarkovModelBuilder.
+	 *
+	 * @param textFileLocation
+	 *            Project resource or path+filename of the sample text
+	 * @param bytes
+	 *            Size of the file, -1 for a resource or System.in
+	 * @param nanos
+	 *            Time taken to read and train
+	 */
+	default void onTextTrained(String textFileLocation, long bytes, long nanos) {
+	}
+
+	/**
+	 * A model was built.
+	 *
+	 * @param keyCount
+	 *            Number of keys
+	 * @param capacity
+	 *            Number of slots of its hashmap
+	 * @param averageProbeLength
+	 *            Average number of slots probed by a lookup
+	 */
+	default void onModelBuilt(int keyCount, int capacity, double averageProbeLength) {
+	}
+
+	/**
+	 * Generation is about to draw the char following a state.
+	 *
+	 * @param markovModel
+	 *            Model generated from
+	 * @param state
+	 *            Current state
+	 */
+	default void onStep(MarkovModel markovModel, long state) {
+	}
+
+	/**
+	 * Generation is about to draw from a state with more than one subsequent
+	 * char.
+	 *
+	 * @param markovModel
+	 *            Model generated from
+	 * @param state
+	 *            Current state
+	 */
+	default void onBifurcation(MarkovModel markovModel, long state) {
+	}
+
+	/**
+	 * Generation stopped short of the desired length, the key of the text so
+	 * far was never followed by anything in training.
+	 *
+	 * @param length
+	 *            Length of the text
+	 * @param textLength
+	 *            Desired length
+	 */
+	default void onDeadEnd(long length, long textLength) {
+	}
+
+	/**
+	 * A text was generated.
+	 *
+	 * @param chars
+	 *            Length of the text
+	 * @param nanos
+	 *            Time taken
+	 */
+	default void onGenerated(long chars, long nanos) {
+	}
+}
@@ -0,0 +1,366 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Open-addressing hash table keyed on primitive longs (packed k-grams, see
+ * KGramCodec). Same layout and probing as MarkovProbingHashMap, but keys are
+ * stored inline in a long[] so neither training nor lookups allocate a key
+ * object. The key 0 is reserved to mark empty slots.
+ *
+ * A resize is incremental: the doubled table takes over and put() moves a
+ * few slots of the old one per call (see migrate()), so no single put() of
+ * training pays for rehashing the whole table. Until then get() and
+ * containsKey() look in both tables. A slot only means something once the
+ * move is complete, so the slot based methods complete it first.
+ *
+ * @author matthew.kindzerske
+ *
+ * @param <V>
+ */
+public class MarkovLongHashMap<V> {
+
+	private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+	private int hashMapTableSize;
+	private float loadFactor; // Used for deciding when to resizes
+	private int resizeThreshold;
+	// Table length at which the table stops doubling
+	private final int maximumCapacity;
+	// Table being moved into keys/values, null when no resize is under way.
+	// Its slots below migrationIndex have been moved, but are left in place so
+	// the probes of the others still end where they did.
+	private long[] oldKeys;
+	private Object[] oldValues;
+	private int oldMask;
+	private int migrationIndex;
+	// Old slots moved per put(), the next resize is due after a loadFactor
+	// share of the old length in new keys, so a move is done before then
+	private final int migrationStep;
+
+	/**
+	 * Constructor, the capacity is rounded up to the next power of two.
+	 *
+	 * @param capacity
+	 *            Initial number of slots
+	 * @param loadFactor
+	 *            Fraction of occupied slots (0..1 exclusive) which triggers a
+	 *            doubling of the table
+	 */
+	public MarkovLongHashMap(int capacity, float loadFactor) {
+		this(capacity, loadFactor, MAXIMUM_CAPACITY);
+	}
+
+	/**
+	 * Constructor with a lower maximum capacity than 2^30, for tests
+	 */
+	MarkovLongHashMap(int capacity, float loadFactor, int maximumCapacity) {
+		if (loadFactor <= 0 || loadFactor >= 1) {
+			throw new IllegalArgumentException("loadFactor must be between 0 and 1 exclusive: " + loadFactor);
+		}
+		this.loadFactor = loadFactor;
+		this.hashMapTableSize = 0;
+		this.maximumCapacity = maximumCapacity;
+		this.migrationStep = (int) Math.ceil(1 / loadFactor);
+		int size = 2;
+		while (size < capacity && size < maximumCapacity) {
+			size <<= 1;
+		}
+		allocate(size);
+	}
+
+	private void allocate(int tableLength) {
+		keys = new long[tableLength];
+		values = new Object[tableLength];
+		mask = tableLength - 1;
+		resizeThreshold = (int) Math.min((long) tableLength - 1, (long) (tableLength * loadFactor));
+	}
+
+	/**
+	 * Fibonacci hashing of the key, packed k-grams share most of their low
+	 * bits with their neighbours so the high bits of the product are used.
+	 */
+	static int spread(long key) {
+		return (int) spreadLong(key);
+	}
+
+	/**
+	 * spread() with the high 32 bits kept, for tables of more than 2^32 slots.
+	 * The low 32 bits are those of spread(), so a smaller table masks out the
+	 * same slot either way.
+	 */
+	static long spreadLong(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 32);
+	}
+
+	private int findSlot(long key) {
+		if (key == 0) {
+			throw new IllegalArgumentException("The key 0 is reserved for empty slots");
+		}
+		int index = spread(key) & mask;
+		long slotKey;
+		while ((slotKey = keys[index]) != 0) {
+			if (slotKey == key) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	/**
+	 * Slot of the key in the old table, or -1 if it is not there (the key was
+	 * checked for 0 by findSlot() already).
+	 */
+	private int findOldSlot(long key) {
+		int index = spread(key) & oldMask;
+		long slotKey;
+		while ((slotKey = oldKeys[index]) != 0) {
+			if (slotKey == key) {
+				return index;
+			}
+			index = (index + 1) & oldMask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Starts an incremental resize, the entries of the current table are
+	 * moved by later calls of migrate().
+	 */
+	private void resize() {
+		// Not expected (see migrationStep), but a resize must never start
+		// while one is under way
+		completeResize();
+		oldKeys = keys;
+		oldValues = values;
+		oldMask = mask;
+		migrationIndex = 0;
+		allocate(oldKeys.length << 1);
+		if (hashMapTableSize == oldKeys.length) {
+			// A small table may fill up, and a probe of the old table needs
+			// an empty slot to end
+			completeResize();
+		}
+	}
+
+	/**
+	 * Moves up to slotCount slots of the old table into the current one.
+	 */
+	private void migrate(int slotCount) {
+		int end = Math.min(oldKeys.length, migrationIndex + slotCount);
+		for (; migrationIndex < end; migrationIndex++) {
+			long key = oldKeys[migrationIndex];
+			if (key != 0) {
+				int index = spread(key) & mask;
+				while (keys[index] != 0) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = key;
+				values[index] = oldValues[migrationIndex];
+			}
+		}
+		if (migrationIndex == oldKeys.length) {
+			oldKeys = null;
+			oldValues = null;
+		}
+	}
+
+	private void completeResize() {
+		if (oldKeys != null) {
+			migrate(oldKeys.length);
+		}
+	}
+
+	/**
+	 * True while entries are still being moved from a smaller table
+	 *
+	 * @return boolean Resize under way
+	 */
+	boolean isResizing() {
+		return oldKeys != null;
+	}
+
+	/**
+	 * Returns the number of entries added to the hashMapTable
+	 *
+	 * @return int Number of distinct keys
+	 */
+	public int getHashMapTableContentCount() {
+		return hashMapTableSize;
+	}
+
+	/**
+	 * Average number of slots probed by a lookup of a key in the table, 1
+	 * without collisions. Computed by a scan of the table, for metrics.
+	 *
+	 * @return double Average probe length, 0 for an empty table
+	 */
+	double getAverageProbeLength() {
+		completeResize();
+		long probes = 0;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != 0) {
+				probes += ((slot - (spread(keys[slot]) & mask)) & mask) + 1;
+			}
+		}
+		return hashMapTableSize == 0 ? 0 : (double) probes / hashMapTableSize;
+	}
+
+	/**
+	 * Returns the length of the hashMapTable (the new table while a resize is
+	 * under way)
+	 *
+	 * @return int Length of the hashMapTable
+	 */
+	public int getHashMapTableSize() {
+		return keys.length;
+	}
+
+	/**
+	 * Puts a value into the hashMapTable under the (non-zero) key
+	 *
+	 * @param key
+	 *            Packed key, must not be 0
+	 * @param value
+	 *            Object value which is to be stored.
+	 * @return The V value object iff the key had previously existed.
+	 * @throws IllegalStateException
+	 *             If the key is new and the table can not grow any further
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		int index = findSlot(key);
+		if (keys[index] != 0) {
+			V ret = (V) values[index];
+			values[index] = value;
+			return ret;
+		}
+		if (oldKeys != null) {
+			int oldIndex = findOldSlot(key);
+			if (oldIndex >= 0) {
+				// Not moved yet, it will be with its new value
+				V ret = (V) oldValues[oldIndex];
+				oldValues[oldIndex] = value;
+				return ret;
+			}
+		}
+
+		if (hashMapTableSize == keys.length - 1 && keys.length >= maximumCapacity) {
+			// The last empty slot is what ends the probe of a missing key
+			throw new IllegalStateException("The hashMapTable is full at " + keys.length + " slots");
+		}
+		keys[index] = key;
+		values[index] = value;
+		hashMapTableSize++;
+
+		if (oldKeys != null) {
+			migrate(migrationStep);
+		}
+		if (hashMapTableSize > resizeThreshold && keys.length < maximumCapacity) {
+			resize();
+		}
+		return null;
+	}
+
+	/**
+	 * Get the generic V stored under the key.
+	 *
+	 * @param key
+	 *            Packed key, must not be 0
+	 * @return <V> type of value object, or null if not found
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int index = findSlot(key);
+		if (keys[index] == 0 && oldKeys != null) {
+			int oldIndex = findOldSlot(key);
+			return oldIndex < 0 ? null : (V) oldValues[oldIndex];
+		}
+		return (V) values[index];
+	}
+
+	/**
+	 * Determines if an object exists for the key
+	 *
+	 * @param queryKey
+	 *            Packed key, must not be 0
+	 * @return Boolean if hashMapTable contains an object for the key
+	 */
+	public boolean containsKey(long queryKey) {
+		return keys[findSlot(queryKey)] != 0 || (oldKeys != null && findOldSlot(queryKey) >= 0);
+	}
+
+	/**
+	 * Key stored in a slot, for iterating over 0..getHashMapTableSize()
+	 *
+	 * @param slot
+	 *            Index into the hashMapTable
+	 * @return long key, or 0 for an empty slot
+	 */
+	long keyAt(int slot) {
+		completeResize();
+		return keys[slot];
+	}
+
+	/**
+	 * Value stored in a slot, for iterating over 0..getHashMapTableSize()
+	 *
+	 * @param slot
+	 *            Index into the hashMapTable
+	 * @return <V> value, or null for an empty slot
+	 */
+	@SuppressWarnings("unchecked")
+	V valueAt(int slot) {
+		completeResize();
+		return (V) values[slot];
+	}
+
+	/**
+	 * Slot holding the key, for use with keyAt()/valueAt()
+	 *
+	 * @param key
+	 *            Packed key, must not be 0
+	 * @return int slot, or -1 if not found
+	 */
+	int indexOf(long key) {
+		completeResize();
+		int index = findSlot(key);
+		return keys[index] != 0 ? index : -1;
+	}
+
+	/**
+	 * Finds a random key, uniform over the keys.
+	 *
+	 * @return random key, or 0 if the table is empty
+	 */
+	public long getRandomKey() {
+		int slot = getRandomSlot(ThreadLocalRandom.current());
+		return slot < 0 ? 0 : keys[slot];
+	}
+
+	/**
+	 * Finds the slot of a random key, uniform over the keys.
+	 *
+	 * @param rand
+	 *            Source of randomness
+	 * @return int slot, or -1 if the table is empty
+	 */
+	int getRandomSlot(Random rand) {
+		if (hashMapTableSize == 0) {
+			return -1;
+		}
+		completeResize();
+
+		int tableIndex = rand.nextInt(keys.length);
+		while (keys[tableIndex] == 0) {
+			tableIndex = rand.nextInt(keys.length);
+		}
+		return tableIndex;
+	}
+}
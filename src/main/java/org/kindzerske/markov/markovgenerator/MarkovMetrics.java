@@ -0,0 +1,252 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * MarkovListener which counts training and generation events, for seeing
+ * where time goes in production. Counters are LongAdders, so threads
+ * generating from one model do not contend on them, and nothing is formatted
+ * until the counters are read. Generation latency is kept in a histogram of
+ * power of 2 buckets, percentiles are the upper bound of their bucket.
+ * Lookup probes are given as the average probe length of the hashmap of the
+ * model built, by a scan of it, rather than counted on every lookup.
+ *
+ * The counters can be read directly, over JMX once register() was called, or
+ * printed by dump() (e.g. at exit with dumpAtExit()).
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class MarkovMetrics implements MarkovListener, MarkovMetricsMXBean {
+
+	private final LongAdder charsTrained = new LongAdder();
+	private final LongAdder keysInserted = new LongAdder();
+	private final LongAdder trainingNanos = new LongAdder();
+	private final LongAdder resizes = new LongAdder();
+	private volatile double averageProbeLength;
+	private final LongAdder textsGenerated = new LongAdder();
+	private final LongAdder charsGenerated = new LongAdder();
+	private final LongAdder generationNanos = new LongAdder();
+	private final LongAdder bifurcations = new LongAdder();
+	private final LongAdder deadEnds = new LongAdder();
+	// Bucket n counts latencies of [2^(n-1), 2^n) nanos
+	private final LongAdder[] latencyBuckets = new LongAdder[64];
+	private final AtomicLong latencyMaxNanos = new AtomicLong();
+
+	public MarkovMetrics() {
+		for (int n = 0; n < latencyBuckets.length; n++) {
+			latencyBuckets[n] = new LongAdder();
+		}
+	}
+
+	@Override
+	public void onBlockTrained(int chars, int keysInserted, long nanos) {
+		this.charsTrained.add(chars);
+		this.keysInserted.add(keysInserted);
+		this.trainingNanos.add(nanos);
+	}
+
+	@Override
+	public void onResize(int oldCapacity, int newCapacity) {
+		resizes.increment();
+	}
+
+	@Override
+	public void onModelBuilt(int keyCount, int capacity, double averageProbeLength) {
+		this.averageProbeLength = averageProbeLength;
+	}
+
+	@Override
+	public void onBifurcation(MarkovModel markovModel, long state) {
+		bifurcations.increment();
+	}
+
+	@Override
+	public void onDeadEnd(long length, long textLength) {
+		deadEnds.increment();
+	}
+
+	@Override
+	public void onGenerated(long chars, long nanos) {
+		textsGenerated.increment();
+		charsGenerated.add(chars);
+		generationNanos.add(nanos);
+		latencyBuckets[64 - Long.numberOfLeadingZeros(Math.max(0, nanos))].increment();
+		long max;
+		while (nanos > (max = latencyMaxNanos.get()) && !latencyMaxNanos.compareAndSet(max, nanos)) {
+			// Retry against the new max
+		}
+	}
+
+	@Override
+	public long getCharsTrained() {
+		return charsTrained.sum();
+	}
+
+	@Override
+	public long getKeysInserted() {
+		return keysInserted.sum();
+	}
+
+	@Override
+	public long getTrainingMillis() {
+		return trainingNanos.sum() / 1000000;
+	}
+
+	@Override
+	public long getResizes() {
+		return resizes.sum();
+	}
+
+	@Override
+	public double getAverageProbeLength() {
+		return averageProbeLength;
+	}
+
+	@Override
+	public long getTextsGenerated() {
+		return textsGenerated.sum();
+	}
+
+	@Override
+	public long getCharsGenerated() {
+		return charsGenerated.sum();
+	}
+
+	@Override
+	public long getGenerationMillis() {
+		return generationNanos.sum() / 1000000;
+	}
+
+	@Override
+	public long getBifurcations() {
+		return bifurcations.sum();
+	}
+
+	@Override
+	public long getDeadEnds() {
+		return deadEnds.sum();
+	}
+
+	@Override
+	public long getLatencyP50Micros() {
+		return getLatencyPercentileNanos(0.5) / 1000;
+	}
+
+	@Override
+	public long getLatencyP99Micros() {
+		return getLatencyPercentileNanos(0.99) / 1000;
+	}
+
+	@Override
+	public long getLatencyMaxMicros() {
+		return latencyMaxNanos.get() / 1000;
+	}
+
+	/**
+	 * Upper bound of the generation latency below which a fraction of the
+	 * texts were generated, at most the largest latency
+	 *
+	 * @param fraction
+	 *            0..1
+	 * @return long nanos, 0 before any text
+	 */
+	public long getLatencyPercentileNanos(double fraction) {
+		long[] counts = new long[latencyBuckets.length];
+		long total = 0;
+		for (int n = 0; n < counts.length; n++) {
+			counts[n] = latencyBuckets[n].sum();
+			total += counts[n];
+		}
+		long rank = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for (int n = 0; n < counts.length; n++) {
+			seen += counts[n];
+			if (seen >= rank && seen > 0) {
+				return Math.min(n == 63 ? Long.MAX_VALUE : 1L << n, latencyMaxNanos.get());
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public void reset() {
+		for (LongAdder adder : new LongAdder[] { charsTrained, keysInserted, trainingNanos, resizes, textsGenerated,
+				charsGenerated, generationNanos, bifurcations, deadEnds }) {
+			adder.reset();
+		}
+		for (LongAdder bucket : latencyBuckets) {
+			bucket.reset();
+		}
+		latencyMaxNanos.set(0);
+		averageProbeLength = 0;
+	}
+
+	/**
+	 * Registers the counters with the platform MBeanServer.
+	 *
+	 * @param name
+	 *            Name of the instance, e.g. the model it observes
+	 * @return ObjectName registered under
+	 * @throws IllegalStateException
+	 *             If the name is taken or invalid
+	 */
+	public ObjectName register(String name) {
+		try {
+			ObjectName objectName = new ObjectName(
+					"org.kindzerske.markov:type=MarkovMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			return objectName;
+		} catch (JMException e) {
+			throw new IllegalStateException("Could not register MarkovMetrics '" + name + "'", e);
+		}
+	}
+
+	/**
+	 * Writes every counter, one per line.
+	 *
+	 * @param out
+	 *            Receives the counters
+	 * @throws IOException
+	 *             If out throws
+	 */
+	public void dump(Appendable out) throws IOException {
+		long trainingMillis = Math.max(1, getTrainingMillis());
+		long generationMillis = Math.max(1, getGenerationMillis());
+		out.append(String.format("  Training: %d chars, %d keys inserted, %d ms (%.0f chars/s), %d resizes, "
+				+ "%.2f average probe length%n", getCharsTrained(), getKeysInserted(), getTrainingMillis(),
+				getCharsTrained() * 1000.0 / trainingMillis, getResizes(), getAverageProbeLength()));
+		out.append(String.format("  Generation: %d texts, %d chars, %d ms (%.0f chars/s), %d bifurcations, "
+				+ "%d dead ends%n", getTextsGenerated(), getCharsGenerated(), getGenerationMillis(),
+				getCharsGenerated() * 1000.0 / generationMillis, getBifurcations(), getDeadEnds()));
+		out.append(String.format("  Latency: p50 <= %d us, p99 <= %d us, max %d us%n", getLatencyP50Micros(),
+				getLatencyP99Micros(), getLatencyMaxMicros()));
+	}
+
+	/**
+	 * Dumps the counters to a stream when the JVM exits.
+	 *
+	 * @param out
+	 *            Receives the counters, e.g. System.err
+	 */
+	public void dumpAtExit(final PrintStream out) {
+		Runtime.getRuntime().addShutdownHook(new Thread("MarkovMetrics-dump") {
+			@Override
+			public void run() {
+				try {
+					dump(out);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				out.flush();
+			}
+		});
+	}
+}
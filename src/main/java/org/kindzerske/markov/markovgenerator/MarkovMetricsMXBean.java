@@ -0,0 +1,38 @@
+package org.kindzerske.markov.markovgenerator;
+
+/**
+ * Counters of a MarkovMetrics as exposed over JMX
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public interface MarkovMetricsMXBean {
+
+	long getCharsTrained();
+
+	long getKeysInserted();
+
+	long getTrainingMillis();
+
+	long getResizes();
+
+	double getAverageProbeLength();
+
+	long getTextsGenerated();
+
+	long getCharsGenerated();
+
+	long getGenerationMillis();
+
+	long getBifurcations();
+
+	long getDeadEnds();
+
+	long getLatencyP50Micros();
+
+	long getLatencyP99Micros();
+
+	long getLatencyMaxMicros();
+
+	void reset();
+}
@@ -0,0 +1,150 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.Random;
+
+/**
+ * A trained markov model, read-only once built. Lookups resolve the text
+ * preceding a position to a state (a key of kOrder chars and its subsequent
+ * char counts), identified by a non-negative long whose meaning is private to
+ * the implementation, e.g. a slot or an index. A state of -1 means the key was
+ * never seen.
+ *
+ * Implementations hold no mutable state after construction, so one instance
+ * can serve any number of MarkovGenerator calls concurrently.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public interface MarkovModel {
+
+	/**
+	 * Number of chars per key
+	 *
+	 * @return int kOrder
+	 */
+	int getKOrder();
+
+	/**
+	 * Number of distinct keys
+	 *
+	 * @return int Key count
+	 */
+	int getKeyCount();
+
+	/**
+	 * Finds the state of the kOrder chars preceding end in the text. Models
+	 * which back off may resolve a shorter suffix instead.
+	 *
+	 * @param text
+	 *            Generated (or start) text
+	 * @param end
+	 *            Index after the last char of the key
+	 * @return long state, or -1 if the key was never seen or there are too
+	 *         few chars before end
+	 */
+	long findState(CharSequence text, int end);
+
+	/**
+	 * Finds the state following a state once text[end - 1] has been appended,
+	 * the same as findState(text, end) but implementations may roll the key
+	 * of the previous state forward instead of reading kOrder chars.
+	 *
+	 * @param state
+	 *            State of the kOrder chars preceding end - 1
+	 * @param text
+	 *            Generated text
+	 * @param end
+	 *            Index after the appended char
+	 * @return long state, or -1 if the key was never seen
+	 */
+	long nextState(long state, CharSequence text, int end);
+
+	/**
+	 * Number of states generation may start from, i.e. of the keys of kOrder
+	 * chars (of all keys if there are none), which are indexed densely by
+	 * getStartState().
+	 *
+	 * @return int Number of start states
+	 */
+	int getStartStateCount();
+
+	/**
+	 * Start state at an index of the dense index of start states, in constant
+	 * time.
+	 *
+	 * @param index
+	 *            0..getStartStateCount() - 1
+	 * @return long state
+	 */
+	long getStartState(int index);
+
+	/**
+	 * Number of occurrences of the key of a state in training, i.e. the sum of
+	 * its subsequent char counts
+	 *
+	 * @param state
+	 *            State returned by this model
+	 * @return int Count
+	 */
+	int getCount(long state);
+
+	/**
+	 * Picks the state of a random key.
+	 *
+	 * @param rand
+	 *            Source of randomness
+	 * @return long state, or -1 if the model is empty
+	 */
+	long getRandomState(Random rand);
+
+	/**
+	 * Key of a state
+	 *
+	 * @param state
+	 *            State returned by this model
+	 * @return String of kOrder chars, fewer for a backed off state
+	 */
+	String getKey(long state);
+
+	/**
+	 * Using the frequency counts of the state, sample a subsequent char.
+	 *
+	 * @param state
+	 *            State returned by this model
+	 * @param rand
+	 *            Source of randomness
+	 * @return char subsequent char based on frequency counts
+	 */
+	char getRandomSubsequentChar(long state, Random rand);
+
+	/**
+	 * Number of distinct subsequent chars of a state, more than one is a
+	 * bifurcation
+	 *
+	 * @param state
+	 *            State returned by this model
+	 * @return int Number of distinct subsequent chars
+	 */
+	int getSubsequentCharCount(long state);
+
+	/**
+	 * Distinct subsequent char of a state at an index, in the order of
+	 * getSubsequentCharsString()
+	 *
+	 * @param state
+	 *            State returned by this model
+	 * @param index
+	 *            0..getSubsequentCharCount(state) - 1
+	 * @return char Subsequent char
+	 */
+	char getSubsequentChar(long state, int index);
+
+	/**
+	 * String formatted representation of the subsequent chars of a state
+	 *
+	 * @param state
+	 *            State returned by this model
+	 * @return String such as "{a=2, b=1}"
+	 */
+	String getSubsequentCharsString(long state);
+}
@@ -0,0 +1,307 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Trains a MarkovModel from one or more sample texts. Training is the one-time
+ * cost, the model returned by build() is immutable and is generated from with
+ * a MarkovGenerator.
+ *
+ * <pre>
+ * MarkovModel markovModel = new MarkovModelBuilder(7).setParallelism(4).addTextLocation("speech.txt").build();
+ * MarkovGenerator markovGenerator = new MarkovGenerator(markovModel);
+ * String text = markovGenerator.generate(300);
+ * </pre>
+ *
+ * Models too large for the heap are trained with setOffHeap(true) and built
+ * with buildFrozen(), which keeps both the training counts and the model in
+ * direct buffers; the model is released with close().
+ *
+ * Nothing is printed; the time taken by each text, each block and the model
+ * built are reported to a MarkovListener given to setListener().
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class MarkovModelBuilder {
+
+	/**
+	 * Text location which is read from System.in instead of a resource or file
+	 */
+	public final static String STDIN_LOCATION = "-";
+
+	private final int kOrder;
+	private int minOrder;
+	private int parallelism = 1;
+	private Charset charset = StandardCharsets.UTF_8;
+	private boolean memoryMapped = true;
+	private boolean offHeap = false;
+	private MarkovListener listener = MarkovListener.NONE;
+
+	// Created on the first text, released by build()
+	private MarkovTrainer markovTrainer;
+	private boolean built = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param kOrder
+	 *            Number of chars used for substrings for the markov to key off
+	 *            of (usually 6..8)
+	 */
+	public MarkovModelBuilder(int kOrder) {
+		this.kOrder = kOrder;
+		this.minOrder = kOrder;
+	}
+
+	/**
+	 * Also counts every shorter key down to minOrder chars, in the same pass
+	 * over the texts, so the model backs off to the longest suffix seen in
+	 * training instead of ending the text where the kOrder key was never
+	 * followed by anything. kOrder (no back off) unless set. Must be set
+	 * before the first text is added.
+	 *
+	 * @param minOrder
+	 *            Number of chars of the shortest keys, 1..kOrder
+	 * @return this builder
+	 */
+	public MarkovModelBuilder setMinOrder(int minOrder) {
+		this.minOrder = minOrder;
+		return this;
+	}
+
+	/**
+	 * Sets the number of threads used for training, 1 (the default) trains on
+	 * the calling thread. Must be set before the first text is added.
+	 *
+	 * @param parallelism
+	 *            Number of threads
+	 * @return this builder
+	 */
+	public MarkovModelBuilder setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Sets the charset used to decode sample texts, UTF-8 unless set.
+	 *
+	 * @param charset
+	 *            Charset of the sample texts
+	 * @return this builder
+	 */
+	public MarkovModelBuilder setCharset(Charset charset) {
+		this.charset = charset;
+		return this;
+	}
+
+	/**
+	 * Sets whether sample text files are memory-mapped (the default) or read
+	 * through an InputStreamReader. Project resources and System.in are
+	 * always streamed.
+	 *
+	 * @param memoryMapped
+	 *            True to memory-map files
+	 * @return this builder
+	 */
+	public MarkovModelBuilder setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+		return this;
+	}
+
+	/**
+	 * Sets whether training counts and the model are kept off the heap, in
+	 * direct buffers. The model is then built with buildFrozen(). Needs an
+	 * alphabet which fits packed keys (see KGramCodec). On the heap unless
+	 * set. Must be set before the first text is added.
+	 *
+	 * @param offHeap
+	 *            True to train off the heap
+	 * @return this builder
+	 */
+	public MarkovModelBuilder setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+		return this;
+	}
+
+	/**
+	 * Sets the listener of training, e.g. a MarkovMetrics or a SampledLogger,
+	 * MarkovListener.NONE unless set. Must be set before the first text is
+	 * added.
+	 *
+	 * @param listener
+	 *            Receives the events of training and build()
+	 * @return this builder
+	 */
+	public MarkovModelBuilder setListener(MarkovListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	public int getKOrder() {
+		return kOrder;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	private MarkovTrainer getMarkovTrainer() {
+		if (built) {
+			throw new IllegalStateException("build() has already been invoked");
+		}
+		if (markovTrainer == null) {
+			markovTrainer = new MarkovTrainer(minOrder, kOrder, parallelism, offHeap);
+			markovTrainer.setListener(listener);
+		}
+		return markovTrainer;
+	}
+
+	/**
+	 * Trains from an already normalized text held in memory.
+	 *
+	 * @param text
+	 *            Sample text
+	 * @return this builder
+	 */
+	public MarkovModelBuilder addText(String text) {
+		getMarkovTrainer().train(text);
+		return this;
+	}
+
+	/**
+	 * Streams a sample text into the model, turning newlines into whitespace.
+	 * The reader is not closed.
+	 *
+	 * @param reader
+	 *            Sample text
+	 * @return this builder
+	 * @throws IOException
+	 */
+	public MarkovModelBuilder addText(Reader reader) throws IOException {
+		getMarkovTrainer().train(reader);
+		return this;
+	}
+
+	/**
+	 * Takes the text location and tries to read as a project resource, if not
+	 * found then tries to read as a system file ("-" reads System.in). Files
+	 * are memory-mapped unless setMemoryMapped(false) was called. The text is
+	 * streamed into the model rather than accumulated.
+	 *
+	 * @param textFileLocation
+	 *            Project resource or path+filename of the sample text
+	 * @return this builder
+	 * @throws IOException
+	 */
+	public MarkovModelBuilder addTextLocation(String textFileLocation) throws IOException {
+		MarkovTrainer trainer = getMarkovTrainer();
+		long startNanos = System.nanoTime();
+		Reader reader = openTextLocation(textFileLocation, charset, memoryMapped);
+		try {
+			trainer.train(reader);
+		} finally {
+			if (!STDIN_LOCATION.equals(textFileLocation)) {
+				reader.close();
+			}
+		}
+
+		if (listener != MarkovListener.NONE) {
+			// Sizes of files give the read+train throughput, for comparing
+			// readers
+			listener.onTextTrained(textFileLocation,
+					isFileLocation(textFileLocation) ? new File(textFileLocation).length() : -1,
+					System.nanoTime() - startNanos);
+		}
+		return this;
+	}
+
+	/**
+	 * Opens a text location as described by addTextLocation(). The reader of
+	 * System.in must not be closed by the caller.
+	 */
+	static Reader openTextLocation(String textFileLocation, Charset charset, boolean memoryMapped)
+			throws IOException {
+		InputStream in;
+		if (STDIN_LOCATION.equals(textFileLocation)) {
+			in = System.in;
+		} else {
+			in = MarkovModelBuilder.class.getResourceAsStream(textFileLocation);
+		}
+
+		// Need to infer whether the location is a project resource, or a path
+		// to an external file
+		if (in != null) {
+			return new InputStreamReader(in, charset);
+		} else if (memoryMapped) {
+			return new MappedTextReader(textFileLocation, charset);
+		} else {
+			return new InputStreamReader(new FileInputStream(textFileLocation), charset);
+		}
+	}
+
+	/**
+	 * True if the text location is a file rather than System.in or a project
+	 * resource
+	 */
+	static boolean isFileLocation(String textFileLocation) {
+		return !STDIN_LOCATION.equals(textFileLocation)
+				&& MarkovModelBuilder.class.getResource(textFileLocation) == null;
+	}
+
+	/**
+	 * Freezes everything trained so far into an immutable model. The builder
+	 * can not be used afterwards.
+	 *
+	 * @return HashMarkovModel
+	 */
+	public HashMarkovModel build() {
+		if (offHeap) {
+			throw new IllegalStateException("Models trained off the heap are built with buildFrozen()");
+		}
+		MarkovTrainer trainer = getMarkovTrainer();
+		HashMarkovModel markovModel = new HashMarkovModel(trainer);
+		reportModelBuilt(trainer);
+		markovTrainer = null;
+		built = true;
+		return markovModel;
+	}
+
+	/**
+	 * Freezes everything trained so far into a FrozenMarkovModel, off the heap
+	 * if trained off the heap. The builder can not be used afterwards.
+	 *
+	 * @return FrozenMarkovModel, to be closed once no longer used
+	 */
+	public FrozenMarkovModel buildFrozen() {
+		MarkovTrainer trainer = getMarkovTrainer();
+		markovTrainer = null;
+		built = true;
+		if (!offHeap) {
+			HashMarkovModel markovModel = new HashMarkovModel(trainer);
+			reportModelBuilt(trainer);
+			return markovModel.freeze();
+		}
+		try {
+			return trainer.getOffHeapTable().freeze(minOrder, kOrder, trainer.getKGramCodec());
+		} finally {
+			trainer.close();
+		}
+	}
+
+	/**
+	 * Reports the hashmap of a model built on the heap, probed by a scan of it
+	 */
+	private void reportModelBuilt(MarkovTrainer trainer) {
+		if (listener != MarkovListener.NONE) {
+			listener.onModelBuilt(trainer.getKeyCount(), trainer.getTableSize(), trainer.getAverageProbeLength());
+		}
+	}
+}
@@ -0,0 +1,404 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Open-addressing hash table with the same put/get/containsKey/getRandomKey
+ * surface as MarkovHashMap. Keys, values and cached hashes live in flat
+ * parallel arrays sized to a power of two, collisions are resolved by linear
+ * probing, and no objects are allocated per lookup.
+ *
+ * A resize is incremental: the doubled table takes over and put() moves a
+ * few slots of the old one per call (see migrate()), so no single put() of
+ * training pays for rehashing the whole table. Until then get() and
+ * containsKey() look in both tables. A slot only means something once the
+ * move is complete, so the slot based methods complete it first.
+ *
+ * Approximate heap cost per key on a 64-bit JVM with compressed oops (not
+ * counting the key and value objects themselves):
+ * <ul>
+ * <li>MarkovHashMap: HashMapEntry (24 bytes) + LinkedList node (24 bytes) +
+ * a share of the per-bucket LinkedList (32 bytes) and its slot (4 bytes). At
+ * the 0.375..0.75 occupancy kept by resizing this is roughly 95..145 bytes,
+ * plus a throwaway HashMapEntry for every put/get/containsKey.</li>
+ * <li>MarkovProbingHashMap: one key slot, one value slot and one cached hash
+ * (12 bytes per slot). At the same occupancy this is roughly 16..32 bytes, and
+ * lookups allocate nothing.</li>
+ * </ul>
+ *
+ * @author matthew.kindzerske
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class MarkovProbingHashMap<K, V> {
+
+	private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+	private Object[] keys;
+	private Object[] values;
+	private int[] hashes;
+	private int mask;
+	private int hashMapTableSize;
+	private float loadFactor; // Used for deciding when to resizes
+	private int resizeThreshold;
+	// Table length at which the table stops doubling
+	private final int maximumCapacity;
+	// Table being moved into keys/values/hashes, null when no resize is under
+	// way. Its slots below migrationIndex have been moved, but are left in
+	// place so the probes of the others still end where they did.
+	private Object[] oldKeys;
+	private Object[] oldValues;
+	private int[] oldHashes;
+	private int oldMask;
+	private int migrationIndex;
+	// Old slots moved per put(), the next resize is due after a loadFactor
+	// share of the old length in new keys, so a move is done before then
+	private final int migrationStep;
+
+	/**
+	 * Constructor, the capacity is rounded up to the next power of two.
+	 *
+	 * @param capacity
+	 *            Initial number of slots
+	 * @param loadFactor
+	 *            Fraction of occupied slots (0..1 exclusive) which triggers a
+	 *            doubling of the table
+	 */
+	public MarkovProbingHashMap(int capacity, float loadFactor) {
+		this(capacity, loadFactor, MAXIMUM_CAPACITY);
+	}
+
+	/**
+	 * Constructor with a lower maximum capacity than 2^30, for tests
+	 */
+	MarkovProbingHashMap(int capacity, float loadFactor, int maximumCapacity) {
+		if (loadFactor <= 0 || loadFactor >= 1) {
+			throw new IllegalArgumentException("loadFactor must be between 0 and 1 exclusive: " + loadFactor);
+		}
+		this.loadFactor = loadFactor;
+		this.hashMapTableSize = 0;
+		this.maximumCapacity = maximumCapacity;
+		this.migrationStep = (int) Math.ceil(1 / loadFactor);
+		allocate(tableSizeFor(capacity, maximumCapacity));
+	}
+
+	private static int tableSizeFor(int capacity, int maximumCapacity) {
+		int size = 2;
+		while (size < capacity && size < maximumCapacity) {
+			size <<= 1;
+		}
+		return size;
+	}
+
+	private void allocate(int tableLength) {
+		keys = new Object[tableLength];
+		values = new Object[tableLength];
+		hashes = new int[tableLength];
+		mask = tableLength - 1;
+		resizeThreshold = (int) Math.min((long) tableLength - 1, (long) (tableLength * loadFactor));
+	}
+
+	/**
+	 * Scrambles the key's hashCode so that keys differing only in the high
+	 * bits still spread over the low bits used for the slot index.
+	 */
+	static int spread(int hashCode) {
+		int h = hashCode * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Locates the slot of the key, or the empty slot where the probe ended.
+	 */
+	private int findSlot(Object key, int hash) {
+		int index = hash & mask;
+		Object slotKey;
+		while ((slotKey = keys[index]) != null) {
+			if (hashes[index] == hash && slotKey.equals(key)) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	/**
+	 * Slot of the key in the old table, or -1 if it is not there.
+	 */
+	private int findOldSlot(Object key, int hash) {
+		int index = hash & oldMask;
+		Object slotKey;
+		while ((slotKey = oldKeys[index]) != null) {
+			if (oldHashes[index] == hash && slotKey.equals(key)) {
+				return index;
+			}
+			index = (index + 1) & oldMask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Starts an incremental resize, the entries of the current table are
+	 * moved by later calls of migrate().
+	 */
+	private void resize() {
+		// Not expected (see migrationStep), but a resize must never start
+		// while one is under way
+		completeResize();
+		oldKeys = keys;
+		oldValues = values;
+		oldHashes = hashes;
+		oldMask = mask;
+		migrationIndex = 0;
+		allocate(oldKeys.length << 1);
+		if (hashMapTableSize == oldKeys.length) {
+			// A small table may fill up, and a probe of the old table needs
+			// an empty slot to end
+			completeResize();
+		}
+	}
+
+	/**
+	 * Moves up to slotCount slots of the old table into the current one.
+	 */
+	private void migrate(int slotCount) {
+		int end = Math.min(oldKeys.length, migrationIndex + slotCount);
+		for (; migrationIndex < end; migrationIndex++) {
+			if (oldKeys[migrationIndex] != null) {
+				int index = oldHashes[migrationIndex] & mask;
+				while (keys[index] != null) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[migrationIndex];
+				values[index] = oldValues[migrationIndex];
+				hashes[index] = oldHashes[migrationIndex];
+			}
+		}
+		if (migrationIndex == oldKeys.length) {
+			oldKeys = null;
+			oldValues = null;
+			oldHashes = null;
+		}
+	}
+
+	private void completeResize() {
+		if (oldKeys != null) {
+			migrate(oldKeys.length);
+		}
+	}
+
+	/**
+	 * True while entries are still being moved from a smaller table
+	 *
+	 * @return boolean Resize under way
+	 */
+	boolean isResizing() {
+		return oldKeys != null;
+	}
+
+	/**
+	 * Returns the number of entries added to the hashMapTable
+	 *
+	 * @return int Number of distinct keys
+	 */
+	public int getHashMapTableContentCount() {
+		return hashMapTableSize;
+	}
+
+	/**
+	 * Average number of slots probed by a lookup of a key in the table, 1
+	 * without collisions. Computed by a scan of the table, for metrics.
+	 *
+	 * @return double Average probe length, 0 for an empty table
+	 */
+	double getAverageProbeLength() {
+		completeResize();
+		long probes = 0;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != null) {
+				probes += ((slot - (hashes[slot] & mask)) & mask) + 1;
+			}
+		}
+		return hashMapTableSize == 0 ? 0 : (double) probes / hashMapTableSize;
+	}
+
+	/**
+	 * Returns the length of the hashMapTable (the new table while a resize is
+	 * under way)
+	 *
+	 * @return int Length of the hashMapTable
+	 */
+	public int getHashMapTableSize() {
+		return keys.length;
+	}
+
+	/**
+	 * Puts a value into into the hashMapTable using the key to assign in the
+	 * proper slot
+	 *
+	 * @param key
+	 *            Hashed to determine placement of the Value
+	 * @param value
+	 *            Object value which is to be stored.
+	 * @return The V value object iff the key/value generic pair had previously
+	 *         existed.
+	 * @throws IllegalStateException
+	 *             If the key is new and the table can not grow any further
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(K key, V value) {
+		int hash = spread(key.hashCode());
+		int index = findSlot(key, hash);
+		if (keys[index] != null) {
+			V ret = (V) values[index];
+			values[index] = value;
+			return ret;
+		}
+		if (oldKeys != null) {
+			int oldIndex = findOldSlot(key, hash);
+			if (oldIndex >= 0) {
+				// Not moved yet, it will be with its new value
+				V ret = (V) oldValues[oldIndex];
+				oldValues[oldIndex] = value;
+				return ret;
+			}
+		}
+
+		if (hashMapTableSize == keys.length - 1 && keys.length >= maximumCapacity) {
+			// The last empty slot is what ends the probe of a missing key
+			throw new IllegalStateException("The hashMapTable is full at " + keys.length + " slots");
+		}
+		keys[index] = key;
+		values[index] = value;
+		hashes[index] = hash;
+		hashMapTableSize++;
+
+		if (oldKeys != null) {
+			migrate(migrationStep);
+		}
+		if (hashMapTableSize > resizeThreshold && keys.length < maximumCapacity) {
+			resize();
+		}
+		return null;
+	}
+
+	/**
+	 * Get the generic V from the hashMapTable based on the hashed key.
+	 *
+	 * @param key
+	 *            To be hashed to find the V object
+	 * @return <V> type of value object found by the hash, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(K key) {
+		int hash = spread(key.hashCode());
+		int index = findSlot(key, hash);
+		if (keys[index] == null && oldKeys != null) {
+			int oldIndex = findOldSlot(key, hash);
+			return oldIndex < 0 ? null : (V) oldValues[oldIndex];
+		}
+		return (V) values[index];
+	}
+
+	/**
+	 * Determines if an object already exists from the <K> key hash
+	 *
+	 * @param queryKey
+	 *            <K> to be hashed
+	 * @return Boolean if hashMapTable contains an object for the key
+	 */
+	public boolean containsKey(K queryKey) {
+		int hash = spread(queryKey.hashCode());
+		return keys[findSlot(queryKey, hash)] != null || (oldKeys != null && findOldSlot(queryKey, hash) >= 0);
+	}
+
+	/**
+	 * Key stored in a slot, for iterating over 0..getHashMapTableSize()
+	 *
+	 * @param slot
+	 *            Index into the hashMapTable
+	 * @return <K> key, or null for an empty slot
+	 */
+	@SuppressWarnings("unchecked")
+	K keyAt(int slot) {
+		completeResize();
+		return (K) keys[slot];
+	}
+
+	/**
+	 * Value stored in a slot, for iterating over 0..getHashMapTableSize()
+	 *
+	 * @param slot
+	 *            Index into the hashMapTable
+	 * @return <V> value, or null for an empty slot
+	 */
+	@SuppressWarnings("unchecked")
+	V valueAt(int slot) {
+		completeResize();
+		return (V) values[slot];
+	}
+
+	/**
+	 * Slot holding the key, for use with keyAt()/valueAt()
+	 *
+	 * @param key
+	 *            <K> to be hashed
+	 * @return int slot, or -1 if not found
+	 */
+	int indexOf(K key) {
+		completeResize();
+		int index = findSlot(key, spread(key.hashCode()));
+		return keys[index] != null ? index : -1;
+	}
+
+	/**
+	 * Finds a random K key. Since every slot holds at most one key, sampling
+	 * slots until an occupied one is found is uniform over the keys.
+	 *
+	 * @return random K key, or null if the table is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public K getRandomKey() {
+		int slot = getRandomSlot(ThreadLocalRandom.current());
+		return slot < 0 ? null : (K) keys[slot];
+	}
+
+	/**
+	 * Finds the slot of a random key, uniform over the keys.
+	 *
+	 * @param rand
+	 *            Source of randomness
+	 * @return int slot, or -1 if the table is empty
+	 */
+	int getRandomSlot(Random rand) {
+		if (hashMapTableSize == 0) {
+			return -1;
+		}
+		completeResize();
+
+		int tableIndex = rand.nextInt(keys.length);
+		while (keys[tableIndex] == null) {
+			tableIndex = rand.nextInt(keys.length);
+		}
+		return tableIndex;
+	}
+
+	/**
+	 * Returns a formatted representation of the hashMapTable in String form.
+	 * Note that the generic <V> object should override toString() to make this
+	 * look proper.
+	 */
+	public String toString() {
+		completeResize();
+		StringBuilder returnString = new StringBuilder("MarkovProbingHashMap.toString()");
+		for (int n = 0; n < keys.length; n++) {
+			if (keys[n] != null) {
+				returnString.append("\n slot_").append(n);
+				returnString.append("\n  ").append(values[n].toString());
+			}
+		}
+		return returnString.toString();
+	}
+}
@@ -0,0 +1,577 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds the markov hashmap from sample texts. The keys are packed into longs
+ * (see KGramCodec) as long as the alphabet seen so far fits, otherwise they
+ * are kept as Strings.
+ *
+ * Texts are consumed in blocks: a Reader is read BLOCK_LENGTH chars at a time
+ * and only the last kOrder chars of a block are carried into the next one, so
+ * memory use is bounded by the block and the hashmap, not by the size of the
+ * text. Every call to train() is a separate text, k-grams never span two
+ * texts.
+ *
+ * With a parallelism above 1 each block is split into chunks which overlap by
+ * kOrder chars, each chunk is trained into a partial hashmap on a ForkJoinPool
+ * and the partial Markov counts are merged. Every position of the text is
+ * trained exactly once, so the counts are identical to the sequential build.
+ *
+ * With a minOrder below kOrder every order from minOrder to kOrder is counted
+ * in the same scan, for a model which backs off to shorter keys. The keys of
+ * all orders share one hashmap, a packed key of a lower order is the low bits
+ * of the kOrder key (see KGramCodec.suffix()) and a String key is shorter, so
+ * they never collide.
+ *
+ * Off the heap, the packed counts of each block are moved into an
+ * OffHeapTransitionTable once the block is trained, so the heap only ever
+ * holds the counts of one block however large the model grows. This needs
+ * packed keys, i.e. an alphabet which fits the KGramCodec.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class MarkovTrainer implements Closeable {
+
+	// Below this many positions per chunk the fork overhead dominates
+	private static final int MINIMUM_CHUNK_LENGTH = 1 << 16;
+	// Number of chars read from a Reader per block
+	private static final int BLOCK_LENGTH = 1 << 22;
+	// Initial number of entries of an off-heap table
+	private static final int OFF_HEAP_CAPACITY = 1 << 16;
+
+	private final int minOrder;
+	private final int kOrder;
+	private final int parallelism;
+	private final int blockLength;
+
+	// Set to null once the alphabet outgrows the packed keys
+	private KGramCodec kGramCodec;
+	private MarkovLongHashMap<Markov> packedMarkovHashMap;
+	private MarkovProbingHashMap<String, Markov> markovHashMap;
+	// Not null when training off the heap
+	private OffHeapTransitionTable offHeapTable;
+	private MarkovListener listener = MarkovListener.NONE;
+
+	/**
+	 * Constructor
+	 *
+	 * @param kOrder
+	 *            Number of chars used for the keys
+	 * @param parallelism
+	 *            Number of threads used for training, 1 trains on the calling
+	 *            thread
+	 */
+	public MarkovTrainer(int kOrder, int parallelism) {
+		this(kOrder, kOrder, parallelism, BLOCK_LENGTH);
+	}
+
+	/**
+	 * Constructor for a trainer which counts every order from minOrder to
+	 * kOrder.
+	 *
+	 * @param minOrder
+	 *            Number of chars of the shortest keys, 1..kOrder
+	 * @param kOrder
+	 *            Number of chars of the longest keys
+	 * @param parallelism
+	 *            Number of threads used for training, 1 trains on the calling
+	 *            thread
+	 */
+	public MarkovTrainer(int minOrder, int kOrder, int parallelism) {
+		this(minOrder, kOrder, parallelism, BLOCK_LENGTH);
+	}
+
+	/**
+	 * Constructor for a trainer which optionally keeps its counts off the
+	 * heap, see getOffHeapTable().
+	 *
+	 * @param minOrder
+	 *            Number of chars of the shortest keys, 1..kOrder
+	 * @param kOrder
+	 *            Number of chars of the longest keys
+	 * @param parallelism
+	 *            Number of threads used for training, 1 trains on the calling
+	 *            thread
+	 * @param offHeap
+	 *            True to count off the heap
+	 */
+	public MarkovTrainer(int minOrder, int kOrder, int parallelism, boolean offHeap) {
+		this(minOrder, kOrder, parallelism, BLOCK_LENGTH, offHeap);
+	}
+
+	MarkovTrainer(int minOrder, int kOrder, int parallelism, int blockLength) {
+		this(minOrder, kOrder, parallelism, blockLength, false);
+	}
+
+	MarkovTrainer(int minOrder, int kOrder, int parallelism, int blockLength, boolean offHeap) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+		}
+		if (minOrder < 1 || minOrder > kOrder) {
+			throw new IllegalArgumentException("minOrder must be between 1 and kOrder: " + minOrder);
+		}
+		this.minOrder = minOrder;
+		this.kOrder = kOrder;
+		this.parallelism = parallelism;
+		this.blockLength = blockLength;
+		if (kOrder <= KGramCodec.MAXIMUM_K_ORDER) {
+			this.kGramCodec = new KGramCodec(kOrder);
+			this.packedMarkovHashMap = new MarkovLongHashMap<Markov>(16, (float) 0.75);
+		} else if (offHeap) {
+			throw new IllegalArgumentException("Off-heap training needs packed keys, kOrder must be at most "
+					+ KGramCodec.MAXIMUM_K_ORDER + ": " + kOrder);
+		} else {
+			// Too long to pack even at one bit per char
+			this.markovHashMap = new MarkovProbingHashMap<String, Markov>(16, (float) 0.75);
+		}
+		if (offHeap) {
+			this.offHeapTable = new OffHeapTransitionTable(OFF_HEAP_CAPACITY);
+		}
+	}
+
+	/**
+	 * Iterate through the entire text (wrt kOrder) and put each k-gram with
+	 * its subsequent char into the hashmap.
+	 *
+	 * @param text
+	 *            Sample text, already normalized
+	 */
+	public void train(String text) {
+		char[] chars = text.toCharArray();
+		ForkJoinPool pool = createPool();
+		try {
+			trainBlock(chars, chars.length, pool);
+			trainHead(chars, chars.length);
+			spill();
+		} finally {
+			shutdown(pool);
+		}
+	}
+
+	/**
+	 * Streams the text from the reader in blocks and puts each k-gram with its
+	 * subsequent char into the hashmap. Newlines are turned into whitespace.
+	 * The reader is not closed.
+	 *
+	 * @param reader
+	 *            Sample text
+	 * @throws IOException
+	 */
+	public void train(Reader reader) throws IOException {
+		char[] buffer = new char[kOrder + blockLength];
+		// Chars at the head of the buffer carried over from the last block
+		int carried = 0;
+		int read;
+		ForkJoinPool pool = createPool();
+		try {
+			while ((read = fill(reader, buffer, carried)) > 0) {
+				int length = carried + read;
+				for (int n = carried; n < length; n++) {
+					if (buffer[n] == '\n' || buffer[n] == '\r') {
+						// Substitute white space for newlines
+						buffer[n] = ' ';
+					}
+				}
+
+				trainBlock(buffer, length, pool);
+				if (carried == 0) {
+					trainHead(buffer, length);
+				}
+				spill();
+
+				// The last kOrder chars are the key of the first position of
+				// the next block
+				carried = Math.min(kOrder, length);
+				System.arraycopy(buffer, length - carried, buffer, 0, carried);
+			}
+		} finally {
+			shutdown(pool);
+		}
+	}
+
+	/**
+	 * Reads until the buffer is full or the reader is exhausted.
+	 *
+	 * @return int Number of chars read, 0 at the end of the reader
+	 */
+	private static int fill(Reader reader, char[] buffer, int offset) throws IOException {
+		int total = 0;
+		int read;
+		while (offset + total < buffer.length && (read = reader.read(buffer, offset + total,
+				buffer.length - offset - total)) != -1) {
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Receives onBlockTrained() and onResize() of every block, NONE unless
+	 * set.
+	 */
+	void setListener(MarkovListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Trains the positions [0, length - kOrder) of the buffer.
+	 */
+	private void trainBlock(char[] buffer, int length, ForkJoinPool pool) {
+		if (listener == MarkovListener.NONE) {
+			countBlock(buffer, length, pool);
+			return;
+		}
+		long startNanos = System.nanoTime();
+		int keyCount = getKeyCount();
+		int tableSize = getTableSize();
+		countBlock(buffer, length, pool);
+		long nanos = System.nanoTime() - startNanos;
+		if (getTableSize() > tableSize) {
+			listener.onResize(tableSize, getTableSize());
+		}
+		listener.onBlockTrained(length, getKeyCount() - keyCount, nanos);
+	}
+
+	private void countBlock(char[] buffer, int length, ForkJoinPool pool) {
+		int positions = Math.max(0, length - kOrder);
+		int chunkLength = positions;
+		if (parallelism > 1) {
+			chunkLength = Math.max(MINIMUM_CHUNK_LENGTH, positions / (parallelism * 4) + 1);
+		}
+
+		// All chars are interned up front so the codec is read-only while the
+		// chunks are trained
+		if (kGramCodec != null && !kGramCodec.internAll(buffer, 0, length)) {
+			if (offHeapTable != null) {
+				throw new IllegalStateException("The alphabet outgrew the packed keys, which off-heap training needs");
+			}
+			fallBackToStringKeys();
+		}
+
+		if (kGramCodec != null) {
+			packedMarkovHashMap = mergePacked(packedMarkovHashMap,
+					invoke(new PackedChunkTask(buffer, 0, positions, chunkLength), pool));
+		} else {
+			markovHashMap = mergeStringKeyed(markovHashMap,
+					invoke(new StringKeyedChunkTask(buffer, 0, positions, chunkLength), pool));
+		}
+	}
+
+	/**
+	 * Trains the lower orders of the positions before kOrder at the start of a
+	 * text, which have a key shorter than kOrder but no kOrder key, so the
+	 * counts of every order are those of a trainer of that order alone.
+	 */
+	private void trainHead(char[] text, int length) {
+		for (int n = minOrder; n < Math.min(kOrder, length); n++) {
+			for (int order = minOrder; order <= n; order++) {
+				if (kGramCodec != null) {
+					long packedKey = 0;
+					for (int i = n - order; i < n; i++) {
+						packedKey = kGramCodec.shift(packedKey, kGramCodec.codeOf(text[i]));
+					}
+					count(packedMarkovHashMap, packedKey, text[n]);
+				} else {
+					count(markovHashMap, new String(text, n - order, order), text[n]);
+				}
+			}
+		}
+	}
+
+	private static void count(MarkovLongHashMap<Markov> hashMap, long packedKey, char subsequentChar) {
+		Markov markov = hashMap.get(packedKey);
+		if (markov == null) {
+			// No String is kept for packed keys, see KGramCodec.unpack()
+			hashMap.put(packedKey, new Markov(null, subsequentChar));
+		} else {
+			markov.add(subsequentChar);
+		}
+	}
+
+	private static void count(MarkovProbingHashMap<String, Markov> hashMap, String subString, char subsequentChar) {
+		Markov markov = hashMap.get(subString);
+		if (markov == null) {
+			// Hashmap does not contain the subString, simple add
+			hashMap.put(subString, new Markov(subString, subsequentChar));
+		} else {
+			// Hashmap already has this key, the Markov is updated in place so
+			// a single probe suffices
+			markov.add(subsequentChar);
+		}
+	}
+
+	/**
+	 * Moves the packed counts of the last block into the off-heap table, when
+	 * training off the heap.
+	 */
+	private void spill() {
+		if (offHeapTable == null) {
+			return;
+		}
+		for (int slot = 0; slot < packedMarkovHashMap.getHashMapTableSize(); slot++) {
+			long key = packedMarkovHashMap.keyAt(slot);
+			if (key != 0) {
+				Markov markov = packedMarkovHashMap.valueAt(slot);
+				for (int n = 0; n < markov.getSubsequentCharCount(); n++) {
+					offHeapTable.add(key, markov.getSubsequentChar(n), markov.getFrequencyCountAt(n));
+				}
+			}
+		}
+		// The next block likely has about as many keys
+		packedMarkovHashMap = new MarkovLongHashMap<Markov>(packedMarkovHashMap.getHashMapTableContentCount(),
+				(float) 0.75);
+	}
+
+	/**
+	 * The alphabet no longer fits the packed keys, unpack every key trained so
+	 * far and continue with String keys.
+	 */
+	private void fallBackToStringKeys() {
+		markovHashMap = new MarkovProbingHashMap<String, Markov>(
+				packedMarkovHashMap.getHashMapTableContentCount() * 2, (float) 0.75);
+		for (int slot = 0; slot < packedMarkovHashMap.getHashMapTableSize(); slot++) {
+			long key = packedMarkovHashMap.keyAt(slot);
+			if (key != 0) {
+				markovHashMap.put(kGramCodec.unpack(key), packedMarkovHashMap.valueAt(slot));
+			}
+		}
+		kGramCodec = null;
+		packedMarkovHashMap = null;
+	}
+
+	private ForkJoinPool createPool() {
+		return parallelism == 1 ? null : new ForkJoinPool(parallelism);
+	}
+
+	private static void shutdown(ForkJoinPool pool) {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	private static <T> T invoke(RecursiveTask<T> task, ForkJoinPool pool) {
+		if (pool == null) {
+			// A single chunk, compute() never forks
+			return task.invoke();
+		}
+		return pool.invoke(task);
+	}
+
+	public int getMinOrder() {
+		return minOrder;
+	}
+
+	public int getKOrder() {
+		return kOrder;
+	}
+
+	/**
+	 * Codec used for the packed keys
+	 *
+	 * @return KGramCodec or null if the keys are Strings
+	 */
+	public KGramCodec getKGramCodec() {
+		return kGramCodec;
+	}
+
+	/**
+	 * Hashmap of packed keys, populated iff getKGramCodec() is not null
+	 *
+	 * @return MarkovLongHashMap or null
+	 */
+	public MarkovLongHashMap<Markov> getPackedMarkovHashMap() {
+		return packedMarkovHashMap;
+	}
+
+	/**
+	 * Hashmap of String keys, populated iff getKGramCodec() is null
+	 *
+	 * @return MarkovProbingHashMap or null
+	 */
+	public MarkovProbingHashMap<String, Markov> getMarkovHashMap() {
+		return markovHashMap;
+	}
+
+	/**
+	 * Number of keys of whichever hashmap is populated
+	 */
+	int getKeyCount() {
+		return kGramCodec != null ? packedMarkovHashMap.getHashMapTableContentCount()
+				: markovHashMap.getHashMapTableContentCount();
+	}
+
+	/**
+	 * Number of slots of whichever hashmap is populated
+	 */
+	int getTableSize() {
+		return kGramCodec != null ? packedMarkovHashMap.getHashMapTableSize() : markovHashMap.getHashMapTableSize();
+	}
+
+	/**
+	 * Average probe length of whichever hashmap is populated, by a scan of it
+	 */
+	double getAverageProbeLength() {
+		return kGramCodec != null ? packedMarkovHashMap.getAverageProbeLength()
+				: markovHashMap.getAverageProbeLength();
+	}
+
+	/**
+	 * Counts of a trainer constructed off the heap, the packed hashmap is then
+	 * empty between calls to train()
+	 *
+	 * @return OffHeapTransitionTable or null
+	 */
+	OffHeapTransitionTable getOffHeapTable() {
+		return offHeapTable;
+	}
+
+	/**
+	 * Releases the off-heap counts, if any. The trainer can not be used
+	 * afterwards.
+	 */
+	@Override
+	public void close() {
+		if (offHeapTable != null) {
+			offHeapTable.close();
+		}
+	}
+
+	/**
+	 * Trains the positions [from, to) of the text, i.e. the chars [from, to +
+	 * kOrder) with the trailing kOrder chars shared with the next chunk.
+	 */
+	private class PackedChunkTask extends RecursiveTask<MarkovLongHashMap<Markov>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final char[] text;
+		private final int from;
+		private final int to;
+		private final int chunkLength;
+
+		PackedChunkTask(char[] text, int from, int to, int chunkLength) {
+			this.text = text;
+			this.from = from;
+			this.to = to;
+			this.chunkLength = chunkLength;
+		}
+
+		@Override
+		protected MarkovLongHashMap<Markov> compute() {
+			if (to - from > chunkLength) {
+				int middle = (from + to) >>> 1;
+				PackedChunkTask left = new PackedChunkTask(text, from, middle, chunkLength);
+				left.fork();
+				MarkovLongHashMap<Markov> right = new PackedChunkTask(text, middle, to, chunkLength).compute();
+				return mergePacked(left.join(), right);
+			}
+
+			MarkovLongHashMap<Markov> chunkHashMap = new MarkovLongHashMap<Markov>(16, (float) 0.75);
+			if (from == to) {
+				return chunkHashMap;
+			}
+
+			// The key of each position is derived from the previous one by a
+			// rolling shift, so no substring is created per char
+			long packedKey = kGramCodec.pack(text, from);
+			for (int n = from + kOrder; n < to + kOrder; n++) {
+				char subsequentChar = text[n];
+
+				count(chunkHashMap, packedKey, subsequentChar);
+				for (int order = minOrder; order < kOrder; order++) {
+					count(chunkHashMap, kGramCodec.suffix(packedKey, order), subsequentChar);
+				}
+
+				packedKey = kGramCodec.shift(packedKey, kGramCodec.codeOf(subsequentChar));
+			}
+			return chunkHashMap;
+		}
+	}
+
+	/**
+	 * String keyed counterpart of PackedChunkTask
+	 */
+	private class StringKeyedChunkTask extends RecursiveTask<MarkovProbingHashMap<String, Markov>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final char[] text;
+		private final int from;
+		private final int to;
+		private final int chunkLength;
+
+		StringKeyedChunkTask(char[] text, int from, int to, int chunkLength) {
+			this.text = text;
+			this.from = from;
+			this.to = to;
+			this.chunkLength = chunkLength;
+		}
+
+		@Override
+		protected MarkovProbingHashMap<String, Markov> compute() {
+			if (to - from > chunkLength) {
+				int middle = (from + to) >>> 1;
+				StringKeyedChunkTask left = new StringKeyedChunkTask(text, from, middle, chunkLength);
+				left.fork();
+				MarkovProbingHashMap<String, Markov> right = new StringKeyedChunkTask(text, middle, to, chunkLength)
+						.compute();
+				return mergeStringKeyed(left.join(), right);
+			}
+
+			MarkovProbingHashMap<String, Markov> chunkHashMap = new MarkovProbingHashMap<String, Markov>(16,
+					(float) 0.75);
+			for (int n = from; n < to; n++) {
+				char subsequentChar = text[n + kOrder];
+				for (int order = minOrder; order <= kOrder; order++) {
+					count(chunkHashMap, new String(text, n + kOrder - order, order), subsequentChar);
+				}
+			}
+			return chunkHashMap;
+		}
+	}
+
+	/**
+	 * Folds the smaller partial hashmap into the larger one. Markov instances
+	 * of keys missing from the larger hashmap are moved over as is.
+	 */
+	private static MarkovLongHashMap<Markov> mergePacked(MarkovLongHashMap<Markov> a, MarkovLongHashMap<Markov> b) {
+		MarkovLongHashMap<Markov> into = a.getHashMapTableContentCount() >= b.getHashMapTableContentCount() ? a : b;
+		MarkovLongHashMap<Markov> from = into == a ? b : a;
+		for (int slot = 0; slot < from.getHashMapTableSize(); slot++) {
+			long key = from.keyAt(slot);
+			if (key != 0) {
+				Markov markov = into.get(key);
+				if (markov == null) {
+					into.put(key, from.valueAt(slot));
+				} else {
+					markov.merge(from.valueAt(slot));
+				}
+			}
+		}
+		return into;
+	}
+
+	private static MarkovProbingHashMap<String, Markov> mergeStringKeyed(MarkovProbingHashMap<String, Markov> a,
+			MarkovProbingHashMap<String, Markov> b) {
+		MarkovProbingHashMap<String, Markov> into = a.getHashMapTableContentCount() >= b
+				.getHashMapTableContentCount() ? a : b;
+		MarkovProbingHashMap<String, Markov> from = into == a ? b : a;
+		for (int slot = 0; slot < from.getHashMapTableSize(); slot++) {
+			String key = from.keyAt(slot);
+			if (key != null) {
+				Markov markov = into.get(key);
+				if (markov == null) {
+					into.put(key, from.valueAt(slot));
+				} else {
+					markov.merge(from.valueAt(slot));
+				}
+			}
+		}
+		return into;
+	}
+}
@@ -0,0 +1,345 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * Counts of (packed key, subsequent char) transitions in an open-addressing
+ * table outside of the Java heap. Each entry is 16 bytes (key, char, count)
+ * in direct buffers of at most PAGE_ENTRIES entries, so the table may grow
+ * beyond 2 GB and beyond the heap, and it is a few objects on the heap
+ * whatever its size. The key 0 marks an empty entry, as in
+ * MarkovLongHashMap. Not thread safe.
+ *
+ * A resize is incremental, as in MarkovLongHashMap: the doubled table takes
+ * over and add() moves a few entries of the old one per new transition, so
+ * no single add() pays for rehashing the whole table.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+class OffHeapTransitionTable implements Closeable {
+
+	private static final int ENTRY_BYTES = 16;
+	private static final int PAGE_SHIFT = 23;
+	private static final int PAGE_ENTRIES = 1 << PAGE_SHIFT;
+	private static final float LOAD_FACTOR = 0.75f;
+	// Old entries moved per new transition, the next resize is due after a
+	// LOAD_FACTOR share of the old capacity in new transitions
+	private static final int MIGRATION_STEP = 2;
+
+	private ByteBuffer[] pages;
+	private long capacity;
+	private long mask;
+	private long size;
+	private long resizeThreshold;
+	// Table being moved into pages, null when no resize is under way. Its
+	// entries below migrationIndex have been moved, but are left in place so
+	// the probes of the others still end where they did.
+	private ByteBuffer[] oldPages;
+	private long oldCapacity;
+	private long migrationIndex;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity
+	 *            Initial number of entries, rounded up to a power of two
+	 */
+	OffHeapTransitionTable(long capacity) {
+		long tableCapacity = 16;
+		while (tableCapacity < capacity) {
+			tableCapacity <<= 1;
+		}
+		allocate(tableCapacity);
+	}
+
+	private void allocate(long tableCapacity) {
+		capacity = tableCapacity;
+		mask = tableCapacity - 1;
+		resizeThreshold = (long) (tableCapacity * LOAD_FACTOR);
+		int pageCount = (int) ((tableCapacity + PAGE_ENTRIES - 1) >>> PAGE_SHIFT);
+		pages = new ByteBuffer[pageCount];
+		for (int n = 0; n < pageCount; n++) {
+			pages[n] = DirectBuffers.allocate(Math.min(tableCapacity, PAGE_ENTRIES) * ENTRY_BYTES);
+		}
+	}
+
+	private static long hash(long key, char subsequentChar) {
+		long h = (key ^ (subsequentChar * 0xC2B2AE3D27D4EB4FL)) * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 32);
+	}
+
+	private ByteBuffer page(long index) {
+		return pages[(int) (index >>> PAGE_SHIFT)];
+	}
+
+	private static ByteBuffer page(ByteBuffer[] pages, long index) {
+		return pages[(int) (index >>> PAGE_SHIFT)];
+	}
+
+	private static int position(long index) {
+		return (int) (index & (PAGE_ENTRIES - 1)) * ENTRY_BYTES;
+	}
+
+	/**
+	 * Adds occurrences of a transition.
+	 *
+	 * @param key
+	 *            Packed key, must not be 0
+	 * @param subsequentChar
+	 *            Char following the key
+	 * @param occurrences
+	 *            Number of occurrences to add
+	 */
+	void add(long key, char subsequentChar, int occurrences) {
+		if (pages == null) {
+			throw new IllegalStateException("close() has already been invoked");
+		}
+		if (key == 0) {
+			throw new IllegalArgumentException("The key 0 is reserved for empty entries");
+		}
+		long hash = hash(key, subsequentChar);
+		long index = find(pages, mask, hash, key, subsequentChar);
+		ByteBuffer page = page(index);
+		int position = position(index);
+		if (page.getLong(position) != 0) {
+			page.putInt(position + 12, page.getInt(position + 12) + occurrences);
+			return;
+		}
+		if (oldPages != null) {
+			long oldIndex = find(oldPages, oldCapacity - 1, hash, key, subsequentChar);
+			ByteBuffer oldPage = page(oldPages, oldIndex);
+			int oldPosition = position(oldIndex);
+			if (oldPage.getLong(oldPosition) != 0) {
+				// Not moved yet, it will be with its new count
+				oldPage.putInt(oldPosition + 12, oldPage.getInt(oldPosition + 12) + occurrences);
+				return;
+			}
+		}
+		page.putLong(position, key);
+		page.putInt(position + 8, subsequentChar);
+		page.putInt(position + 12, occurrences);
+		size++;
+		if (oldPages != null) {
+			migrate(MIGRATION_STEP);
+		}
+		if (size > resizeThreshold) {
+			resize();
+		}
+	}
+
+	/**
+	 * Index of the entry of the transition, or of the empty entry where the
+	 * probe ended.
+	 */
+	private static long find(ByteBuffer[] pages, long mask, long hash, long key, char subsequentChar) {
+		long index = hash & mask;
+		while (true) {
+			ByteBuffer page = page(pages, index);
+			int position = position(index);
+			long entryKey = page.getLong(position);
+			if (entryKey == 0 || (entryKey == key && page.getInt(position + 8) == subsequentChar)) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	/**
+	 * Starts an incremental resize, the entries of the current table are
+	 * moved by later calls of migrate().
+	 */
+	private void resize() {
+		// Not expected (see MIGRATION_STEP), but a resize must never start
+		// while one is under way
+		completeResize();
+		oldPages = pages;
+		oldCapacity = capacity;
+		migrationIndex = 0;
+		allocate(capacity * 2);
+	}
+
+	/**
+	 * Moves up to entryCount entries of the old table into the current one,
+	 * the old pages are released once all have moved.
+	 */
+	private void migrate(long entryCount) {
+		long end = Math.min(oldCapacity, migrationIndex + entryCount);
+		for (; migrationIndex < end; migrationIndex++) {
+			ByteBuffer oldPage = page(oldPages, migrationIndex);
+			int oldPosition = position(migrationIndex);
+			long key = oldPage.getLong(oldPosition);
+			if (key != 0) {
+				char subsequentChar = (char) oldPage.getInt(oldPosition + 8);
+				// Not in the current table, so the probe ends at an empty entry
+				long index = find(pages, mask, hash(key, subsequentChar), key, subsequentChar);
+				ByteBuffer page = page(index);
+				int position = position(index);
+				page.putLong(position, key);
+				page.putInt(position + 8, subsequentChar);
+				page.putInt(position + 12, oldPage.getInt(oldPosition + 12));
+			}
+		}
+		if (migrationIndex == oldCapacity) {
+			freeOldPages();
+		}
+	}
+
+	private void completeResize() {
+		if (oldPages != null) {
+			migrate(oldCapacity);
+		}
+	}
+
+	private void freeOldPages() {
+		for (ByteBuffer page : oldPages) {
+			DirectBuffers.free(page);
+		}
+		oldPages = null;
+	}
+
+	/**
+	 * Number of distinct transitions
+	 *
+	 * @return long Transition count
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Number of entries, for iterating with getKey()
+	 *
+	 * @return long Capacity
+	 */
+	long capacity() {
+		completeResize();
+		return capacity;
+	}
+
+	long getKey(long index) {
+		return page(index).getLong(position(index));
+	}
+
+	char getSubsequentChar(long index) {
+		return (char) page(index).getInt(position(index) + 8);
+	}
+
+	int getCount(long index) {
+		return page(index).getInt(position(index) + 12);
+	}
+
+	/**
+	 * Groups the transitions by key into an off-heap FrozenMarkovModel, in
+	 * PagedArrays so it may grow as large as the table. The table is left as
+	 * is.
+	 *
+	 * @param minOrder
+	 *            Number of chars of the shortest keys
+	 * @param kOrder
+	 *            Number of chars of the longest keys
+	 * @param kGramCodec
+	 *            Codec of the packed keys
+	 * @return FrozenMarkovModel in direct buffers
+	 */
+	FrozenMarkovModel freeze(int minOrder, int kOrder, KGramCodec kGramCodec) {
+		completeResize();
+		// There are at most as many keys as transitions
+		long tableSize = 16;
+		while (tableSize < size * 4 / 3 + 1) {
+			tableSize <<= 1;
+		}
+		long tableMask = tableSize - 1;
+		PagedArray packedKeys = new PagedArray(tableSize, 8, true);
+		PagedArray offsets = new PagedArray(tableSize + 1, 8, true);
+		PagedArray successorChars = new PagedArray(size, 2, true);
+		PagedArray cumulativeCounts = new PagedArray(size, 4, true);
+
+		// Place the keys and count the successors of each slot, in
+		// offsets[slot + 1]
+		for (long index = 0; index < capacity; index++) {
+			long key = getKey(index);
+			if (key != 0) {
+				long slot = insert(packedKeys, tableMask, key);
+				offsets.putLong(slot + 1, offsets.getLong(slot + 1) + 1);
+			}
+		}
+		for (long slot = 0; slot < tableSize; slot++) {
+			offsets.putLong(slot + 1, offsets.getLong(slot + 1) + offsets.getLong(slot));
+		}
+
+		// Fill each row, counting down from its end
+		PagedArray cursors = new PagedArray(tableSize, 8, true);
+		for (long slot = 0; slot < tableSize; slot++) {
+			cursors.putLong(slot, offsets.getLong(slot + 1));
+		}
+		for (long index = 0; index < capacity; index++) {
+			long key = getKey(index);
+			if (key != 0) {
+				long slot = insert(packedKeys, tableMask, key);
+				long cursor = cursors.getLong(slot) - 1;
+				cursors.putLong(slot, cursor);
+				successorChars.putChar(cursor, getSubsequentChar(index));
+				cumulativeCounts.putInt(cursor, getCount(index));
+			}
+		}
+		cursors.free();
+
+		// Sort each row by char and accumulate its counts
+		for (long slot = 0; slot < tableSize; slot++) {
+			long from = offsets.getLong(slot);
+			long to = offsets.getLong(slot + 1);
+			for (long n = from + 1; n < to; n++) {
+				char c = successorChars.getChar(n);
+				int count = cumulativeCounts.getInt(n);
+				long m = n - 1;
+				for (; m >= from && successorChars.getChar(m) > c; m--) {
+					successorChars.putChar(m + 1, successorChars.getChar(m));
+					cumulativeCounts.putInt(m + 1, cumulativeCounts.getInt(m));
+				}
+				successorChars.putChar(m + 1, c);
+				cumulativeCounts.putInt(m + 1, count);
+			}
+			for (long n = from + 1; n < to; n++) {
+				cumulativeCounts.putInt(n, cumulativeCounts.getInt(n) + cumulativeCounts.getInt(n - 1));
+			}
+		}
+
+		return new FrozenMarkovModel(minOrder, kOrder, kGramCodec, packedKeys, offsets, successorChars,
+				cumulativeCounts);
+	}
+
+	/**
+	 * Slot of the key in a frozen key table, placing it if absent
+	 */
+	private static long insert(PagedArray packedKeys, long tableMask, long key) {
+		long slot = MarkovLongHashMap.spreadLong(key) & tableMask;
+		long slotKey;
+		while ((slotKey = packedKeys.getLong(slot)) != 0) {
+			if (slotKey == key) {
+				return slot;
+			}
+			slot = (slot + 1) & tableMask;
+		}
+		packedKeys.putLong(slot, key);
+		return slot;
+	}
+
+	/**
+	 * Releases the off-heap memory of the table, it can not be used
+	 * afterwards.
+	 */
+	@Override
+	public void close() {
+		if (pages != null) {
+			for (ByteBuffer page : pages) {
+				DirectBuffers.free(page);
+			}
+			pages = null;
+		}
+		if (oldPages != null) {
+			freeOldPages();
+		}
+	}
+}
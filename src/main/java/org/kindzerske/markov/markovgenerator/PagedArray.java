@@ -0,0 +1,130 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Array of longs, ints or chars indexed by a long, in heap or direct buffers
+ * of at most 2^PAGE_SHIFT bytes each, so it may hold more than the 2 GB of a
+ * single buffer. An array holds one kind of element, read and written with
+ * the get/put methods of that kind only. Pages are a power of two of bytes,
+ * so an element never spans two of them.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+final class PagedArray {
+
+	// 128 MB pages
+	static final int PAGE_SHIFT = 27;
+
+	private final ByteBuffer[] pages;
+	private final int pageShift;
+	private final int pageMask;
+	private final long length;
+	private final boolean offHeap;
+
+	/**
+	 * Constructor, the array is zeroed.
+	 *
+	 * @param length
+	 *            Number of elements
+	 * @param elementBytes
+	 *            Size of an element, 8 for longs, 4 for ints or 2 for chars
+	 * @param offHeap
+	 *            True for direct buffers, released by free()
+	 */
+	PagedArray(long length, int elementBytes, boolean offHeap) {
+		this(length, elementBytes, offHeap, PAGE_SHIFT);
+	}
+
+	/**
+	 * Constructor with smaller pages than 2^PAGE_SHIFT bytes, for tests
+	 */
+	PagedArray(long length, int elementBytes, boolean offHeap, int pageShift) {
+		if (length < 0) {
+			throw new IllegalArgumentException("length must not be negative: " + length);
+		}
+		this.length = length;
+		this.offHeap = offHeap;
+		this.pageShift = pageShift;
+		this.pageMask = (1 << pageShift) - 1;
+		long bytes = length * elementBytes;
+		long pageCount = (bytes + pageMask) >>> pageShift;
+		if (pageCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many pages for " + length + " elements");
+		}
+		pages = new ByteBuffer[(int) pageCount];
+		for (int n = 0; n < pages.length; n++) {
+			int pageBytes = (int) Math.min(bytes - ((long) n << pageShift), 1L << pageShift);
+			pages[n] = offHeap ? DirectBuffers.allocate(pageBytes)
+					: ByteBuffer.allocate(pageBytes).order(ByteOrder.nativeOrder());
+		}
+	}
+
+	/**
+	 * Constructor over pages already filled, e.g. mapped from a file. Every
+	 * page but the last is of 2^pageShift bytes, the array is not offHeap as
+	 * free() does not own them.
+	 */
+	PagedArray(ByteBuffer[] pages, long length, int pageShift) {
+		this.pages = pages;
+		this.length = length;
+		this.offHeap = false;
+		this.pageShift = pageShift;
+		this.pageMask = (1 << pageShift) - 1;
+	}
+
+	/**
+	 * Number of elements
+	 *
+	 * @return long Length
+	 */
+	long length() {
+		return length;
+	}
+
+	boolean isOffHeap() {
+		return offHeap;
+	}
+
+	long getLong(long index) {
+		long position = index << 3;
+		return pages[(int) (position >>> pageShift)].getLong((int) position & pageMask);
+	}
+
+	void putLong(long index, long value) {
+		long position = index << 3;
+		pages[(int) (position >>> pageShift)].putLong((int) position & pageMask, value);
+	}
+
+	int getInt(long index) {
+		long position = index << 2;
+		return pages[(int) (position >>> pageShift)].getInt((int) position & pageMask);
+	}
+
+	void putInt(long index, int value) {
+		long position = index << 2;
+		pages[(int) (position >>> pageShift)].putInt((int) position & pageMask, value);
+	}
+
+	char getChar(long index) {
+		long position = index << 1;
+		return pages[(int) (position >>> pageShift)].getChar((int) position & pageMask);
+	}
+
+	void putChar(long index, char value) {
+		long position = index << 1;
+		pages[(int) (position >>> pageShift)].putChar((int) position & pageMask, value);
+	}
+
+	/**
+	 * Releases the pages of an off-heap array now, see DirectBuffers.free().
+	 * The array must not be used afterwards.
+	 */
+	void free() {
+		for (ByteBuffer page : pages) {
+			DirectBuffers.free(page);
+		}
+	}
+}
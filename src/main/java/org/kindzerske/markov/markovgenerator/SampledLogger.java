@@ -0,0 +1,107 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MarkovListener which prints one in every sampleInterval generation events
+ * (steps, bifurcations and dead ends) and every training event, formatting
+ * only the events it prints. Other events are passed on to a delegate, e.g. a
+ * MarkovMetrics, so sampled logs and counters can be had together. A sample
+ * interval of 1 prints every event, which is the verbose trace of the CLI.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class SampledLogger implements MarkovListener {
+
+	private final long sampleInterval;
+	private final PrintStream out;
+	private final MarkovListener delegate;
+	private final AtomicLong events = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param sampleInterval
+	 *            Print one in this many generation events, 1 prints all
+	 * @param out
+	 *            Stream printed to, or null for whatever System.out is when
+	 *            printing
+	 * @param delegate
+	 *            Receives every event as well, MarkovListener.NONE for none
+	 */
+	public SampledLogger(long sampleInterval, PrintStream out, MarkovListener delegate) {
+		if (sampleInterval < 1) {
+			throw new IllegalArgumentException("sampleInterval must be at least 1: " + sampleInterval);
+		}
+		this.sampleInterval = sampleInterval;
+		this.out = out;
+		this.delegate = delegate;
+	}
+
+	private boolean sample() {
+		return sampleInterval == 1 || events.incrementAndGet() % sampleInterval == 0;
+	}
+
+	private PrintStream out() {
+		return out != null ? out : System.out;
+	}
+
+	@Override
+	public void onBlockTrained(int chars, int keysInserted, long nanos) {
+		delegate.onBlockTrained(chars, keysInserted, nanos);
+	}
+
+	@Override
+	public void onResize(int oldCapacity, int newCapacity) {
+		delegate.onResize(oldCapacity, newCapacity);
+	}
+
+	@Override
+	public void onTextTrained(String textFileLocation, long bytes, long nanos) {
+		delegate.onTextTrained(textFileLocation, bytes, nanos);
+		long elapsedNanos = Math.max(1, nanos);
+		if (bytes >= 0) {
+			out().println(String.format("  Trained '%s': %d bytes in %d ms (%.1f MB/s)", textFileLocation, bytes,
+					elapsedNanos / 1000000, bytes * 1000.0 / elapsedNanos));
+		} else {
+			out().println(String.format("  Trained '%s' in %d ms", textFileLocation, elapsedNanos / 1000000));
+		}
+	}
+
+	@Override
+	public void onModelBuilt(int keyCount, int capacity, double averageProbeLength) {
+		delegate.onModelBuilt(keyCount, capacity, averageProbeLength);
+	}
+
+	@Override
+	public void onStep(MarkovModel markovModel, long state) {
+		delegate.onStep(markovModel, state);
+		if (sample()) {
+			out().println("  Key: '" + markovModel.getKey(state) + "'");
+		}
+	}
+
+	@Override
+	public void onBifurcation(MarkovModel markovModel, long state) {
+		delegate.onBifurcation(markovModel, state);
+		if (sample()) {
+			out().println("  Bifurcation: '" + markovModel.getKey(state) + "'; "
+					+ markovModel.getSubsequentCharsString(state));
+		}
+	}
+
+	@Override
+	public void onDeadEnd(long length, long textLength) {
+		delegate.onDeadEnd(length, textLength);
+		if (sample()) {
+			out().println("  Dead end after " + length + " of " + textLength + " chars");
+		}
+	}
+
+	@Override
+	public void onGenerated(long chars, long nanos) {
+		delegate.onGenerated(chars, nanos);
+	}
+}
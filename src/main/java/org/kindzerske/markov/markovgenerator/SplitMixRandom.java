@@ -0,0 +1,55 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.Random;
+
+/**
+ * Seeded source of randomness for reproducible generation, the SplitMix64
+ * sequence behind java.util.SplittableRandom exposed as a java.util.Random so
+ * it can be handed to MarkovModel and Markov. Unlike java.util.Random the seed
+ * is a plain field rather than an AtomicLong updated by compare-and-set, so a
+ * seeded draw costs no more than a ThreadLocalRandom one. Instances are not
+ * thread-safe, use one per generation.
+ *
+ * The sequence of a seed is fixed, so the same model and seed always produce
+ * the same text, on any JVM and in any release.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class SplitMixRandom extends Random {
+
+	private static final long serialVersionUID = 1L;
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long state;
+
+	/**
+	 * Constructor
+	 *
+	 * @param seed
+	 *            Seed of the sequence
+	 */
+	public SplitMixRandom(long seed) {
+		super(0);
+		this.state = seed;
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		// Also invoked by the Random constructor
+		this.state = seed;
+	}
+
+	@Override
+	public long nextLong() {
+		long z = (state += GOLDEN_GAMMA);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int) (nextLong() >>> (64 - bits));
+	}
+}
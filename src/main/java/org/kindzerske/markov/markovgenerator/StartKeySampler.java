@@ -0,0 +1,200 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Draws the state generation starts from, in constant time per draw, from the
+ * dense index of start states of a MarkovModel. Draws are uniform over the
+ * distinct keys or weighted by how often each key occurred in training, and
+ * may be restricted to keys which begin a word or a sentence.
+ *
+ * Whether a key begins a word (or sentence) is read off the model itself: the
+ * key is a candidate if its first char is a letter or digit (an upper case
+ * letter) and the model holds the key shifted right by a space (by ". ", "! "
+ * or "? "), i.e. its first char followed a boundary at least once in
+ * training. Models of kOrder 1 (below 3 for sentences) fall back to the first
+ * char alone.
+ *
+ * A sampler holds nothing but its tables once built, so one instance can be
+ * shared by any number of threads.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class StartKeySampler {
+
+	/**
+	 * Which keys generation may start from
+	 */
+	public enum Boundary {
+		/** Any key */
+		NONE,
+		/** Keys beginning at a word boundary */
+		WORD,
+		/** Keys beginning a sentence */
+		SENTENCE
+	}
+
+	private static final String[] SENTENCE_ENDS = { ". ", "! ", "? " };
+
+	private final MarkovModel markovModel;
+	// Candidate start states, null to draw from the whole index of the model
+	private final long[] states;
+	private final int count;
+	// Walker alias tables of weighted samplers, null for uniform draws
+	private final double[] probabilities;
+	private final int[] aliases;
+
+	/**
+	 * Uniform over every start state of a model, the same distribution as
+	 * MarkovModel.getRandomState() of the hashed models
+	 *
+	 * @param markovModel
+	 *            Trained model
+	 */
+	public StartKeySampler(MarkovModel markovModel) {
+		this(markovModel, false, Boundary.NONE);
+	}
+
+	/**
+	 * Constructor, indexes the candidate keys of the model up front in time
+	 * linear in its start states.
+	 *
+	 * @param markovModel
+	 *            Trained model
+	 * @param weighted
+	 *            Draw keys in proportion to their count in training rather
+	 *            than uniformly
+	 * @param boundary
+	 *            Which keys generation may start from
+	 */
+	public StartKeySampler(MarkovModel markovModel, boolean weighted, Boundary boundary) {
+		this.markovModel = markovModel;
+		int startStateCount = markovModel.getStartStateCount();
+		if (boundary == Boundary.NONE) {
+			this.states = null;
+			this.count = startStateCount;
+		} else {
+			long[] candidates = new long[startStateCount];
+			int n = 0;
+			for (int index = 0; index < startStateCount; index++) {
+				long state = markovModel.getStartState(index);
+				if (beginsAt(markovModel, markovModel.getKey(state), boundary)) {
+					candidates[n++] = state;
+				}
+			}
+			this.states = n == startStateCount ? null : Arrays.copyOf(candidates, n);
+			this.count = n;
+		}
+
+		if (weighted && count > 0) {
+			this.probabilities = new double[count];
+			this.aliases = new int[count];
+			buildAliasTables();
+		} else {
+			this.probabilities = null;
+			this.aliases = null;
+		}
+	}
+
+	/**
+	 * True if a key begins at the boundary, see the class comment
+	 */
+	static boolean beginsAt(MarkovModel markovModel, String key, Boundary boundary) {
+		if (key.isEmpty()) {
+			return false;
+		}
+		char first = key.charAt(0);
+		if (boundary == Boundary.WORD) {
+			return Character.isLetterOrDigit(first)
+					&& (key.length() < 2 || containsKey(markovModel, " " + key.substring(0, key.length() - 1)));
+		}
+		if (!Character.isUpperCase(first)) {
+			return false;
+		}
+		if (key.length() < 3) {
+			return true;
+		}
+		String rest = key.substring(0, key.length() - 2);
+		for (String sentenceEnd : SENTENCE_ENDS) {
+			if (containsKey(markovModel, sentenceEnd + rest)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * True if the model holds exactly this key, not merely a backed off
+	 * suffix of it
+	 */
+	private static boolean containsKey(MarkovModel markovModel, String key) {
+		long state = markovModel.findState(key, key.length());
+		return state >= 0 && markovModel.getKey(state).equals(key);
+	}
+
+	/**
+	 * Vose's construction of the Walker alias tables: every column holds the
+	 * probability of its own key and the remainder goes to one alias, so a
+	 * draw is one uniform column and one coin flip.
+	 */
+	private void buildAliasTables() {
+		double total = 0;
+		for (int n = 0; n < count; n++) {
+			total += markovModel.getCount(getState(n));
+		}
+		ArrayDeque<Integer> small = new ArrayDeque<Integer>();
+		ArrayDeque<Integer> large = new ArrayDeque<Integer>();
+		for (int n = 0; n < count; n++) {
+			probabilities[n] = markovModel.getCount(getState(n)) * count / total;
+			(probabilities[n] < 1.0 ? small : large).add(n);
+		}
+		while (!small.isEmpty() && !large.isEmpty()) {
+			int less = small.poll();
+			int more = large.poll();
+			aliases[less] = more;
+			probabilities[more] += probabilities[less] - 1.0;
+			(probabilities[more] < 1.0 ? small : large).add(more);
+		}
+		// Whatever is left is 1 up to rounding
+		for (Integer n : small) {
+			probabilities[n] = 1.0;
+		}
+		for (Integer n : large) {
+			probabilities[n] = 1.0;
+		}
+	}
+
+	private long getState(int index) {
+		return states != null ? states[index] : markovModel.getStartState(index);
+	}
+
+	/**
+	 * Number of keys drawn from
+	 *
+	 * @return int Candidate count
+	 */
+	public int getCandidateCount() {
+		return count;
+	}
+
+	/**
+	 * Draws a start state in constant time.
+	 *
+	 * @param rand
+	 *            Source of randomness
+	 * @return long state, or -1 if there is no candidate key
+	 */
+	public long sample(Random rand) {
+		if (count == 0) {
+			return -1;
+		}
+		int index = rand.nextInt(count);
+		if (probabilities != null && rand.nextDouble() >= probabilities[index]) {
+			index = aliases[index];
+		}
+		return getState(index);
+	}
+}
@@ -0,0 +1,459 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Suffix array over the sample texts, an alternative to training a hashmap
+ * per kOrder. The texts are kept as one char array, separated by SEPARATOR,
+ * along with the start positions of all suffixes in sorted order. The
+ * suffixes starting with a k-char key are a contiguous range of the array, and
+ * the chars following the key are sorted within that range, so drawing a
+ * uniformly random suffix of the range draws a subsequent char weighted by
+ * its count. One index therefore answers every kOrder through
+ * getMarkovModel(kOrder), in 6 bytes per char of text (2 for the char, 4 for
+ * its suffix) instead of a String and a TreeMap per distinct key.
+ *
+ * The price is lookup speed: a key is found by binary search over the
+ * suffix array, i.e. about 2 log2(n) comparisons at random places of the
+ * text per generated char rather than one hash probe. Use a hashmap model
+ * where a single kOrder is generated from at high rates.
+ *
+ * Construction is prefix doubling with radix sorts, O(n log n). While it runs
+ * it needs rank, scratch and count arrays of an int per char besides the 6
+ * bytes per char of the index, and the StringBuilder the texts were gathered
+ * in (2 to 4 bytes per char, depending on how it grew) is still held, so the
+ * peak is about 20 to 22 bytes per char of text.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class SuffixArrayIndex {
+
+	/**
+	 * Separates texts, never part of a key or generated. Occurrences in a
+	 * text are replaced by whitespace, as are newlines.
+	 */
+	public static final char SEPARATOR = '\u0000';
+
+	private final char[] text;
+	private final int[] suffixArray;
+
+	/**
+	 * Indexes sample texts held in memory, already normalized.
+	 *
+	 * @param texts
+	 *            Sample texts, k-grams never span two of them
+	 */
+	public SuffixArrayIndex(String... texts) {
+		StringBuilder stringBuilder = new StringBuilder();
+		for (String text : texts) {
+			append(stringBuilder, text);
+			stringBuilder.append(SEPARATOR);
+		}
+		this.text = toCharArray(stringBuilder);
+		this.suffixArray = buildSuffixArray(this.text);
+	}
+
+	/**
+	 * Reads and indexes sample texts, turning newlines into whitespace. The
+	 * readers are not closed.
+	 *
+	 * @param readers
+	 *            Sample texts, k-grams never span two of them
+	 * @throws IOException
+	 */
+	public SuffixArrayIndex(Reader... readers) throws IOException {
+		StringBuilder stringBuilder = new StringBuilder();
+		char[] buffer = new char[1 << 16];
+		for (Reader reader : readers) {
+			int read;
+			while ((read = reader.read(buffer)) != -1) {
+				for (int n = 0; n < read; n++) {
+					if (buffer[n] == '\n' || buffer[n] == '\r') {
+						// Substitute white space for newlines
+						buffer[n] = ' ';
+					}
+				}
+				append(stringBuilder, CharBuffer.wrap(buffer, 0, read));
+			}
+			stringBuilder.append(SEPARATOR);
+		}
+		this.text = toCharArray(stringBuilder);
+		this.suffixArray = buildSuffixArray(this.text);
+	}
+
+	private static void append(StringBuilder stringBuilder, CharSequence text) {
+		int start = stringBuilder.length();
+		stringBuilder.append(text);
+		for (int n = start; n < stringBuilder.length(); n++) {
+			if (stringBuilder.charAt(n) == SEPARATOR) {
+				stringBuilder.setCharAt(n, ' ');
+			}
+		}
+	}
+
+	private static char[] toCharArray(StringBuilder stringBuilder) {
+		char[] chars = new char[stringBuilder.length()];
+		stringBuilder.getChars(0, chars.length, chars, 0);
+		return chars;
+	}
+
+	/**
+	 * Sorts the suffixes by prefix doubling: after round h the suffixes are
+	 * sorted by their first 2^h chars, and round h + 1 sorts the pairs of
+	 * ranks (rank of i, rank of i + 2^h) with two stable counting sorts.
+	 */
+	static int[] buildSuffixArray(char[] text) {
+		int n = text.length;
+		int[] suffixArray = new int[n];
+		int[] rank = new int[n];
+		int[] scratch = new int[n];
+		if (n == 0) {
+			return suffixArray;
+		}
+
+		// Round 0, counting sort by char
+		int[] counts = new int[Math.max(Character.MAX_VALUE + 1, n) + 1];
+		for (int i = 0; i < n; i++) {
+			counts[text[i] + 1]++;
+		}
+		for (int c = 1; c < counts.length; c++) {
+			counts[c] += counts[c - 1];
+		}
+		for (int i = 0; i < n; i++) {
+			suffixArray[counts[text[i]]++] = i;
+		}
+		int classes = 0;
+		for (int r = 0; r < n; r++) {
+			if (r > 0 && text[suffixArray[r]] != text[suffixArray[r - 1]]) {
+				classes++;
+			}
+			rank[suffixArray[r]] = classes;
+		}
+		classes++;
+
+		for (int h = 1; classes < n; h <<= 1) {
+			// Order by second rank: suffixes without a second half first,
+			// then the others in the order of their second half
+			int m = 0;
+			for (int i = n - h; i < n; i++) {
+				scratch[m++] = i;
+			}
+			for (int r = 0; r < n; r++) {
+				if (suffixArray[r] >= h) {
+					scratch[m++] = suffixArray[r] - h;
+				}
+			}
+
+			// Stable counting sort by first rank
+			Arrays.fill(counts, 0, classes + 1, 0);
+			for (int i = 0; i < n; i++) {
+				counts[rank[i] + 1]++;
+			}
+			for (int c = 1; c <= classes; c++) {
+				counts[c] += counts[c - 1];
+			}
+			for (int j = 0; j < n; j++) {
+				suffixArray[counts[rank[scratch[j]]]++] = scratch[j];
+			}
+
+			// New ranks, into scratch
+			classes = 0;
+			scratch[suffixArray[0]] = 0;
+			for (int r = 1; r < n; r++) {
+				int current = suffixArray[r];
+				int previous = suffixArray[r - 1];
+				if (rank[current] != rank[previous] || secondRank(rank, current + h, n) != secondRank(rank, previous
+						+ h, n)) {
+					classes++;
+				}
+				scratch[current] = classes;
+			}
+			classes++;
+			int[] swap = rank;
+			rank = scratch;
+			scratch = swap;
+		}
+		return suffixArray;
+	}
+
+	private static int secondRank(int[] rank, int i, int n) {
+		return i < n ? rank[i] : -1;
+	}
+
+	/**
+	 * Model of the index for one kOrder. Views are cheap, any number of
+	 * orders can be served from the same index at once.
+	 *
+	 * @param kOrder
+	 *            Number of chars per key
+	 * @return MarkovModel backed by this index
+	 */
+	public MarkovModel getMarkovModel(int kOrder) {
+		if (kOrder < 1) {
+			throw new IllegalArgumentException("kOrder must be at least 1: " + kOrder);
+		}
+		return new SuffixArrayMarkovModel(kOrder);
+	}
+
+	/**
+	 * Number of chars indexed, including one separator per text
+	 *
+	 * @return int Text length
+	 */
+	public int getTextLength() {
+		return text.length;
+	}
+
+	/**
+	 * Compares the k chars of the key starting at start with the first k chars
+	 * of a suffix, a suffix shorter than k which is a prefix of the key is
+	 * smaller.
+	 */
+	private int compare(CharSequence key, int start, int k, int suffix) {
+		for (int i = 0; i < k; i++) {
+			if (suffix + i >= text.length) {
+				return 1;
+			}
+			int difference = key.charAt(start + i) - text[suffix + i];
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * A state is the range [low, high) of the suffix array holding the
+	 * suffixes which start with the key and continue with a char of the same
+	 * text, packed as low &lt;&lt; 32 | high.
+	 */
+	private class SuffixArrayMarkovModel implements MarkovModel {
+
+		private final int kOrder;
+		// Computed on first use, racy but idempotent
+		private volatile long[] startStates;
+
+		SuffixArrayMarkovModel(int kOrder) {
+			this.kOrder = kOrder;
+		}
+
+		@Override
+		public int getKOrder() {
+			return kOrder;
+		}
+
+		@Override
+		public int getKeyCount() {
+			return getStartStates().length;
+		}
+
+		/**
+		 * The state of every distinct key, in suffix array order. Occurrences
+		 * without a subsequent char sort first among those of their key, so
+		 * the range of a key runs from its first to its last valid
+		 * occurrence.
+		 */
+		private long[] getStartStates() {
+			long[] states = startStates;
+			if (states == null) {
+				int count = 0;
+				states = new long[16];
+				int low = -1;
+				int previous = -1;
+				for (int r = 0; r < suffixArray.length; r++) {
+					int suffix = suffixArray[r];
+					if (hasSubsequentChar(suffix)) {
+						if (previous < 0 || !sameKey(suffixArray[previous], suffix)) {
+							if (low >= 0) {
+								states = append(states, count++, ((long) low << 32) | (previous + 1));
+							}
+							low = r;
+						}
+						previous = r;
+					}
+				}
+				if (low >= 0) {
+					states = append(states, count++, ((long) low << 32) | (previous + 1));
+				}
+				states = Arrays.copyOf(states, count);
+				startStates = states;
+			}
+			return states;
+		}
+
+		private long[] append(long[] states, int count, long state) {
+			if (count == states.length) {
+				states = Arrays.copyOf(states, count * 2);
+			}
+			states[count] = state;
+			return states;
+		}
+
+		@Override
+		public int getStartStateCount() {
+			return getStartStates().length;
+		}
+
+		@Override
+		public long getStartState(int index) {
+			return getStartStates()[index];
+		}
+
+		@Override
+		public int getCount(long state) {
+			return high(state) - low(state);
+		}
+
+		/**
+		 * True if the k chars at the position and the char after them are all
+		 * from the same text
+		 */
+		private boolean hasSubsequentChar(int position) {
+			if (position + kOrder >= text.length) {
+				return false;
+			}
+			for (int i = position; i <= position + kOrder; i++) {
+				if (text[i] == SEPARATOR) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean sameKey(int a, int b) {
+			for (int i = 0; i < kOrder; i++) {
+				if (text[a + i] != text[b + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public long findState(CharSequence key, int end) {
+			int start = end - kOrder;
+			if (start < 0) {
+				return -1;
+			}
+			for (int i = start; i < end; i++) {
+				if (key.charAt(i) == SEPARATOR) {
+					return -1;
+				}
+			}
+
+			// First suffix not smaller than the key, noting the first suffix
+			// seen to be greater than the key to bound the second search
+			int low = 0;
+			int high = suffixArray.length;
+			int greater = suffixArray.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				int comparison = compare(key, start, kOrder, suffixArray[mid]);
+				if (comparison > 0) {
+					low = mid + 1;
+				} else {
+					if (comparison < 0) {
+						greater = mid;
+					}
+					high = mid;
+				}
+			}
+			// First suffix greater than the key
+			int rangeLow = low;
+			int rangeHigh;
+			high = greater;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (compare(key, start, kOrder, suffixArray[mid]) >= 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			rangeHigh = low;
+
+			// Occurrences at the end of a text (followed by nothing, or by a
+			// separator) sort first, skip them
+			while (rangeLow < rangeHigh && !hasSubsequentChar(suffixArray[rangeLow])) {
+				rangeLow++;
+			}
+			return rangeLow < rangeHigh ? ((long) rangeLow << 32) | rangeHigh : -1;
+		}
+
+		@Override
+		public long nextState(long state, CharSequence key, int end) {
+			return findState(key, end);
+		}
+
+		/**
+		 * Picks a key uniformly from the distinct keys, as the hashed models
+		 * do
+		 */
+		@Override
+		public long getRandomState(Random rand) {
+			long[] states = getStartStates();
+			return states.length == 0 ? -1 : states[rand.nextInt(states.length)];
+		}
+
+		@Override
+		public String getKey(long state) {
+			return new String(text, suffixArray[low(state)], kOrder);
+		}
+
+		@Override
+		public char getRandomSubsequentChar(long state, Random rand) {
+			int low = low(state);
+			return text[suffixArray[low + rand.nextInt(high(state) - low)] + kOrder];
+		}
+
+		@Override
+		public int getSubsequentCharCount(long state) {
+			// Subsequent chars are sorted within the range
+			int count = 1;
+			for (int r = low(state) + 1; r < high(state); r++) {
+				if (text[suffixArray[r] + kOrder] != text[suffixArray[r - 1] + kOrder]) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public char getSubsequentChar(long state, int index) {
+			int r = low(state);
+			for (int distinct = 0; distinct < index; distinct++) {
+				// Skip the run of the current char
+				char subsequentChar = text[suffixArray[r] + kOrder];
+				while (text[suffixArray[r] + kOrder] == subsequentChar) {
+					r++;
+				}
+			}
+			return text[suffixArray[r] + kOrder];
+		}
+
+		@Override
+		public String getSubsequentCharsString(long state) {
+			TreeMap<Character, Integer> subsequentMap = new TreeMap<Character, Integer>();
+			for (int r = low(state); r < high(state); r++) {
+				char subsequentChar = text[suffixArray[r] + kOrder];
+				Integer count = subsequentMap.get(subsequentChar);
+				subsequentMap.put(subsequentChar, count == null ? 1 : count + 1);
+			}
+			return subsequentMap.toString();
+		}
+
+		private int low(long state) {
+			return (int) (state >>> 32);
+		}
+
+		private int high(long state) {
+			return (int) state;
+		}
+	}
+}
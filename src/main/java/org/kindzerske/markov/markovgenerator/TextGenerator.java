@@ -1,18 +1,18 @@
 package org.kindzerske.markov.markovgenerator;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.Flushable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.PrintStream;
+import java.io.Reader;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
@@ -31,10 +31,18 @@ public class TextGenerator {
 	private int textLength;
 
 	// Subsequent member vars
-	private String textFileLocation;
-	private String originalTextFile;
-	MarkovHashMap<String, Markov> markovHashMap;
+	private String[] textFileLocations;
+	private Charset charset = StandardCharsets.UTF_8;
+	private boolean memoryMapped = true;
+	private Long seed;
+	private Integer minOrder;
+	private boolean wordMode = false;
+	private boolean fullLength = false;
+	private MarkovModel markovModel;
+	private WordMarkovModel wordMarkovModel;
 	private String generatedText;
+	private boolean verbose = false;
+	private MarkovListener listener = MarkovListener.NONE;
 
 	// CLI options
 	private final static String INTERACTIVE_FLAG = "i";
@@ -42,6 +50,24 @@ public class TextGenerator {
 	private final static String MARKOV_ORDER_FLAG = "k";
 	private final static String TEXT_LENGTH_FLAG = "m";
 	private final static String VERBOSITY_FLAG = "v";
+	private final static String PARALLELISM_FLAG = "p";
+	private final static String CHARSET_FLAG = "c";
+	private final static String READER_FLAG = "r";
+	private final static String STREAM_READER = "stream";
+	private final static String SAVE_MODEL_FLAG = "o";
+	private final static String LOAD_MODEL_FLAG = "l";
+	private final static String SEED_FLAG = "s";
+	private final static String MIN_ORDER_FLAG = "b";
+	private final static String WORD_MODE_FLAG = "w";
+	private final static String EXTERNAL_FLAG = "x";
+	private final static String COUNT_FLAG = "n";
+	private final static String METRICS_FLAG = "t";
+	private final static String FULL_LENGTH_FLAG = "e";
+
+	/**
+	 * Text location which is read from System.in instead of a resource or file
+	 */
+	public final static String STDIN_LOCATION = MarkovModelBuilder.STDIN_LOCATION;
 
 	public static void main(String[] args) {
 
@@ -55,11 +81,30 @@ public class TextGenerator {
 		Options options = new Options();
 		options.addOption(INTERACTIVE_FLAG,
 				"interactive mode for demo purposes, this flag will take precedence over other cli flags");
-		options.addOption(FILE_PATH_FLAG, true, "path to text file with sample text for markov generation");
+		options.addOption(Option.builder(FILE_PATH_FLAG).hasArgs()
+				.desc("paths to text files with sample text for markov generation, '-' reads stdin").build());
 		options.addOption(MARKOV_ORDER_FLAG, true, "markov parameter for key length");
 		options.addOption(TEXT_LENGTH_FLAG, true,
 				"desired length of output text which may not be fulfilled if sample text is not sufficiently large");
 		options.addOption(VERBOSITY_FLAG, "indicates verbose command line output");
+		options.addOption(PARALLELISM_FLAG, true, "number of threads used for training (default 1)");
+		options.addOption(CHARSET_FLAG, true, "charset of the sample text files (default UTF-8)");
+		options.addOption(READER_FLAG, true,
+				"reader for sample text files, 'mmap' (default) or 'stream', verbose output reports bytes/sec");
+		options.addOption(SAVE_MODEL_FLAG, true, "path to write the trained model to, for later use with -l");
+		options.addOption(LOAD_MODEL_FLAG, true, "path to a model written with -o, generates from it instead of -f/-k");
+		options.addOption(MIN_ORDER_FLAG, true,
+				"back off to keys as short as this where the kOrder key has no subsequent char, trained in the same pass");
+		options.addOption(SEED_FLAG, true, "seed for reproducible output, the same model and seed give the same text");
+		options.addOption(WORD_MODE_FLAG,
+				"word mode, keys are -k words and -m is the number of words, the text is split at whitespace");
+		options.addOption(COUNT_FLAG, true,
+				"number of texts to generate from the one model, on -p threads, printed one per line as they finish");
+		options.addOption(FULL_LENGTH_FLAG,
+				"steer around dead ends so every text has -m chars, restarting from a random key where it must");
+		options.addOption(METRICS_FLAG, "print training and generation metrics to stderr at exit");
+		options.addOption(EXTERNAL_FLAG, true,
+				"train out of core within this many MB of heap, writing the model straight to -o and generating from it");
 
 		CommandLineParser parser = new DefaultParser();
 		CommandLine cmdLine = null;
@@ -72,8 +117,18 @@ public class TextGenerator {
 		// Parameters needed for execution
 		int markovKeyLength = 0;
 		int desiredTextLength = 0;
-		String fileNamePath = "";
+		String[] fileNamePaths = {};
 		boolean verboseFlag = true;
+		int parallelism = 1;
+		Charset charset = StandardCharsets.UTF_8;
+		boolean memoryMapped = true;
+		String saveModelPath = null;
+		String loadModelPath = null;
+		Long seed = null;
+		Integer minOrder = null;
+		boolean wordMode = false;
+		Long memoryBudget = null;
+		Integer count = null;
 
 		// Deciding on interactive/scanner mode, or if all params were included
 		// via command line
@@ -104,7 +159,7 @@ public class TextGenerator {
 			// Get choice
 			System.out.print(" Choose from above texts: ");
 			int textN = scanner.nextInt();
-			fileNamePath = "/" + Utilities.SAMPLE_TEXTS_DIR + sampleTexts[textN].toString();
+			fileNamePaths = new String[] { "/" + Utilities.SAMPLE_TEXTS_DIR + sampleTexts[textN].toString() };
 			System.out.println();
 
 			scanner.close();
@@ -113,36 +168,130 @@ public class TextGenerator {
 			// Get all the params from the CLI
 			markovKeyLength = Integer.parseInt(cmdLine.getOptionValue(MARKOV_ORDER_FLAG));
 			desiredTextLength = Integer.parseInt(cmdLine.getOptionValue(TEXT_LENGTH_FLAG));
-			fileNamePath = cmdLine.getOptionValue(FILE_PATH_FLAG);
+			fileNamePaths = cmdLine.getOptionValues(FILE_PATH_FLAG);
+			verboseFlag = cmdLine.hasOption(VERBOSITY_FLAG) ? true : false;
+			if (cmdLine.hasOption(PARALLELISM_FLAG)) {
+				parallelism = Integer.parseInt(cmdLine.getOptionValue(PARALLELISM_FLAG));
+			}
+			if (cmdLine.hasOption(CHARSET_FLAG)) {
+				charset = Charset.forName(cmdLine.getOptionValue(CHARSET_FLAG));
+			}
+			memoryMapped = !STREAM_READER.equals(cmdLine.getOptionValue(READER_FLAG));
+			saveModelPath = cmdLine.getOptionValue(SAVE_MODEL_FLAG);
+			if (cmdLine.hasOption(MIN_ORDER_FLAG)) {
+				minOrder = Integer.parseInt(cmdLine.getOptionValue(MIN_ORDER_FLAG));
+			}
+			wordMode = cmdLine.hasOption(WORD_MODE_FLAG);
+			if (cmdLine.hasOption(EXTERNAL_FLAG)) {
+				memoryBudget = Long.parseLong(cmdLine.getOptionValue(EXTERNAL_FLAG)) << 20;
+				if (saveModelPath == null) {
+					System.out.println(" -x needs -o, the path the model is written to");
+					return;
+				}
+				if (wordMode || minOrder != null || cmdLine.hasOption(PARALLELISM_FLAG)) {
+					System.out.println(" -x trains char mode keys of kOrder on one thread, without -w, -b or -p");
+					return;
+				}
+			}
+			if (wordMode && saveModelPath != null) {
+				System.out.println(" -o applies to char mode only");
+				return;
+			}
+			if (wordMode && cmdLine.hasOption(FULL_LENGTH_FLAG)) {
+				System.out.println(" -e applies to char mode only");
+				return;
+			}
+		} else if (cmdLine.hasOption(LOAD_MODEL_FLAG) & cmdLine.hasOption(TEXT_LENGTH_FLAG)) {
+			// Generate from a saved model, no training
+			desiredTextLength = Integer.parseInt(cmdLine.getOptionValue(TEXT_LENGTH_FLAG));
+			loadModelPath = cmdLine.getOptionValue(LOAD_MODEL_FLAG);
 			verboseFlag = cmdLine.hasOption(VERBOSITY_FLAG) ? true : false;
 		} else {
 			HelpFormatter formatter = new HelpFormatter();
-			formatter.printHelp("java -jar MarkovGenerator.jar [-flags]", " Use -i alone, or {-f,-k,-m} together",
-					options, "");
+			formatter.printHelp("java -jar MarkovGenerator.jar [-flags]",
+					" Use -i alone, {-f,-k,-m} together (optionally -o), or {-l,-m} together", options, "");
 			// Parameters not correctly determined, terminate.
 			return;
 		}
 
-		// Manage the verbosity of TextGenerator
-		PrintStream originalStream = System.out;
-		PrintStream dummyStream = new PrintStream(new OutputStream() {
-			public void write(int b) {
-				// NO-OP
+		if (cmdLine.hasOption(SEED_FLAG)) {
+			seed = Long.parseLong(cmdLine.getOptionValue(SEED_FLAG));
+		}
+		if (cmdLine.hasOption(COUNT_FLAG)) {
+			count = Integer.parseInt(cmdLine.getOptionValue(COUNT_FLAG));
+			if (wordMode) {
+				System.out.println(" -n applies to char mode only");
+				return;
 			}
-		});
-		if (!verboseFlag) {
-			System.setOut(dummyStream);
+			if (cmdLine.hasOption(PARALLELISM_FLAG)) {
+				parallelism = Integer.parseInt(cmdLine.getOptionValue(PARALLELISM_FLAG));
+			}
+		}
+
+		// Only the verbose trace formats keys, the metrics merely count
+		MarkovMetrics metrics = null;
+		if (cmdLine.hasOption(METRICS_FLAG)) {
+			metrics = new MarkovMetrics();
+			metrics.dumpAtExit(System.err);
 		}
+		MarkovListener metricsListener = metrics != null ? metrics : MarkovListener.NONE;
 
 		TextGenerator textGenerator = new TextGenerator();
-		String generatedText = textGenerator.generateString(markovKeyLength, desiredTextLength, fileNamePath);
+		textGenerator.setVerbose(verboseFlag);
+		textGenerator.setListener(verboseFlag ? new SampledLogger(1, null, metricsListener) : metricsListener);
+		if (seed != null) {
+			textGenerator.setSeed(seed);
+		}
+		if (minOrder != null) {
+			textGenerator.setMinOrder(minOrder);
+		}
+		textGenerator.setWordMode(wordMode);
+		textGenerator.setFullLength(cmdLine.hasOption(FULL_LENGTH_FLAG));
+		String generatedText = "";
+		String source;
+		try {
+			if (loadModelPath != null) {
+				generatedText = textGenerator.generateStringFromModel(desiredTextLength, loadModelPath);
+				markovKeyLength = textGenerator.kOrder;
+				source = "model='" + loadModelPath + "'";
+			} else if (memoryBudget != null) {
+				textGenerator.setCharset(charset);
+				textGenerator.setMemoryMapped(memoryMapped);
+				textGenerator.trainExternal(markovKeyLength, fileNamePaths, memoryBudget, saveModelPath);
+				generatedText = textGenerator.generateStringFromModel(desiredTextLength, saveModelPath);
+				source = "textFileLocation='" + String.join(", ", fileNamePaths) + "', model='" + saveModelPath + "'";
+			} else {
+				textGenerator.setCharset(charset);
+				textGenerator.setMemoryMapped(memoryMapped);
+				generatedText = textGenerator.generateString(markovKeyLength, desiredTextLength, fileNamePaths,
+						parallelism);
+				if (saveModelPath != null) {
+					textGenerator.saveModel(saveModelPath);
+				}
+				source = "textFileLocation='" + String.join(", ", fileNamePaths) + "'" + (wordMode ? ", words" : "");
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
 
-		// Revert the System.out after verbosity management
-		System.setOut(originalStream);
+		if (count != null) {
+			// The batch alone, one text per line
+			textGenerator.setListener(metricsListener);
+			try {
+				textGenerator.generateBatch(count, parallelism, System.out);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
 
 		// Print results
-		System.out.println(String.format("*** Final Generated Text (kOrder=%d, textLength=%d, textFileLocation='%s' )",
-				markovKeyLength, desiredTextLength, fileNamePath));
+		if (seed != null) {
+			source += ", seed=" + seed;
+		}
+		System.out.println(String.format("*** Final Generated Text (kOrder=%d, textLength=%d, %s )", markovKeyLength,
+				desiredTextLength, source));
 		System.out.println(generatedText); // Also can be access with
 											// getGenerated
 	}
@@ -163,123 +312,357 @@ public class TextGenerator {
 	 * @return
 	 */
 	public String generateString(int kOrder, int textLength, String textFileLocation) {
+		return generateString(kOrder, textLength, textFileLocation, 1);
+	}
+
+	/**
+	 * Same as generateString(kOrder, textLength, textFileLocation) but trains
+	 * the markov hashmap on several threads.
+	 * 
+	 * @param kOrder
+	 *            Number of chars used for substrings for the markov to key off
+	 *            of (usually 6..8)
+	 * @param textLength
+	 *            Length of the desired generated text
+	 * @param textFileLocation
+	 *            Path+filename to the source text used for constructing the
+	 *            markov hashmap
+	 * @param parallelism
+	 *            Number of threads used for training, 1 trains on the calling
+	 *            thread
+	 * @return
+	 */
+	public String generateString(int kOrder, int textLength, String textFileLocation, int parallelism) {
+		return generateString(kOrder, textLength, new String[] { textFileLocation }, parallelism);
+	}
+
+	/**
+	 * Same as generateString(kOrder, textLength, textFileLocation, parallelism)
+	 * but trains the markov hashmap from several texts. Each text is streamed
+	 * in turn, so their combined size is not bounded by the heap.
+	 * 
+	 * @param kOrder
+	 *            Number of chars used for substrings for the markov to key off
+	 *            of (usually 6..8)
+	 * @param textLength
+	 *            Length of the desired generated text
+	 * @param textFileLocations
+	 *            Project resources or paths+filenames of the source texts, "-"
+	 *            reads from System.in
+	 * @param parallelism
+	 *            Number of threads used for training, 1 trains on the calling
+	 *            thread
+	 * @return
+	 */
+	public String generateString(int kOrder, int textLength, String[] textFileLocations, int parallelism) {
 		// Capture as instance vars.
 		this.kOrder = kOrder;
 		this.textLength = textLength;
-		this.textFileLocation = textFileLocation;
-
-		// Read the file
-		readTextStreamToSampleText();
-
-		// Instantiate the hashmp, and populate it
-		this.markovHashMap = new MarkovHashMap<String, Markov>(11, (float) 0.75);
-		constructMarkovHashMap();
-
-		// Ultimate the generated string.
-		StringBuilder generatedStringBuilder = new StringBuilder();
-
-		// Start with a random K key from the existing MarkovHashMap. This
-		// ensures a valid starting point which will have at least one
-		// subsequent character. Depending on the nature and length of the
-		// original text, this method will attempt to generate a text of length
-		// this.textLength
-		String subString = this.markovHashMap.getRandomKey();
-		generatedStringBuilder.append(subString);
-
-		Markov markov = this.markovHashMap.get(subString);
-		while (markov != null && generatedStringBuilder.length() < this.textLength) {
-			System.out.println(generatedStringBuilder);
-			// Exits if no subsequent Markov is found for the given subString
-			generatedStringBuilder.append(markov.getRandomSubsequentChar());
-			subString = generatedStringBuilder.substring(generatedStringBuilder.length() - this.kOrder,
-					generatedStringBuilder.length());
-			// Find the next Markov
-			markov = this.markovHashMap.get(subString);
+		this.textFileLocations = textFileLocations;
+
+		if (this.wordMode) {
+			return generateWords();
+		}
+
+		// Instantiate the model, and populate it from each text
+		MarkovModelBuilder markovModelBuilder = new MarkovModelBuilder(this.kOrder).setParallelism(parallelism)
+				.setCharset(this.charset).setMemoryMapped(this.memoryMapped)
+				.setMinOrder(this.minOrder != null ? this.minOrder : this.kOrder).setListener(this.listener);
+		for (String textFileLocation : this.textFileLocations) {
+			try {
+				markovModelBuilder.addTextLocation(textFileLocation);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
+		this.markovModel = markovModelBuilder.build();
 
-		return generatedStringBuilder.toString();
+		this.generatedText = generate();
+		return this.generatedText;
 	}
 
 	/**
-	 * Takes the text location and tries to read as a project resource, if not
-	 * found then tries to read as a system file. Method appends entire file to
-	 * class var (while turning carriage returns into whitespace)
+	 * Word mode counterpart of generateString(), kOrder is the number of words
+	 * per key and textLength the number of words.
 	 */
-	private void readTextStreamToSampleText() {
-		// Accumulates the sample text.
-		StringBuilder stringBuilder = new StringBuilder();
-
-		InputStream in = this.getClass().getResourceAsStream(this.textFileLocation);
-		// Need to infer whether the location is a project resource, or a path
-		// to an external file
-		if (in != null) {
-			// Found a project resource
-			int r;
+	private String generateWords() {
+		WordMarkovModelBuilder wordMarkovModelBuilder = new WordMarkovModelBuilder(this.kOrder)
+				.setCharset(this.charset).setMemoryMapped(this.memoryMapped);
+		for (String textFileLocation : this.textFileLocations) {
 			try {
-				while ((r = in.read()) != -1) {
-					char ch = (char) r;
-					if (ch != '\n' && ch != '\r') {
-						// Non-newline characters.
-						stringBuilder.append(ch);
-					} else {
-						// Substitute white space for newlines
-						stringBuilder.append(' ');
-					}
-				}
+				wordMarkovModelBuilder.addTextLocation(textFileLocation);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+		}
+		this.wordMarkovModel = wordMarkovModelBuilder.build();
+		this.markovModel = null;
+		if (this.verbose) {
+			System.out.println(String.format("  Trained %d words, %d keys (%s keys)",
+					this.wordMarkovModel.getDictionary().size(), this.wordMarkovModel.getKeyCount(),
+					this.wordMarkovModel.isPacked() ? "packed" : "String"));
+		}
+
+		WordMarkovGenerator wordMarkovGenerator = new WordMarkovGenerator(this.wordMarkovModel, this.verbose);
+		if (this.seed != null) {
+			this.generatedText = wordMarkovGenerator.generate(this.textLength, this.seed, null);
 		} else {
-			// textFileLocation does not describe a project resource, instead
-			// attempt to read as a File
-			FileReader fileReader = null;
-			try {
-				fileReader = new FileReader(this.textFileLocation);
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			}
-			int r;
-			try {
-				while ((r = fileReader.read()) != -1) {
-					char ch = (char) r;
-					if (ch != '\n' && ch != '\r') {
-						// Non-newline characters.
-						stringBuilder.append(ch);
-					} else {
-						// Substitute white space for newlines
-						stringBuilder.append(' ');
+			this.generatedText = wordMarkovGenerator.generate(this.textLength);
+		}
+		return this.generatedText;
+	}
+
+	/**
+	 * Trains a model from the texts out of core, within a memory budget, and
+	 * writes it straight to a model file, see ExternalMarkovTrainer. Generate
+	 * from it with generateStringFromModel().
+	 * 
+	 * @param kOrder
+	 *            Number of chars used for substrings for the markov to key off
+	 *            of (usually 6..8)
+	 * @param textFileLocations
+	 *            Project resources or paths+filenames of the source texts, "-"
+	 *            reads from System.in
+	 * @param memoryBudget
+	 *            Bytes of heap the training counts may take
+	 * @param modelFileLocation
+	 *            Path+filename of the model file
+	 * @throws IOException
+	 */
+	public void trainExternal(int kOrder, String[] textFileLocations, long memoryBudget, String modelFileLocation)
+			throws IOException {
+		ExternalMarkovTrainer externalTrainer = new ExternalMarkovTrainer(kOrder, memoryBudget);
+		try {
+			for (String textFileLocation : textFileLocations) {
+				Reader reader = MarkovModelBuilder.openTextLocation(textFileLocation, this.charset, this.memoryMapped);
+				try {
+					externalTrainer.train(reader);
+				} finally {
+					if (!STDIN_LOCATION.equals(textFileLocation)) {
+						reader.close();
 					}
 				}
-			} catch (IOException e) {
-				e.printStackTrace();
 			}
+			long startNanos = System.nanoTime();
+			externalTrainer.write(this.charset, modelFileLocation);
+			if (this.verbose) {
+				System.out.println(String.format("  Merged the sorted runs into '%s' in %d ms", modelFileLocation,
+						(System.nanoTime() - startNanos) / 1000000));
+			}
+		} finally {
+			externalTrainer.close();
 		}
+	}
 
-		this.originalTextFile = stringBuilder.toString();
+	/**
+	 * Writes the markov model trained by the last generateString() call to a
+	 * model file, see MappedMarkovModel for the layout.
+	 * 
+	 * @param modelFileLocation
+	 *            Path+filename of the model file
+	 * @throws IOException
+	 */
+	public void saveModel(String modelFileLocation) throws IOException {
+		if (this.wordMarkovModel != null && this.markovModel == null) {
+			throw new IllegalStateException("Only char mode models can be saved, not word mode ones");
+		}
+		if (!(this.markovModel instanceof HashMarkovModel)) {
+			throw new IllegalStateException("generateString() has not been invoked");
+		}
+		MappedMarkovModel.write((HashMarkovModel) this.markovModel, this.charset, modelFileLocation);
 	}
 
-	private void constructMarkovHashMap() {
-		// Iterate through the entire this.originalTextFile (wrt kOrder) and put
-		// the substring with subsequent char into the hash
+	/**
+	 * Generates the markov text (of length textLength) from a model file
+	 * written by saveModel(). The file is memory-mapped and generated from as
+	 * is, nothing is retrained.
+	 * 
+	 * @param textLength
+	 *            Length of the desired generated text
+	 * @param modelFileLocation
+	 *            Path+filename of the model file
+	 * @return
+	 * @throws IOException
+	 */
+	public String generateStringFromModel(int textLength, String modelFileLocation) throws IOException {
+		long startNanos = System.nanoTime();
+		this.markovModel = MappedMarkovModel.open(modelFileLocation);
+		if (this.verbose) {
+			System.out.println(String.format("  Loaded '%s': %d keys in %.2f ms", modelFileLocation,
+					this.markovModel.getKeyCount(), (System.nanoTime() - startNanos) / 1000000.0));
+		}
 
-		for (int n = 0; n < (this.originalTextFile.length() - this.kOrder); n++) {
+		this.kOrder = this.markovModel.getKOrder();
+		this.textLength = textLength;
+		this.generatedText = generate();
+		return this.generatedText;
+	}
 
-			String subString = this.originalTextFile.substring(n, n + this.kOrder);
-			Character subsequentChat = this.originalTextFile.charAt(n + this.kOrder);
+	private String generate() {
+		MarkovGenerator markovGenerator = createMarkovGenerator();
+		if (this.seed != null) {
+			return markovGenerator.generate(this.textLength, this.seed, null);
+		}
+		return markovGenerator.generate(this.textLength);
+	}
 
-			if (!this.markovHashMap.containsKey(subString)) {
-				// MarkovHashMap does not contain the subString, simple add
-				this.markovHashMap.put(subString, new Markov(subString, subsequentChat));
-			} else {
-				// MarkovHashMap already has this key, update the already
-				// existing Markov, then reattach to the MarkovHashMap
-				Markov markov = this.markovHashMap.get(subString);
-				markov.add(subsequentChat);
-				this.markovHashMap.put(subString, markov);
+	private MarkovGenerator createMarkovGenerator() {
+		return new MarkovGenerator(this.markovModel, null, this.listener,
+				this.fullLength ? new DeadEndAnalysis(this.markovModel) : null);
+	}
+
+	/**
+	 * Generates count more texts of the textLength of the last
+	 * generateString() or generateStringFromModel() call from the same model,
+	 * on several threads, and writes them to out one per line as they finish.
+	 * With a seed set, text i is the one generateString() gives for seed +
+	 * i.
+	 * 
+	 * @param count
+	 *            Number of texts
+	 * @param parallelism
+	 *            Number of threads generating
+	 * @param out
+	 *            Receives the texts, each followed by a newline
+	 * @throws IOException
+	 *             If out throws
+	 */
+	public void generateBatch(int count, int parallelism, final Appendable out) throws IOException {
+		if (this.markovModel == null) {
+			throw new IllegalStateException("generateString() has not been invoked");
+		}
+		BatchGenerator batchGenerator = new BatchGenerator(createMarkovGenerator(), parallelism);
+		BatchGenerator.ResultListener listener = new BatchGenerator.ResultListener() {
+			@Override
+			public void accept(int index, long seed, String text) throws IOException {
+				out.append(text).append('\n');
 			}
+		};
+		if (this.seed != null) {
+			batchGenerator.generate(count, this.textLength, this.seed, listener);
+		} else {
+			batchGenerator.generate(count, this.textLength, listener);
+		}
+		if (out instanceof Flushable) {
+			((Flushable) out).flush();
 		}
 	}
 
+	/**
+	 * Sets the seed of the generation, so the same model (the same texts,
+	 * kOrder and parallelism, or the same model file) always generates the
+	 * same text. Unseeded unless set.
+	 * 
+	 * @param seed
+	 *            Seed of the random draws
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the shortest keys the model backs off to where a kOrder key has no
+	 * subsequent char, see MarkovModelBuilder.setMinOrder(). No back off
+	 * unless set.
+	 * 
+	 * @param minOrder
+	 *            Number of chars of the shortest keys, 1..kOrder
+	 */
+	public void setMinOrder(int minOrder) {
+		this.minOrder = minOrder;
+	}
+
+	/**
+	 * Sets word mode: generateString() then keys off kOrder words rather than
+	 * chars and generates textLength words, see WordMarkovModelBuilder. Char
+	 * mode unless set, saveModel() and setMinOrder() only apply to char mode.
+	 * 
+	 * @param wordMode
+	 *            True for word mode
+	 */
+	public void setWordMode(boolean wordMode) {
+		this.wordMode = wordMode;
+	}
+
+	/**
+	 * Sets the listener of training and generation in char mode, e.g. a
+	 * MarkovMetrics, or a SampledLogger to print every text trained, key and
+	 * bifurcation. MarkovListener.NONE unless set, which costs nothing.
+	 * 
+	 * @param listener
+	 *            Receives the events, MarkovListener.NONE for none
+	 */
+	public void setListener(MarkovListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets whether the status of training and loading, and in word mode the
+	 * text as it grows, is printed to System.out. Quiet unless set, the char
+	 * mode trace is up to the listener.
+	 * 
+	 * @param verbose
+	 *            True to print the status
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Sets whether texts in char mode always have textLength chars, see
+	 * DeadEndAnalysis. Otherwise, the default, a text ends where its key was
+	 * never followed by anything in training.
+	 * 
+	 * @param fullLength
+	 *            True to steer around dead ends
+	 */
+	public void setFullLength(boolean fullLength) {
+		this.fullLength = fullLength;
+	}
+
+	/**
+	 * Sets the charset used to decode sample texts, UTF-8 unless set.
+	 * 
+	 * @param charset
+	 *            Charset of the sample texts
+	 */
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * Sets whether sample text files are memory-mapped (the default) or read
+	 * through an InputStreamReader. Project resources and System.in are
+	 * always streamed.
+	 * 
+	 * @param memoryMapped
+	 *            True to memory-map files
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	/**
+	 * Get the model trained (or loaded) by the last generateString() or
+	 * generateStringFromModel() call, for generating more texts without
+	 * retraining.
+	 * 
+	 * @return MarkovModel
+	 */
+	public MarkovModel getMarkovModel() {
+		return markovModel;
+	}
+
+	/**
+	 * Get the word model trained by the last generateString() call in word
+	 * mode.
+	 * 
+	 * @return WordMarkovModel, or null
+	 */
+	public WordMarkovModel getWordMarkovModel() {
+		return wordMarkovModel;
+	}
+
 	/**
 	 * Get the generated text after generateString() was last successfully
 	 * invoked.
@@ -0,0 +1,72 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.Arrays;
+
+/**
+ * Interns tokens (words) to dense int IDs, 1..size, so a text becomes an int[]
+ * and k-grams of tokens become tuples of ints. ID 0 is never assigned, which
+ * leaves it free as an empty marker when IDs are packed into longs.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class TokenDictionary {
+
+	private final MarkovProbingHashMap<String, Integer> ids = new MarkovProbingHashMap<String, Integer>(1024,
+			(float) 0.5);
+	// ID -> token, index 0 unused
+	private String[] tokens = new String[1024];
+	private int size = 0;
+
+	/**
+	 * Returns the ID of the token, assigning the next one if it is new.
+	 *
+	 * @param token
+	 *            Token to intern
+	 * @return int ID, 1..size
+	 */
+	public int intern(String token) {
+		Integer id = ids.get(token);
+		if (id == null) {
+			id = ++size;
+			if (size == tokens.length) {
+				tokens = Arrays.copyOf(tokens, tokens.length * 2);
+			}
+			tokens[size] = token;
+			ids.put(token, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the ID of an already interned token without interning it.
+	 *
+	 * @param token
+	 *            Token to look up
+	 * @return int ID, or 0 if the token was never interned
+	 */
+	public int idOf(String token) {
+		Integer id = ids.get(token);
+		return id == null ? 0 : id;
+	}
+
+	/**
+	 * Token of an ID
+	 *
+	 * @param id
+	 *            ID returned by intern()
+	 * @return String token
+	 */
+	public String getToken(int id) {
+		return tokens[id];
+	}
+
+	/**
+	 * Number of distinct tokens interned so far
+	 *
+	 * @return int Size
+	 */
+	public int size() {
+		return size;
+	}
+}
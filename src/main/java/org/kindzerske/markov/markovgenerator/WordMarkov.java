@@ -0,0 +1,143 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Subsequent token counts of a key in word mode, the int counterpart of
+ * Markov. Successor IDs and counts are kept in two parallel int arrays sorted
+ * by ID, which start with room for a single successor (the common case) and
+ * double as needed. compile() trims the arrays and turns the counts into
+ * cumulative counts in place, so a draw is a binary search and the Markov is
+ * read-only afterwards.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+class WordMarkov {
+
+	private int[] successors;
+	private int[] counts;
+	private int size;
+	private int count;
+	private boolean compiled = false;
+
+	WordMarkov(int successor) {
+		this.successors = new int[] { successor };
+		this.counts = new int[] { 1 };
+		this.size = 1;
+		this.count = 1;
+	}
+
+	/**
+	 * Counts one more occurrence of the successor.
+	 *
+	 * @param successor
+	 *            Token ID following the key
+	 */
+	void add(int successor) {
+		if (compiled) {
+			throw new IllegalStateException("compile() has already been invoked");
+		}
+		count++;
+		int index = Arrays.binarySearch(successors, 0, size, successor);
+		if (index >= 0) {
+			counts[index]++;
+			return;
+		}
+
+		index = -index - 1;
+		if (size == successors.length) {
+			successors = Arrays.copyOf(successors, size * 2);
+			counts = Arrays.copyOf(counts, size * 2);
+		}
+		System.arraycopy(successors, index, successors, index + 1, size - index);
+		System.arraycopy(counts, index, counts, index + 1, size - index);
+		successors[index] = successor;
+		counts[index] = 1;
+		size++;
+	}
+
+	/**
+	 * Trims the arrays and makes the counts cumulative.
+	 */
+	void compile() {
+		if (compiled) {
+			return;
+		}
+		successors = Arrays.copyOf(successors, size);
+		counts = Arrays.copyOf(counts, size);
+		for (int n = 1; n < size; n++) {
+			counts[n] += counts[n - 1];
+		}
+		compiled = true;
+	}
+
+	/**
+	 * Using the counts, sample a successor. Only valid once compiled.
+	 *
+	 * @param rand
+	 *            Source of randomness
+	 * @return int successor ID
+	 */
+	int getRandomSuccessor(Random rand) {
+		int target = rand.nextInt(count);
+		// Find the first cumulative count strictly greater than the target
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (counts[mid] > target) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return successors[low];
+	}
+
+	/**
+	 * Number of occurrences of the successor after the key
+	 *
+	 * @param successor
+	 *            Token ID
+	 * @return int count, 0 if never seen
+	 */
+	int getFrequencyCount(int successor) {
+		int index = Arrays.binarySearch(successors, 0, size, successor);
+		if (index < 0) {
+			return 0;
+		}
+		return compiled && index > 0 ? counts[index] - counts[index - 1] : counts[index];
+	}
+
+	int getCount() {
+		return count;
+	}
+
+	int getSuccessorCount() {
+		return size;
+	}
+
+	int getSuccessor(int index) {
+		return successors[index];
+	}
+
+	/**
+	 * Formatted representation of the successors with their counts
+	 *
+	 * @param dictionary
+	 *            Dictionary the IDs were interned in
+	 * @return String such as "{the=2, a=1}"
+	 */
+	String toString(TokenDictionary dictionary) {
+		StringBuilder stringBuilder = new StringBuilder("{");
+		for (int n = 0; n < size; n++) {
+			if (n > 0) {
+				stringBuilder.append(", ");
+			}
+			stringBuilder.append(dictionary.getToken(successors[n])).append('=').append(getFrequencyCount(successors[n]));
+		}
+		return stringBuilder.append('}').toString();
+	}
+}
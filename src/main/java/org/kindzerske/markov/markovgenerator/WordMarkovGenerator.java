@@ -0,0 +1,152 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates text from a WordMarkovModel, one token per lookup, joined by
+ * single spaces. Thread safe in the same way as MarkovGenerator.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class WordMarkovGenerator {
+
+	private final WordMarkovModel wordMarkovModel;
+	private final boolean verbose;
+
+	/**
+	 * Constructor
+	 *
+	 * @param wordMarkovModel
+	 *            Trained model
+	 */
+	public WordMarkovGenerator(WordMarkovModel wordMarkovModel) {
+		this(wordMarkovModel, false);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param wordMarkovModel
+	 *            Trained model
+	 * @param verbose
+	 *            Print the text as it grows and any bifurcations to System.out
+	 */
+	public WordMarkovGenerator(WordMarkovModel wordMarkovModel, boolean verbose) {
+		this.wordMarkovModel = wordMarkovModel;
+		this.verbose = verbose;
+	}
+
+	public WordMarkovModel getWordMarkovModel() {
+		return wordMarkovModel;
+	}
+
+	/**
+	 * Generates a text starting from a random key.
+	 *
+	 * @param tokenCount
+	 *            Number of tokens (words) of the desired generated text
+	 * @return String of at most tokenCount tokens, fewer if a key without
+	 *         successors is reached
+	 */
+	public String generate(int tokenCount) {
+		return generate(tokenCount, ThreadLocalRandom.current(), null);
+	}
+
+	/**
+	 * Generates a reproducible text, the same model, seed and start text always
+	 * give the same text.
+	 *
+	 * @param tokenCount
+	 *            Number of tokens (words) of the desired generated text
+	 * @param seed
+	 *            Seed of the random draws
+	 * @param startText
+	 *            Text to continue from (its last kOrder tokens are the first
+	 *            key), or null to start from a random key
+	 * @return String of at most tokenCount tokens, fewer if a key without
+	 *         successors is reached
+	 */
+	public String generate(int tokenCount, long seed, String startText) {
+		return generate(tokenCount, new SplitMixRandom(seed), startText);
+	}
+
+	/**
+	 * Generates a text drawing from a caller supplied source of randomness,
+	 * which must not be shared with another thread while this runs.
+	 *
+	 * @param tokenCount
+	 *            Number of tokens (words) of the desired generated text
+	 * @param rand
+	 *            Source of randomness
+	 * @param startText
+	 *            Text to continue from, or null to start from a random key
+	 * @return String of at most tokenCount tokens
+	 */
+	public String generate(int tokenCount, Random rand, String startText) {
+		int kOrder = wordMarkovModel.getKOrder();
+		TokenDictionary dictionary = wordMarkovModel.getDictionary();
+		int[] tokens = new int[Math.max(16, Math.min(tokenCount, 1 << 16))];
+		int length;
+
+		long state;
+		if (startText == null) {
+			state = wordMarkovModel.getRandomState(rand);
+			if (state < 0) {
+				// Empty model, nothing to generate
+				return "";
+			}
+			int[] key = wordMarkovModel.getKey(state);
+			tokens = ensureCapacity(tokens, key.length);
+			System.arraycopy(key, 0, tokens, 0, key.length);
+			length = key.length;
+		} else {
+			String[] startTokens = startText.trim().isEmpty() ? new String[0] : startText.trim().split("\\s+");
+			tokens = ensureCapacity(tokens, startTokens.length);
+			for (length = 0; length < startTokens.length; length++) {
+				tokens[length] = dictionary.idOf(startTokens[length]);
+			}
+			state = wordMarkovModel.findState(tokens, length);
+			if (state < 0) {
+				return join(tokens, length, startTokens);
+			}
+		}
+
+		while (state >= 0 && length < tokenCount) {
+			if (verbose && wordMarkovModel.getSuccessorCount(state) > 1) {
+				// Print out any opportunities for the generated text to
+				// bifurcate, at the key rather than the whole text so far
+				int[] key = wordMarkovModel.getKey(state);
+				System.out.println("  Bifurcation: '" + join(key, key.length, null) + "'; "
+						+ wordMarkovModel.getSuccessorsString(state));
+			}
+			tokens = ensureCapacity(tokens, length + 1);
+			tokens[length++] = wordMarkovModel.getRandomSuccessor(state, rand);
+			state = wordMarkovModel.nextState(state, tokens, length);
+		}
+		return join(tokens, length, null);
+	}
+
+	private static int[] ensureCapacity(int[] tokens, int capacity) {
+		return capacity <= tokens.length ? tokens : Arrays.copyOf(tokens, Math.max(capacity, tokens.length * 2));
+	}
+
+	/**
+	 * Joins the tokens by single spaces, the original start tokens are used
+	 * where given since unknown ones have ID 0.
+	 */
+	private String join(int[] tokens, int length, String[] startTokens) {
+		TokenDictionary dictionary = wordMarkovModel.getDictionary();
+		StringBuilder stringBuilder = new StringBuilder(length * 6);
+		for (int n = 0; n < length; n++) {
+			if (n > 0) {
+				stringBuilder.append(' ');
+			}
+			stringBuilder.append(startTokens != null && n < startTokens.length ? startTokens[n]
+					: dictionary.getToken(tokens[n]));
+		}
+		return stringBuilder.toString();
+	}
+}
@@ -0,0 +1,230 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.Random;
+
+/**
+ * Word mode counterpart of HashMarkovModel: keys are kOrder consecutive
+ * tokens (words) and the successors are tokens. Tokens are interned to int
+ * IDs by a TokenDictionary, a key of kOrder IDs is packed into a long when
+ * the IDs fit 64 / kOrder bits each, otherwise it is kept as a String of two
+ * chars per ID. A state is the slot of the key. Instances are created by
+ * WordMarkovModelBuilder and are read-only, so one model can serve any number
+ * of WordMarkovGenerator calls concurrently.
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class WordMarkovModel {
+
+	private final int kOrder;
+	private final TokenDictionary dictionary;
+	// bitsPerToken > 0 and packedMarkovHashMap, or markovHashMap
+	private final int bitsPerToken;
+	private final long keyMask;
+	private final MarkovLongHashMap<WordMarkov> packedMarkovHashMap;
+	private final MarkovProbingHashMap<String, WordMarkov> markovHashMap;
+
+	WordMarkovModel(int kOrder, TokenDictionary dictionary, MarkovLongHashMap<WordMarkov> packedMarkovHashMap,
+			MarkovProbingHashMap<String, WordMarkov> markovHashMap) {
+		this.kOrder = kOrder;
+		this.dictionary = dictionary;
+		this.packedMarkovHashMap = packedMarkovHashMap;
+		this.markovHashMap = markovHashMap;
+		this.bitsPerToken = packedMarkovHashMap != null ? getBitsPerToken(kOrder) : 0;
+		this.keyMask = (kOrder * bitsPerToken == 64) ? -1L : (1L << (kOrder * bitsPerToken)) - 1;
+
+		// Compile every WordMarkov up front, afterwards they are only read
+		int tableSize = packedMarkovHashMap != null ? packedMarkovHashMap.getHashMapTableSize()
+				: markovHashMap.getHashMapTableSize();
+		for (int slot = 0; slot < tableSize; slot++) {
+			WordMarkov wordMarkov = getWordMarkov(slot);
+			if (wordMarkov != null) {
+				wordMarkov.compile();
+			}
+		}
+	}
+
+	/**
+	 * Width of a packed token ID for the kOrder
+	 */
+	static int getBitsPerToken(int kOrder) {
+		return Math.min(31, 64 / kOrder);
+	}
+
+	/**
+	 * Packs the kOrder IDs preceding end.
+	 */
+	static long pack(int[] tokens, int end, int kOrder, int bitsPerToken) {
+		long packedKey = 0;
+		for (int n = end - kOrder; n < end; n++) {
+			packedKey = (packedKey << bitsPerToken) | tokens[n];
+		}
+		return packedKey;
+	}
+
+	/**
+	 * String key of the kOrder IDs preceding end, two chars per ID.
+	 */
+	static String toStringKey(int[] tokens, int end, int kOrder) {
+		char[] chars = new char[kOrder * 2];
+		for (int n = 0; n < kOrder; n++) {
+			int id = tokens[end - kOrder + n];
+			chars[2 * n] = (char) (id >>> 16);
+			chars[2 * n + 1] = (char) id;
+		}
+		return new String(chars);
+	}
+
+	WordMarkov getWordMarkov(long state) {
+		return packedMarkovHashMap != null ? packedMarkovHashMap.valueAt((int) state)
+				: markovHashMap.valueAt((int) state);
+	}
+
+	/**
+	 * Number of tokens per key
+	 *
+	 * @return int kOrder
+	 */
+	public int getKOrder() {
+		return kOrder;
+	}
+
+	/**
+	 * Number of distinct keys
+	 *
+	 * @return int Key count
+	 */
+	public int getKeyCount() {
+		return packedMarkovHashMap != null ? packedMarkovHashMap.getHashMapTableContentCount()
+				: markovHashMap.getHashMapTableContentCount();
+	}
+
+	public TokenDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * True if the keys are packed into longs
+	 *
+	 * @return boolean Packed
+	 */
+	public boolean isPacked() {
+		return packedMarkovHashMap != null;
+	}
+
+	/**
+	 * Finds the state of the kOrder token IDs preceding end.
+	 *
+	 * @param tokens
+	 *            Token IDs, 0 for a token which is not in the dictionary
+	 * @param end
+	 *            Index after the last ID of the key
+	 * @return long state, or -1 if the key was never seen or there are too
+	 *         few IDs before end
+	 */
+	public long findState(int[] tokens, int end) {
+		if (end < kOrder) {
+			return -1;
+		}
+		for (int n = end - kOrder; n < end; n++) {
+			if (tokens[n] == 0) {
+				return -1;
+			}
+		}
+		return packedMarkovHashMap != null ? packedMarkovHashMap.indexOf(pack(tokens, end, kOrder, bitsPerToken))
+				: markovHashMap.indexOf(toStringKey(tokens, end, kOrder));
+	}
+
+	/**
+	 * Finds the state following a state once tokens[end - 1] has been
+	 * appended, rolling the packed key forward.
+	 *
+	 * @param state
+	 *            State of the kOrder IDs preceding end - 1
+	 * @param tokens
+	 *            Token IDs
+	 * @param end
+	 *            Index after the appended ID
+	 * @return long state, or -1 if the key was never seen
+	 */
+	public long nextState(long state, int[] tokens, int end) {
+		if (packedMarkovHashMap == null) {
+			return findState(tokens, end);
+		}
+		long packedKey = ((packedMarkovHashMap.keyAt((int) state) << bitsPerToken) | tokens[end - 1]) & keyMask;
+		return packedMarkovHashMap.indexOf(packedKey);
+	}
+
+	/**
+	 * Picks the state of a random key, uniform over the keys.
+	 *
+	 * @param rand
+	 *            Source of randomness
+	 * @return long state, or -1 if the model is empty
+	 */
+	public long getRandomState(Random rand) {
+		return packedMarkovHashMap != null ? packedMarkovHashMap.getRandomSlot(rand)
+				: markovHashMap.getRandomSlot(rand);
+	}
+
+	/**
+	 * Token IDs of the key of a state
+	 *
+	 * @param state
+	 *            State returned by this model
+	 * @return int[] of kOrder IDs
+	 */
+	public int[] getKey(long state) {
+		int[] key = new int[kOrder];
+		if (packedMarkovHashMap != null) {
+			long packedKey = packedMarkovHashMap.keyAt((int) state);
+			long idMask = (1L << bitsPerToken) - 1;
+			for (int n = kOrder - 1; n >= 0; n--) {
+				key[n] = (int) (packedKey & idMask);
+				packedKey >>>= bitsPerToken;
+			}
+		} else {
+			String stringKey = markovHashMap.keyAt((int) state);
+			for (int n = 0; n < kOrder; n++) {
+				key[n] = (stringKey.charAt(2 * n) << 16) | stringKey.charAt(2 * n + 1);
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Using the counts of the state, sample a successor.
+	 *
+	 * @param state
+	 *            State returned by this model
+	 * @param rand
+	 *            Source of randomness
+	 * @return int successor token ID
+	 */
+	public int getRandomSuccessor(long state, Random rand) {
+		return getWordMarkov(state).getRandomSuccessor(rand);
+	}
+
+	/**
+	 * Number of distinct successors of a state, more than one is a
+	 * bifurcation
+	 *
+	 * @param state
+	 *            State returned by this model
+	 * @return int Number of distinct successors
+	 */
+	public int getSuccessorCount(long state) {
+		return getWordMarkov(state).getSuccessorCount();
+	}
+
+	/**
+	 * String formatted representation of the successors of a state
+	 *
+	 * @param state
+	 *            State returned by this model
+	 * @return String such as "{the=2, a=1}"
+	 */
+	public String getSuccessorsString(long state) {
+		return getWordMarkov(state).toString(dictionary);
+	}
+}
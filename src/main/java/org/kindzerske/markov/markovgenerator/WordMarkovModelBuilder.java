@@ -0,0 +1,207 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Trains a WordMarkovModel from one or more sample texts. A text is split into
+ * tokens at whitespace (punctuation stays attached to its word) and each
+ * token is interned once, so the text is held as an int[] of token IDs until
+ * build() counts the k-grams. Every call to addText() is a separate text,
+ * k-grams never span two texts.
+ *
+ * <pre>
+ * WordMarkovModel wordMarkovModel = new WordMarkovModelBuilder(2).addTextLocation("speech.txt").build();
+ * String text = new WordMarkovGenerator(wordMarkovModel).generate(100);
+ * </pre>
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class WordMarkovModelBuilder {
+
+	private final int kOrder;
+	private Charset charset = StandardCharsets.UTF_8;
+	private boolean memoryMapped = true;
+
+	private TokenDictionary dictionary = new TokenDictionary();
+	private List<int[]> texts = new ArrayList<int[]>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param kOrder
+	 *            Number of tokens used for the keys (usually 1..3)
+	 */
+	public WordMarkovModelBuilder(int kOrder) {
+		if (kOrder < 1) {
+			throw new IllegalArgumentException("kOrder must be at least 1: " + kOrder);
+		}
+		this.kOrder = kOrder;
+	}
+
+	/**
+	 * Sets the charset used to decode sample texts, UTF-8 unless set.
+	 *
+	 * @param charset
+	 *            Charset of the sample texts
+	 * @return this builder
+	 */
+	public WordMarkovModelBuilder setCharset(Charset charset) {
+		this.charset = charset;
+		return this;
+	}
+
+	/**
+	 * Sets whether sample text files are memory-mapped (the default) or read
+	 * through an InputStreamReader.
+	 *
+	 * @param memoryMapped
+	 *            True to memory-map files
+	 * @return this builder
+	 */
+	public WordMarkovModelBuilder setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+		return this;
+	}
+
+	public int getKOrder() {
+		return kOrder;
+	}
+
+	/**
+	 * Tokenizes a text held in memory.
+	 *
+	 * @param text
+	 *            Sample text
+	 * @return this builder
+	 */
+	public WordMarkovModelBuilder addText(String text) {
+		try {
+			return addText(new StringReader(text));
+		} catch (IOException e) {
+			// Not thrown by a StringReader
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Streams a sample text into the builder. The reader is not closed.
+	 *
+	 * @param reader
+	 *            Sample text
+	 * @return this builder
+	 * @throws IOException
+	 */
+	public WordMarkovModelBuilder addText(Reader reader) throws IOException {
+		if (texts == null) {
+			throw new IllegalStateException("build() has already been invoked");
+		}
+		int[] tokens = new int[1024];
+		int tokenCount = 0;
+		StringBuilder token = new StringBuilder();
+		char[] buffer = new char[1 << 16];
+		int read;
+		while ((read = reader.read(buffer)) != -1) {
+			for (int n = 0; n < read; n++) {
+				char c = buffer[n];
+				if (!Character.isWhitespace(c)) {
+					token.append(c);
+				} else if (token.length() > 0) {
+					// A token carried over from the previous buffer is
+					// completed here as well
+					if (tokenCount == tokens.length) {
+						tokens = Arrays.copyOf(tokens, tokenCount * 2);
+					}
+					tokens[tokenCount++] = dictionary.intern(token.toString());
+					token.setLength(0);
+				}
+			}
+		}
+		if (token.length() > 0) {
+			if (tokenCount == tokens.length) {
+				tokens = Arrays.copyOf(tokens, tokenCount + 1);
+			}
+			tokens[tokenCount++] = dictionary.intern(token.toString());
+		}
+		texts.add(Arrays.copyOf(tokens, tokenCount));
+		return this;
+	}
+
+	/**
+	 * Takes the text location and tries to read as a project resource, if not
+	 * found then tries to read as a system file ("-" reads System.in).
+	 *
+	 * @param textFileLocation
+	 *            Project resource or path+filename of the sample text
+	 * @return this builder
+	 * @throws IOException
+	 */
+	public WordMarkovModelBuilder addTextLocation(String textFileLocation) throws IOException {
+		Reader reader = MarkovModelBuilder.openTextLocation(textFileLocation, charset, memoryMapped);
+		try {
+			return addText(reader);
+		} finally {
+			if (!MarkovModelBuilder.STDIN_LOCATION.equals(textFileLocation)) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Counts the k-grams of every text into an immutable model. The keys are
+	 * packed into longs if the dictionary fits 64 / kOrder bits per ID. The
+	 * builder can not be used afterwards.
+	 *
+	 * @return WordMarkovModel
+	 */
+	public WordMarkovModel build() {
+		if (texts == null) {
+			throw new IllegalStateException("build() has already been invoked");
+		}
+		int bitsPerToken = WordMarkovModel.getBitsPerToken(kOrder);
+		boolean packed = dictionary.size() < (1L << bitsPerToken);
+
+		MarkovLongHashMap<WordMarkov> packedMarkovHashMap = null;
+		MarkovProbingHashMap<String, WordMarkov> markovHashMap = null;
+		if (packed) {
+			packedMarkovHashMap = new MarkovLongHashMap<WordMarkov>(16, (float) 0.75);
+		} else {
+			markovHashMap = new MarkovProbingHashMap<String, WordMarkov>(16, (float) 0.75);
+		}
+
+		for (int[] tokens : texts) {
+			for (int end = kOrder; end < tokens.length; end++) {
+				int successor = tokens[end];
+				WordMarkov wordMarkov;
+				if (packed) {
+					long packedKey = WordMarkovModel.pack(tokens, end, kOrder, bitsPerToken);
+					wordMarkov = packedMarkovHashMap.get(packedKey);
+					if (wordMarkov == null) {
+						packedMarkovHashMap.put(packedKey, new WordMarkov(successor));
+						continue;
+					}
+				} else {
+					String stringKey = WordMarkovModel.toStringKey(tokens, end, kOrder);
+					wordMarkov = markovHashMap.get(stringKey);
+					if (wordMarkov == null) {
+						markovHashMap.put(stringKey, new WordMarkov(successor));
+						continue;
+					}
+				}
+				wordMarkov.add(successor);
+			}
+		}
+
+		WordMarkovModel wordMarkovModel = new WordMarkovModel(kOrder, dictionary, packedMarkovHashMap,
+				markovHashMap);
+		texts = null;
+		return wordMarkovModel;
+	}
+}
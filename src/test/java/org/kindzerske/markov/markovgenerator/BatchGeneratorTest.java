@@ -0,0 +1,94 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the BatchGenerator class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class BatchGeneratorTest extends TestCase {
+
+	private String sampleTextLocation = "/" + Utilities.SAMPLE_TEXTS_DIR + "PaulGraham_September2013.txt";
+
+	public void testSameTextsAsSingleCalls() throws IOException {
+		MarkovGenerator markovGenerator = new MarkovGenerator(
+				new MarkovModelBuilder(7).addTextLocation(sampleTextLocation).build());
+		for (int parallelism : new int[] { 1, 4 }) {
+			List<String> texts = new BatchGenerator(markovGenerator, parallelism).generate(500, 120, 77L);
+			assertTrue(texts.size() == 500);
+			for (int index = 0; index < texts.size(); index++) {
+				assertTrue(texts.get(index).equals(markovGenerator.generate(120, 77L + index, null)));
+			}
+		}
+	}
+
+	public void testStreamsEveryItemOnce() throws IOException {
+		final MarkovGenerator markovGenerator = new MarkovGenerator(
+				new MarkovModelBuilder(5).addTextLocation(sampleTextLocation).build());
+		final Thread caller = Thread.currentThread();
+		final boolean[] seen = new boolean[1000];
+		long baseSeed = new BatchGenerator(markovGenerator, 3).generate(1000, 50,
+				new BatchGenerator.ResultListener() {
+					@Override
+					public void accept(int index, long seed, String text) {
+						assertTrue(Thread.currentThread() == caller);
+						assertFalse(seen[index]);
+						seen[index] = true;
+						assertTrue(text.equals(markovGenerator.generate(50, seed, null)));
+					}
+				});
+		for (int index = 0; index < seen.length; index++) {
+			assertTrue(seen[index]);
+		}
+		assertTrue(new BatchGenerator(markovGenerator, 3).generate(3, 50, baseSeed).get(2)
+				.equals(markovGenerator.generate(50, baseSeed + 2, null)));
+	}
+
+	public void testListenerFailureEndsBatch() throws IOException {
+		MarkovGenerator markovGenerator = new MarkovGenerator(
+				new MarkovModelBuilder(5).addTextLocation(sampleTextLocation).build());
+		final int[] received = new int[1];
+		try {
+			new BatchGenerator(markovGenerator, 2).generate(100000, 50, 1L, new BatchGenerator.ResultListener() {
+				@Override
+				public void accept(int index, long seed, String text) throws IOException {
+					if (++received[0] == 10) {
+						throw new IOException("closed");
+					}
+				}
+			});
+			fail();
+		} catch (IOException e) {
+			assertTrue(received[0] == 10);
+		}
+
+		// An Error of a worker reaches the caller rather than stalling it
+		MarkovGenerator failingGenerator = new MarkovGenerator(markovGenerator.getMarkovModel()) {
+			@Override
+			public String generate(int textLength, long seed, String startKey) {
+				if (seed == 42L) {
+					throw new StackOverflowError("item 41");
+				}
+				return super.generate(textLength, seed, startKey);
+			}
+		};
+		try {
+			new BatchGenerator(failingGenerator, 2).generate(100, 50, 1L);
+			fail();
+		} catch (StackOverflowError e) {
+			assertTrue(e.getMessage().equals("item 41"));
+		}
+
+		try {
+			new BatchGenerator(markovGenerator, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
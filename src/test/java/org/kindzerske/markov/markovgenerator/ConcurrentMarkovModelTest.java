@@ -0,0 +1,188 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the ConcurrentMarkovModel class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class ConcurrentMarkovModelTest extends TestCase {
+
+	private String sampleText = "The cat sat on the mat, the cat ate the rat; then the big dog (Rex) woke up!";
+
+	private void assertSameCounts(MarkovModel expectedModel, ConcurrentMarkovModel concurrentModel, String text) {
+		assertTrue(concurrentModel.getKeyCount() == expectedModel.getKeyCount());
+		for (int end = 0; end <= text.length(); end++) {
+			long expectedState = expectedModel.findState(text, end);
+			long state = concurrentModel.findState(text, end);
+			assertTrue((state < 0) == (expectedState < 0));
+			if (state >= 0) {
+				assertTrue(concurrentModel.getKey(state).equals(expectedModel.getKey(expectedState)));
+				assertTrue(concurrentModel.getSubsequentCharsString(state)
+						.equals(expectedModel.getSubsequentCharsString(expectedState)));
+				assertTrue(concurrentModel.getCount(state) == expectedModel.getCount(expectedState));
+			}
+		}
+	}
+
+	public void testSameCountsAsBuilder() {
+		ConcurrentMarkovModel concurrentModel = new ConcurrentMarkovModel(3);
+		assertTrue(concurrentModel.getRandomState(ThreadLocalRandom.current()) == -1);
+		assertTrue(new MarkovGenerator(concurrentModel).generate(100).isEmpty());
+
+		concurrentModel.train(sampleText);
+		assertSameCounts(new MarkovModelBuilder(3).addText(sampleText).build(), concurrentModel, sampleText);
+		assertTrue(concurrentModel.findState("xyz", 3) == -1);
+		assertTrue(concurrentModel.getSubsequentCharsString(concurrentModel.findState("he ", 3)).equals("{b=1, c=2, m=1, r=1}"));
+
+		// Text added later is picked up by the same model
+		concurrentModel.train("the cat ran");
+		assertTrue(concurrentModel.getSubsequentCharsString(concurrentModel.findState("he ", 3))
+				.equals("{b=1, c=3, m=1, r=1}"));
+		String text = new MarkovGenerator(concurrentModel).generate(200, 3L, "the ");
+		assertTrue(text.startsWith("the "));
+	}
+
+	public void testTrainWhileGenerating() throws InterruptedException {
+		final List<String> texts = new ArrayList<String>();
+		HashMarkovModel seedModel = new MarkovModelBuilder(5).addText(sampleText).build();
+		MarkovGenerator seedGenerator = new MarkovGenerator(seedModel);
+		for (int n = 0; n < 40; n++) {
+			texts.add(seedGenerator.generate(5000, n, null) + " " + n);
+		}
+
+		final ConcurrentMarkovModel concurrentModel = new ConcurrentMarkovModel(4);
+		concurrentModel.train(sampleText);
+		final AtomicBoolean training = new AtomicBoolean(true);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int w = 0; w < 2; w++) {
+			final int writer = w;
+			threads.add(new Thread() {
+				public void run() {
+					for (int n = writer; n < texts.size(); n += 2) {
+						concurrentModel.train(texts.get(n));
+					}
+				}
+			});
+		}
+		for (int r = 0; r < 2; r++) {
+			threads.add(new Thread() {
+				public void run() {
+					MarkovGenerator markovGenerator = new MarkovGenerator(concurrentModel);
+					try {
+						while (training.get()) {
+							String text = markovGenerator.generate(300);
+							assertTrue(text.length() <= 300);
+						}
+					} catch (Throwable t) {
+						failure.set(t);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		threads.get(0).join();
+		threads.get(1).join();
+		training.set(false);
+		threads.get(2).join();
+		threads.get(3).join();
+		assertNull(failure.get());
+
+		// Nothing was lost or counted twice
+		MarkovModelBuilder markovModelBuilder = new MarkovModelBuilder(4).addText(sampleText);
+		for (String text : texts) {
+			markovModelBuilder.addText(text);
+		}
+		HashMarkovModel expectedModel = markovModelBuilder.build();
+		for (String text : texts) {
+			assertSameCounts(expectedModel, concurrentModel, text);
+		}
+	}
+
+	/**
+	 * Random which always draws the last of the bound, so a draw from "x" with
+	 * counts {a, b} must be 'b' whatever the counts are
+	 */
+	private static class LastRandom extends Random {
+		private static final long serialVersionUID = 1L;
+
+		public int nextInt(int bound) {
+			return bound - 1;
+		}
+	}
+
+	public void testDrawSeesOneDistribution() {
+		final ConcurrentMarkovModel concurrentModel = new ConcurrentMarkovModel(1);
+		concurrentModel.train("xa");
+		concurrentModel.train("xb");
+		final long state = concurrentModel.findState("x", 1);
+
+		// 'a' grows between reading the total and scanning the counts
+		Random racingRandom = new LastRandom() {
+			private static final long serialVersionUID = 1L;
+
+			public int nextInt(int bound) {
+				concurrentModel.train("xa");
+				return super.nextInt(bound);
+			}
+		};
+		assertTrue(concurrentModel.getRandomSubsequentChar(state, racingRandom) == 'b');
+		assertTrue(concurrentModel.getSubsequentCharsString(state).equals("{a=2, b=1}"));
+	}
+
+	public void testDrawWhileCountsGrow() throws InterruptedException {
+		final ConcurrentMarkovModel concurrentModel = new ConcurrentMarkovModel(1);
+		concurrentModel.train("xa");
+		concurrentModel.train("xb");
+		final long state = concurrentModel.findState("x", 1);
+		final AtomicBoolean training = new AtomicBoolean(true);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int w = 0; w < 2; w++) {
+			final String text = w == 0 ? "xa" : "xb";
+			threads.add(new Thread() {
+				public void run() {
+					for (int n = 0; n < 200000; n++) {
+						concurrentModel.train(text);
+					}
+				}
+			});
+		}
+		for (int r = 0; r < 2; r++) {
+			threads.add(new Thread() {
+				public void run() {
+					Random lastRandom = new LastRandom();
+					try {
+						while (training.get()) {
+							assertTrue(concurrentModel.getRandomSubsequentChar(state, lastRandom) == 'b');
+						}
+					} catch (Throwable t) {
+						failure.set(t);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		threads.get(0).join();
+		threads.get(1).join();
+		training.set(false);
+		threads.get(2).join();
+		threads.get(3).join();
+		assertNull(failure.get());
+		assertTrue(concurrentModel.getSubsequentCharsString(state).equals("{a=200001, b=200001}"));
+	}
+}
@@ -0,0 +1,111 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the DeadEndAnalysis class and generation around dead ends
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class DeadEndAnalysisTest extends TestCase {
+
+	private String sampleTextLocation = "/" + Utilities.SAMPLE_TEXTS_DIR + "PaulGraham_September2013_veryshort.txt";
+
+	public void testDoomedChain() {
+		// Only one path through the text, which ends at "fgh"
+		MarkovModel markovModel = new MarkovModelBuilder(3).addText("abcdefgh").build();
+		DeadEndAnalysis deadEndAnalysis = new DeadEndAnalysis(markovModel);
+		assertTrue(deadEndAnalysis.getDeadEndCount() == 1);
+		assertTrue(deadEndAnalysis.getDoomedStateCount() == markovModel.getKeyCount());
+		assertTrue(deadEndAnalysis.getRiskyStateCount() == 0);
+		assertTrue(deadEndAnalysis.isDoomed(markovModel.findState("abc", 3)));
+
+		// Restarts until the text is long enough
+		MarkovGenerator markovGenerator = new MarkovGenerator(markovModel, null, MarkovListener.NONE,
+				deadEndAnalysis);
+		String generatedText = markovGenerator.generate(20, 1L, "abc");
+		assertTrue(generatedText.length() == 20);
+		assertTrue(generatedText.startsWith("abcdefgh"));
+		assertTrue(markovGenerator.generate(100, 2L, null).length() == 100);
+	}
+
+	public void testRiskyStateAvoidsDeadEnd() {
+		// "ab" is followed by 'y' once, and "by" by nothing
+		MarkovModel markovModel = new MarkovModelBuilder(2).addText("abxabxabxaby").build();
+		DeadEndAnalysis deadEndAnalysis = new DeadEndAnalysis(markovModel);
+		assertTrue(deadEndAnalysis.getDeadEndCount() == 1);
+		assertTrue(deadEndAnalysis.getDoomedStateCount() == 0);
+		assertTrue(deadEndAnalysis.getRiskyStateCount() == 1);
+		assertTrue(deadEndAnalysis.isRisky(markovModel.findState("ab", 2)));
+
+		MarkovGenerator markovGenerator = new MarkovGenerator(markovModel, null, MarkovListener.NONE,
+				deadEndAnalysis);
+		for (long seed = 0; seed < 100; seed++) {
+			String generatedText = markovGenerator.generate(200, seed, null);
+			assertTrue(generatedText.length() == 200);
+			assertTrue(generatedText.indexOf('y') < 0);
+		}
+	}
+
+	public void testSampleTextAlwaysFullLength() throws IOException {
+		HashMarkovModel markovModel = new MarkovModelBuilder(7).addTextLocation(sampleTextLocation).build();
+		MarkovGenerator plainGenerator = new MarkovGenerator(markovModel);
+		MarkovGenerator markovGenerator = new MarkovGenerator(markovModel, null, MarkovListener.NONE,
+				new DeadEndAnalysis(markovModel));
+		int shortTexts = 0;
+		for (long seed = 0; seed < 200; seed++) {
+			shortTexts += plainGenerator.generate(500, seed, null).length() < 500 ? 1 : 0;
+			String generatedText = markovGenerator.generate(500, seed, null);
+			assertTrue(generatedText.length() == 500);
+			assertTrue(generatedText.equals(markovGenerator.generate(500, seed, null)));
+		}
+		// The very short text mostly runs into its end
+		assertTrue(shortTexts > 100);
+	}
+
+	public void testSameAnalysisAcrossModels() throws IOException {
+		HashMarkovModel markovModel = new MarkovModelBuilder(7).addTextLocation(sampleTextLocation).build();
+		DeadEndAnalysis deadEndAnalysis = new DeadEndAnalysis(markovModel);
+		assertTrue(deadEndAnalysis.getDoomedStateCount() > 0);
+
+		String text = readText(sampleTextLocation);
+		ConcurrentMarkovModel concurrentModel = new ConcurrentMarkovModel(7);
+		concurrentModel.train(text);
+		MarkovModel[] markovModels = { markovModel.freeze(), markovModel.freeze(true),
+				new SuffixArrayIndex(text).getMarkovModel(7), concurrentModel };
+		for (MarkovModel model : markovModels) {
+			DeadEndAnalysis otherAnalysis = new DeadEndAnalysis(model);
+			assertTrue(otherAnalysis.getDeadEndCount() == deadEndAnalysis.getDeadEndCount());
+			assertTrue(otherAnalysis.getDoomedStateCount() == deadEndAnalysis.getDoomedStateCount());
+			assertTrue(otherAnalysis.getRiskyStateCount() == deadEndAnalysis.getRiskyStateCount());
+		}
+
+		try {
+			new MarkovGenerator(markovModel.freeze(), null, MarkovListener.NONE, deadEndAnalysis);
+			fail("The analysis is of another model");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	private static String readText(String textFileLocation) throws IOException {
+		StringBuilder stringBuilder = new StringBuilder();
+		Reader reader = MarkovModelBuilder.openTextLocation(textFileLocation, StandardCharsets.UTF_8, false);
+		try {
+			char[] buffer = new char[1 << 12];
+			int read;
+			while ((read = reader.read(buffer)) > 0) {
+				stringBuilder.append(buffer, 0, read);
+			}
+		} finally {
+			reader.close();
+		}
+		// Newlines are whitespace in training
+		return stringBuilder.toString().replace('\r', ' ').replace('\n', ' ');
+	}
+}
@@ -0,0 +1,78 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the ExternalMarkovTrainer class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class ExternalMarkovTrainerTest extends TestCase {
+
+	private String sampleTextLocation = "/sample_texts/PaulGraham_September2013.txt";
+	private String otherSampleTextLocation = "/sample_texts/BarackObama_2008.txt";
+
+	private Reader open(String location) {
+		return new InputStreamReader(getClass().getResourceAsStream(location), StandardCharsets.UTF_8);
+	}
+
+	private File tempFile() throws IOException {
+		File file = File.createTempFile("markov-model", ".bin");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private void assertSameFile(int kOrder, long memoryBudget, int minimumRunCount) throws IOException {
+		MarkovModelBuilder markovModelBuilder = new MarkovModelBuilder(kOrder);
+		ExternalMarkovTrainer externalTrainer = new ExternalMarkovTrainer(kOrder, memoryBudget);
+		for (String location : new String[] { sampleTextLocation, otherSampleTextLocation }) {
+			Reader reader = open(location);
+			markovModelBuilder.addText(reader);
+			reader.close();
+			reader = open(location);
+			externalTrainer.train(reader);
+			reader.close();
+		}
+		externalTrainer.train("a short text of its own");
+		markovModelBuilder.addText("a short text of its own");
+		assertTrue(externalTrainer.getRunCount() >= minimumRunCount);
+
+		File expectedFile = tempFile();
+		MappedMarkovModel.write(markovModelBuilder.build(), StandardCharsets.UTF_8, expectedFile.getPath());
+		File file = tempFile();
+		externalTrainer.write(StandardCharsets.UTF_8, file.getPath());
+		assertTrue(externalTrainer.getRunCount() == 0);
+		assertTrue(Arrays.equals(Files.readAllBytes(file.toPath()), Files.readAllBytes(expectedFile.toPath())));
+
+		MappedMarkovModel markovModel = MappedMarkovModel.open(file.getPath());
+		assertTrue(new MarkovGenerator(markovModel).generate(200, 1L, null).length() > 0);
+	}
+
+	public void testSingleRun() throws IOException {
+		assertSameFile(7, 1L << 28, 0);
+	}
+
+	public void testManyRuns() throws IOException {
+		// More runs than are merged at once
+		assertSameFile(7, 1L << 16, ExternalMarkovTrainer.MERGE_WIDTH + 1);
+		assertSameFile(3, 1L << 17, 2);
+	}
+
+	public void testMemoryBudget() {
+		try {
+			new ExternalMarkovTrainer(7, 1000);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
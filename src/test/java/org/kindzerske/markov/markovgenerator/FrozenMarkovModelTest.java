@@ -0,0 +1,133 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the FrozenMarkovModel class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class FrozenMarkovModelTest extends TestCase {
+
+	private String sampleText = "The cat sat on the mat, the cat ate the rat; then the big dog (Rex) woke up!";
+	private String sampleTextLocation = "/sample_texts/PaulGraham_September2013.txt";
+
+	private void assertSameModel(HashMarkovModel markovModel, FrozenMarkovModel frozenMarkovModel, String text) {
+		assertTrue(frozenMarkovModel.getKeyCount() == markovModel.getKeyCount());
+		assertTrue(frozenMarkovModel.getKOrder() == markovModel.getKOrder());
+		// Every position resolves to the same state with the same counts
+		for (int end = 0; end <= text.length(); end++) {
+			long state = markovModel.findState(text, end);
+			assertTrue(frozenMarkovModel.findState(text, end) == state);
+			if (state >= 0) {
+				assertTrue(frozenMarkovModel.getKey(state).equals(markovModel.getKey(state)));
+				assertTrue(frozenMarkovModel.getSubsequentCharsString(state)
+						.equals(markovModel.getSubsequentCharsString(state)));
+			}
+		}
+	}
+
+	public void testPackedKeys() {
+		HashMarkovModel markovModel = new MarkovModelBuilder(3).addText(sampleText).build();
+		assertNotNull(markovModel.getKGramCodec());
+		assertSameModel(markovModel, markovModel.freeze(), sampleText);
+		assertTrue(markovModel.freeze().findState("xyz", 3) == -1);
+	}
+
+	public void testStringKeys() {
+		// 4 bits per char at k=13 can not pack this alphabet
+		HashMarkovModel markovModel = new MarkovModelBuilder(13).addText(sampleText).build();
+		assertNull(markovModel.getKGramCodec());
+		assertSameModel(markovModel, markovModel.freeze(), sampleText);
+		assertSameModel(markovModel, markovModel.freeze(true), sampleText);
+		assertTrue(markovModel.freeze().findState("not in the sample", 17) == -1);
+	}
+
+	public void testBackoff() {
+		HashMarkovModel markovModel = new MarkovModelBuilder(6).setMinOrder(2).addText(sampleText).build();
+		FrozenMarkovModel frozenMarkovModel = markovModel.freeze();
+		assertTrue(frozenMarkovModel.getMinOrder() == 2);
+		assertSameModel(markovModel, frozenMarkovModel, sampleText + " the dog ate");
+	}
+
+	public void testGeneratesSameText() throws IOException {
+		HashMarkovModel markovModel = new MarkovModelBuilder(7).addTextLocation(sampleTextLocation).build();
+		String expectedText = new MarkovGenerator(markovModel).generate(2000, 11L, null);
+		FrozenMarkovModel frozenMarkovModel = markovModel.freeze();
+		assertTrue(new MarkovGenerator(frozenMarkovModel).generate(2000, 11L, null).equals(expectedText));
+
+		FrozenMarkovModel offHeapMarkovModel = markovModel.freeze(true);
+		assertTrue(offHeapMarkovModel.isOffHeap());
+		assertTrue(new MarkovGenerator(offHeapMarkovModel).generate(2000, 11L, null).equals(expectedText));
+	}
+
+	private void assertSameCounts(MarkovModel expected, MarkovModel actual, String text) {
+		assertTrue(actual.getKeyCount() == expected.getKeyCount());
+		for (int end = 0; end <= text.length(); end++) {
+			long state = expected.findState(text, end);
+			long actualState = actual.findState(text, end);
+			assertTrue((state < 0) == (actualState < 0));
+			if (state >= 0) {
+				assertTrue(actual.getKey(actualState).equals(expected.getKey(state)));
+				assertTrue(actual.getSubsequentCharsString(actualState)
+						.equals(expected.getSubsequentCharsString(state)));
+			}
+		}
+	}
+
+	public void testOffHeapTraining() throws IOException {
+		MarkovGenerator markovGenerator = new MarkovGenerator(
+				new MarkovModelBuilder(5).addTextLocation(sampleTextLocation).build());
+		StringBuilder textBuilder = new StringBuilder();
+		for (long seed = 0; textBuilder.length() < 200000; seed++) {
+			textBuilder.append(markovGenerator.generate(10000, seed, null)).append(' ');
+		}
+		String text = textBuilder.toString();
+		HashMarkovModel markovModel = new MarkovModelBuilder(7).setMinOrder(1).addText(text).build();
+
+		// Small blocks, so counts of one key are spilled from many blocks,
+		// and enough transitions to grow the off-heap table
+		MarkovTrainer markovTrainer = new MarkovTrainer(1, 7, 1, 997, true);
+		markovTrainer.train(new StringReader(text));
+		assertTrue(markovTrainer.getPackedMarkovHashMap().getHashMapTableContentCount() == 0);
+		assertTrue(markovTrainer.getOffHeapTable().capacity() > 1 << 16);
+		FrozenMarkovModel frozenMarkovModel = markovTrainer.getOffHeapTable().freeze(1, 7,
+				markovTrainer.getKGramCodec());
+		markovTrainer.close();
+
+		assertTrue(frozenMarkovModel.isOffHeap());
+		assertSameCounts(markovModel, frozenMarkovModel, text.substring(0, 20000));
+		String startKey = text.substring(0, 20);
+		assertTrue(new MarkovGenerator(frozenMarkovModel).generate(1000, 5L, startKey)
+				.equals(new MarkovGenerator(markovModel).generate(1000, 5L, startKey)));
+		frozenMarkovModel.close();
+	}
+
+	public void testBuilderOffHeap() throws IOException {
+		MarkovModelBuilder markovModelBuilder = new MarkovModelBuilder(7).setOffHeap(true)
+				.addTextLocation(sampleTextLocation);
+		FrozenMarkovModel frozenMarkovModel = markovModelBuilder.buildFrozen();
+		HashMarkovModel markovModel = new MarkovModelBuilder(7).addTextLocation(sampleTextLocation).build();
+		assertSameCounts(markovModel, frozenMarkovModel, sampleText);
+		assertTrue(new MarkovGenerator(frozenMarkovModel).generate(300).length() > 7);
+
+		frozenMarkovModel.close();
+		try {
+			frozenMarkovModel.findState(sampleText, 7);
+			fail("A closed model was used");
+		} catch (RuntimeException e) {
+			// Expected, the memory is released
+		}
+		try {
+			new MarkovModelBuilder(7).setOffHeap(true).addText(sampleText).build();
+			fail("build() returned a model trained off the heap");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+}
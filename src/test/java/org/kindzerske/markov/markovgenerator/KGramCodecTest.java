@@ -0,0 +1,67 @@
+package org.kindzerske.markov.markovgenerator;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the KGramCodec class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class KGramCodecTest extends TestCase {
+
+	public void testPackUnpack() {
+		String text = "the place";
+		KGramCodec codec = new KGramCodec(7);
+		assertTrue(codec.internAll(text));
+		assertTrue(codec.getBitsPerChar() == 9);
+		assertTrue(codec.unpack(codec.pack(text, 0)).equals("the pla"));
+		assertTrue(codec.unpack(codec.pack(text, 2)).equals("e place"));
+	}
+
+	public void testRollingShiftMatchesPack() {
+		String text = "abracadabra";
+		int kOrder = 4;
+		KGramCodec codec = new KGramCodec(kOrder);
+		codec.internAll(text);
+
+		long packedKey = codec.pack(text, 0);
+		for (int n = kOrder; n < text.length(); n++) {
+			packedKey = codec.shift(packedKey, codec.codeOf(text.charAt(n)));
+			assertTrue(packedKey == codec.pack(text, n - kOrder + 1));
+		}
+	}
+
+	public void testAlphabetOverflow() {
+		// k=12 leaves 5 bits per char, i.e. 31 distinct chars
+		KGramCodec codec = new KGramCodec(12);
+		StringBuilder alphabet = new StringBuilder();
+		for (char c = 'A'; c < 'A' + 31; c++) {
+			alphabet.append(c);
+		}
+		assertTrue(codec.internAll(alphabet));
+		assertTrue(codec.intern('z') == -1);
+		assertTrue(codec.getAlphabetSize() == 31);
+	}
+
+	public void testPackedKeyNeverZero() {
+		KGramCodec codec = new KGramCodec(8);
+		String text = "\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000";
+		codec.internAll(text);
+		assertTrue(codec.pack(text, 0) != 0);
+	}
+
+	public void testSuffix() {
+		String text = "markov";
+		KGramCodec codec = new KGramCodec(5);
+		codec.internAll(text);
+		long packedKey = codec.pack(text, 1);
+		assertTrue(codec.lengthOf(packedKey) == 5);
+		assertTrue(codec.suffix(packedKey, 5) == packedKey);
+		for (int length = 1; length < 5; length++) {
+			long suffix = codec.suffix(packedKey, length);
+			assertTrue(codec.lengthOf(suffix) == length);
+			assertTrue(codec.unpack(suffix).equals(text.substring(6 - length)));
+		}
+	}
+}
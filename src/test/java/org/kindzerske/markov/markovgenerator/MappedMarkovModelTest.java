@@ -0,0 +1,108 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the MappedMarkovModel class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class MappedMarkovModelTest extends TestCase {
+
+	private String sampleText = "The cat sat on the mat, the cat ate the rat; then the big dog (Rex) woke up!";
+
+	private MappedMarkovModel writeAndOpen(HashMarkovModel markovModel) throws IOException {
+		File file = File.createTempFile("model", ".mrkv");
+		file.deleteOnExit();
+		MappedMarkovModel.write(markovModel, StandardCharsets.UTF_8, file.getPath());
+		return MappedMarkovModel.open(file.getPath());
+	}
+
+	public void testRoundTripPackedKeys() throws IOException {
+		int kOrder = 3;
+		HashMarkovModel markovModel = new MarkovModelBuilder(kOrder).addText(sampleText).build();
+		MappedMarkovModel model = writeAndOpen(markovModel);
+
+		assertTrue(model.getKOrder() == kOrder);
+		assertTrue(model.getCharsetName().equals("UTF-8"));
+		MarkovLongHashMap<Markov> packedMarkovHashMap = markovModel.getPackedMarkovHashMap();
+		assertTrue(model.getKeyCount() == packedMarkovHashMap.getHashMapTableContentCount());
+
+		// Every k-gram of the text is found with identical counts
+		for (int n = 0; n < sampleText.length() - kOrder; n++) {
+			int keyIndex = model.findKey(sampleText, n);
+			assertTrue(keyIndex >= 0);
+			Markov markov = packedMarkovHashMap.get(markovModel.getKGramCodec().pack(sampleText, n));
+			assertTrue(model.getSubsequentCharsString(keyIndex).equals(markov.getSubsequentMap().toString()));
+		}
+		assertTrue(model.findKey("xyz", 0) == -1);
+	}
+
+	public void testRoundTripStringKeys() throws IOException {
+		// 4 bits per char at k=13 can not pack this alphabet
+		int kOrder = 13;
+		HashMarkovModel markovModel = new MarkovModelBuilder(kOrder).addText(sampleText).build();
+		assertNull(markovModel.getKGramCodec());
+		MappedMarkovModel model = writeAndOpen(markovModel);
+
+		assertTrue(model.getKeyCount() == markovModel.getMarkovHashMap().getHashMapTableContentCount());
+		int keyIndex = model.findKey(sampleText, 0);
+		assertTrue(model.getKey(keyIndex).equals(sampleText.substring(0, kOrder)));
+		assertTrue(model.getRandomSubsequentChar(keyIndex, new Random()) == sampleText.charAt(kOrder));
+	}
+
+	public void testSamplingFollowsCounts() throws IOException {
+		// 'a' is followed by 'b' three times and by 'c' once
+		MappedMarkovModel model = writeAndOpen(new MarkovModelBuilder(1).addText("abacabab").build());
+		int keyIndex = model.findKey("a", 0);
+		assertTrue(model.getSubsequentCharsString(keyIndex).equals("{b=3, c=1}"));
+
+		Random rand = new Random(7);
+		int bCount = 0;
+		for (int n = 0; n < 4000; n++) {
+			char c = model.getRandomSubsequentChar(keyIndex, rand);
+			assertTrue(c == 'b' || c == 'c');
+			bCount += c == 'b' ? 1 : 0;
+		}
+		assertTrue(bCount > 2800 && bCount < 3200);
+	}
+
+	public void testSmallPages() throws IOException {
+		// 16 byte pages, so every section spans several of them
+		File file = File.createTempFile("model", ".mrkv");
+		file.deleteOnExit();
+		MappedMarkovModel.write(new MarkovModelBuilder(3).addText(sampleText).build(), StandardCharsets.UTF_8,
+				file.getPath());
+		MappedMarkovModel model = MappedMarkovModel.open(file.getPath());
+		MappedMarkovModel pagedModel = MappedMarkovModel.open(file.getPath(), 4);
+
+		assertTrue(pagedModel.getKeyCount() == model.getKeyCount());
+		for (int keyIndex = 0; keyIndex < model.getKeyCount(); keyIndex++) {
+			assertTrue(pagedModel.getKey(keyIndex).equals(model.getKey(keyIndex)));
+			assertTrue(pagedModel.findKey(model.getKey(keyIndex), 0) == keyIndex);
+			assertTrue(pagedModel.getSubsequentCharsString(keyIndex).equals(model.getSubsequentCharsString(keyIndex)));
+			assertTrue(pagedModel.getCount(keyIndex) == model.getCount(keyIndex));
+		}
+	}
+
+	public void testRejectsOtherFiles() throws IOException {
+		File file = File.createTempFile("model", ".txt");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("not a model, just some text".getBytes(StandardCharsets.UTF_8));
+		out.close();
+		try {
+			MappedMarkovModel.open(file.getPath());
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
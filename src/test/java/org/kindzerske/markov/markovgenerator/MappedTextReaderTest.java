@@ -0,0 +1,66 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the MappedTextReader class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class MappedTextReaderTest extends TestCase {
+
+	private File writeTempFile(String text, Charset charset) throws IOException {
+		File file = File.createTempFile("mapped", ".txt");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(text.getBytes(charset));
+		out.close();
+		return file;
+	}
+
+	private String readAll(MappedTextReader reader, int readLength) throws IOException {
+		StringBuilder stringBuilder = new StringBuilder();
+		char[] buffer = new char[readLength];
+		int read;
+		while ((read = reader.read(buffer, 0, buffer.length)) != -1) {
+			stringBuilder.append(buffer, 0, read);
+		}
+		reader.close();
+		return stringBuilder.toString();
+	}
+
+	public void testMultiByteCharsAcrossWindows() throws IOException {
+		// 2, 3 and 4 byte UTF-8 sequences, with a 7 byte window most of them
+		// are cut by a window boundary
+		StringBuilder text = new StringBuilder();
+		for (int n = 0; n < 200; n++) {
+			text.append("café € ").append(new String(Character.toChars(0x1F600))).append(n);
+		}
+		File file = writeTempFile(text.toString(), StandardCharsets.UTF_8);
+
+		MappedTextReader reader = new MappedTextReader(file.getPath(), StandardCharsets.UTF_8, 7);
+		assertTrue(readAll(reader, 13).equals(text.toString()));
+		assertTrue(reader.getBytesRead() == reader.getFileLength());
+	}
+
+	public void testConfiguredCharset() throws IOException {
+		String text = "naïve résumé";
+		File file = writeTempFile(text, StandardCharsets.ISO_8859_1);
+		MappedTextReader reader = new MappedTextReader(file.getPath(), StandardCharsets.ISO_8859_1);
+		assertTrue(readAll(reader, 1024).equals(text));
+	}
+
+	public void testEmptyFile() throws IOException {
+		File file = writeTempFile("", StandardCharsets.UTF_8);
+		MappedTextReader reader = new MappedTextReader(file.getPath(), StandardCharsets.UTF_8);
+		assertTrue(reader.read(new char[16], 0, 16) == -1);
+		reader.close();
+	}
+}
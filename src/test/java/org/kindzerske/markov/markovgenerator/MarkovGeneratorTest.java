@@ -0,0 +1,171 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the MarkovModelBuilder and MarkovGenerator classes
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class MarkovGeneratorTest extends TestCase {
+
+	private String sampleTextLocation = "/" + Utilities.SAMPLE_TEXTS_DIR + "PaulGraham_September2013.txt";
+
+	public void testSameSeedSameText() throws IOException {
+		// k=7 packs, k=13 falls back to String keys
+		for (int kOrder : new int[] { 7, 13 }) {
+			MarkovModel markovModel = new MarkovModelBuilder(kOrder).addTextLocation(sampleTextLocation).build();
+			MarkovGenerator markovGenerator = new MarkovGenerator(markovModel);
+			String generatedText = markovGenerator.generate(500, 42L, null);
+			assertTrue(generatedText.length() > kOrder);
+			assertTrue(generatedText.equals(markovGenerator.generate(500, 42L, null)));
+		}
+	}
+
+	public void testStreamsSameText() throws IOException {
+		// Backed off so the text does not end early, packed and String keys
+		for (int kOrder : new int[] { 7, 13 }) {
+			MarkovModel markovModel = new MarkovModelBuilder(kOrder).setMinOrder(2).addTextLocation(sampleTextLocation)
+					.build();
+			MarkovGenerator markovGenerator = new MarkovGenerator(markovModel);
+			String generatedText = markovGenerator.generate(100000, 9L, null);
+			StringWriter writer = new StringWriter();
+			assertTrue(markovGenerator.generate(100000L, 9L, null, writer) == generatedText.length());
+			assertTrue(writer.toString().equals(generatedText));
+
+			CharBuffer charBuffer = CharBuffer.allocate(5000);
+			markovGenerator.generate(5000L, 9L, "The start key is written first. ", charBuffer);
+			charBuffer.flip();
+			assertTrue(charBuffer.toString()
+					.equals(markovGenerator.generate(5000, 9L, "The start key is written first. ")));
+		}
+	}
+
+	public void testVerboseTraceGrowsLinearly() throws IOException {
+		MarkovModel markovModel = new MarkovModelBuilder(7).setMinOrder(2).addTextLocation(sampleTextLocation).build();
+		MarkovGenerator markovGenerator = new MarkovGenerator(markovModel, true);
+		PrintStream originalStream = System.out;
+		ByteArrayOutputStream trace = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(trace));
+		try {
+			markovGenerator.generate(20000L, 3L, null, new StringWriter());
+		} finally {
+			System.setOut(originalStream);
+		}
+		// A key and at most a bifurcation per char, not the text so far
+		assertTrue(trace.size() > 20000);
+		assertTrue(trace.size() < 20000 * 200);
+	}
+
+	public void testStartKey() throws IOException {
+		MarkovModel markovModel = new MarkovModelBuilder(3).addText("abcdefgh").build();
+		MarkovGenerator markovGenerator = new MarkovGenerator(markovModel);
+		// Only one path through the text
+		assertTrue(markovGenerator.generate(100, 1L, "xxabc").equals("xxabcdefgh"));
+		// Unknown or too short start keys are returned as is
+		assertTrue(markovGenerator.generate(100, 1L, "xyz").equals("xyz"));
+		assertTrue(markovGenerator.generate(100, 1L, "ab").equals("ab"));
+		// Generation stops at textLength
+		assertTrue(markovGenerator.generate(6, 1L, "abc").equals("abcdef"));
+	}
+
+	public void testEmptyModel() {
+		MarkovModel markovModel = new MarkovModelBuilder(3).build();
+		assertTrue(markovModel.getKeyCount() == 0);
+		assertTrue(new MarkovGenerator(markovModel).generate(100).equals(""));
+	}
+
+	public void testBuildOnce() {
+		MarkovModelBuilder markovModelBuilder = new MarkovModelBuilder(3).addText("abcdefgh");
+		markovModelBuilder.build();
+		try {
+			markovModelBuilder.addText("ijkl");
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	public void testMappedModelGeneratesSameText() throws IOException {
+		File modelFile = File.createTempFile("model", ".mrkv");
+		modelFile.deleteOnExit();
+		HashMarkovModel hashMarkovModel = new MarkovModelBuilder(7).addTextLocation(sampleTextLocation).build();
+		MappedMarkovModel.write(hashMarkovModel, StandardCharsets.UTF_8, modelFile.getPath());
+		MappedMarkovModel mappedMarkovModel = MappedMarkovModel.open(modelFile.getPath());
+
+		// Same start key and seed, the two engines draw the same chars
+		String startKey = "The most";
+		String generatedText = new MarkovGenerator(hashMarkovModel).generate(300, 5L, startKey);
+		assertTrue(generatedText.length() > startKey.length());
+		assertTrue(generatedText.equals(new MarkovGenerator(mappedMarkovModel).generate(300, 5L, startKey)));
+	}
+
+	public void testConcurrentGeneration() throws Exception {
+		MarkovModel markovModel = new MarkovModelBuilder(7).addTextLocation(sampleTextLocation).build();
+		final MarkovGenerator markovGenerator = new MarkovGenerator(markovModel);
+		final String expectedText = markovGenerator.generate(2000, 9L, null);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			for (int n = 0; n < 32; n++) {
+				futures.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						return markovGenerator.generate(2000, 9L, null);
+					}
+				}));
+			}
+			for (Future<String> future : futures) {
+				assertTrue(future.get().equals(expectedText));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testBackoff() {
+		// "34ab" and "4ab" never continue, "ab" does in the second text
+		MarkovModel plain = new MarkovModelBuilder(4).addText("1234ab").addText("xab9").build();
+		assertTrue(new MarkovGenerator(plain).generate(100, 1L, "1234").equals("1234ab"));
+		MarkovModel backoff = new MarkovModelBuilder(4).setMinOrder(2).addText("1234ab").addText("xab9").build();
+		assertTrue(new MarkovGenerator(backoff).generate(100, 1L, "1234").equals("1234ab9"));
+		// Start keys shorter than kOrder back off as well
+		assertTrue(new MarkovGenerator(backoff).generate(100, 1L, "xa").equals("xab9"));
+	}
+
+	public void testBackoffRunsLonger() throws IOException {
+		// The text ends in "wth.", which no order of 2 or more continues
+		String shortTextLocation = "/" + Utilities.SAMPLE_TEXTS_DIR + "PaulGraham_September2013_veryshort.txt";
+		HashMarkovModel plain = new MarkovModelBuilder(8).addTextLocation(shortTextLocation).build();
+		HashMarkovModel backoff = new MarkovModelBuilder(8).setMinOrder(1).addTextLocation(shortTextLocation).build();
+		assertTrue(backoff.getMinOrder() == 1);
+		assertTrue(backoff.getKeyCount() > plain.getKeyCount());
+
+		long plainLength = 0;
+		long backoffLength = 0;
+		for (long seed = 0; seed < 50; seed++) {
+			plainLength += new MarkovGenerator(plain).generate(2000, seed, null).length();
+			String generatedText = new MarkovGenerator(backoff).generate(2000, seed, null);
+			// Random starts are full length keys
+			assertTrue(backoff.findState(generatedText, 8) >= 0);
+			backoffLength += generatedText.length();
+		}
+		assertTrue(backoffLength > plainLength * 2);
+	}
+}
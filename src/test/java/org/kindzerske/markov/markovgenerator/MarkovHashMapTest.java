@@ -1,5 +1,7 @@
 package org.kindzerske.markov.markovgenerator;
 
+import java.util.Random;
+
 import junit.framework.TestCase;
 
 /**
@@ -59,10 +61,53 @@ public class MarkovHashMapTest extends TestCase {
 		MarkovHashMap<String, Integer> markovHashMap = new MarkovHashMap<String, Integer>(11, (float) 0.5);
 		markovHashMap.put(existingKey, existingValue);
 
-		// Should return the only entry in the hashmap. (But horribly
-		// Inefficiently because it uses randomInt to index through the hashmap
-		// and LinkedLists.
+		// Should return the only entry in the hashmap
 		assertTrue(markovHashMap.getRandomKey().equalsIgnoreCase(existingKey));
+		assertNull(new MarkovHashMap<String, Integer>(11, (float) 0.5).getRandomKey());
+	}
+
+	public void testGetRandomKeyIsUniform() {
+		// A sparse table, where most keys share a bucket with another
+		MarkovHashMap<Integer, Integer> markovHashMap = new MarkovHashMap<Integer, Integer>(1597, (float) 0.75);
+		for (int n = 0; n < 8; n++) {
+			markovHashMap.put(n * 1597, n);
+		}
+		markovHashMap.put(1, 8);
+		int[] hits = new int[9];
+		Random rand = new SplitMixRandom(7L);
+		for (int n = 0; n < 90000; n++) {
+			hits[markovHashMap.get(markovHashMap.getRandomKey(rand))]++;
+		}
+		// Each of the 9 keys is drawn about 10000 times, not the lone key in
+		// its bucket half of the time
+		for (int hit : hits) {
+			assertTrue(hit > 9000 && hit < 11000);
+		}
+	}
+
+	public void testIncrementalResize() {
+		MarkovHashMap<String, Integer> markovHashMap = new MarkovHashMap<String, Integer>(11, (float) 0.75);
+		boolean sawResize = false;
+		for (int n = 0; n < 100000; n++) {
+			assertTrue(markovHashMap.put("key" + n, n) == null);
+			sawResize |= markovHashMap.isResizing();
+			// Entries are found in whichever table holds them
+			assertTrue(markovHashMap.get("key" + (n / 2)) == n / 2);
+			assertTrue(markovHashMap.get("key" + (n / 3)) == n / 3);
+		}
+		assertTrue(sawResize);
+		assertTrue(markovHashMap.getHashMapTableContentCount() == 100000);
+
+		// Overwrites are not counted twice, whichever table the key is in
+		for (int n = 0; n < 100000; n += 7) {
+			assertTrue(markovHashMap.put("key" + n, -n) == n);
+		}
+		assertTrue(markovHashMap.getHashMapTableContentCount() == 100000);
+		for (int n = 0; n < 100000; n++) {
+			assertTrue(markovHashMap.containsKey("key" + n));
+			assertTrue(markovHashMap.get("key" + n) == (n % 7 == 0 ? -n : n));
+		}
+		assertTrue(markovHashMap.getRandomKey().startsWith("key"));
 	}
 
 }
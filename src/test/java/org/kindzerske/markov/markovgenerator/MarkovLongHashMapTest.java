@@ -0,0 +1,95 @@
+package org.kindzerske.markov.markovgenerator;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the MarkovLongHashMap class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class MarkovLongHashMapTest extends TestCase {
+
+	public void testPutGetAndResize() {
+		MarkovLongHashMap<Integer> markovHashMap = new MarkovLongHashMap<Integer>(4, (float) 0.5);
+		for (int n = 1; n <= 100; n++) {
+			assertNull(markovHashMap.put(n * 31L, n));
+		}
+		assertTrue(markovHashMap.getHashMapTableContentCount() == 100);
+		assertTrue(markovHashMap.getHashMapTableSize() == 256);
+		for (int n = 1; n <= 100; n++) {
+			assertTrue(markovHashMap.get(n * 31L) == n);
+		}
+		assertTrue(markovHashMap.put(31L, -1) == 1);
+		assertFalse(markovHashMap.containsKey(32L));
+	}
+
+	public void testReservedZeroKey() {
+		MarkovLongHashMap<Integer> markovHashMap = new MarkovLongHashMap<Integer>(4, (float) 0.5);
+		try {
+			markovHashMap.put(0L, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testGetRandomKeyMethod() {
+		MarkovLongHashMap<Integer> markovHashMap = new MarkovLongHashMap<Integer>(16, (float) 0.5);
+		assertTrue(markovHashMap.getRandomKey() == 0);
+		markovHashMap.put(Long.MIN_VALUE, 2);
+		assertTrue(markovHashMap.getRandomKey() == Long.MIN_VALUE);
+	}
+
+	public void testFullTableFails() {
+		// Stops doubling at 8 slots and keeps one of them empty
+		MarkovLongHashMap<Integer> markovHashMap = new MarkovLongHashMap<Integer>(2, (float) 0.5, 8);
+		for (int n = 1; n <= 7; n++) {
+			assertNull(markovHashMap.put(n, n));
+		}
+		assertTrue(markovHashMap.getHashMapTableSize() == 8);
+		try {
+			markovHashMap.put(8L, 8);
+			fail("The table is full");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		// Lookups of missing keys still end
+		assertNull(markovHashMap.get(8L));
+		assertTrue(markovHashMap.put(7L, -7) == 7);
+	}
+
+	public void testIncrementalResize() {
+		MarkovLongHashMap<Integer> markovHashMap = new MarkovLongHashMap<Integer>(16, (float) 0.75);
+		boolean sawResize = false;
+		for (int n = 1; n <= 100000; n++) {
+			assertNull(markovHashMap.put(n * 31L, n));
+			sawResize |= markovHashMap.isResizing();
+			// Entries are found in whichever table holds them
+			assertTrue(markovHashMap.get((n / 2 + 1) * 31L) == n / 2 + 1);
+			assertTrue(markovHashMap.containsKey((n / 3 + 1) * 31L));
+			assertFalse(markovHashMap.containsKey(n * 31L + 1));
+		}
+		assertTrue(sawResize);
+
+		// Overwrites are not counted twice, whichever table the key is in
+		for (int n = 1; n <= 100000; n += 7) {
+			assertTrue(markovHashMap.put(n * 31L, -n) == n);
+		}
+		assertTrue(markovHashMap.getHashMapTableContentCount() == 100000);
+
+		// Iterating the slots completes the resize
+		int count = 0;
+		for (int slot = 0; slot < markovHashMap.getHashMapTableSize(); slot++) {
+			long key = markovHashMap.keyAt(slot);
+			if (key != 0) {
+				int n = (int) (key / 31);
+				assertTrue(markovHashMap.valueAt(slot) == ((n - 1) % 7 == 0 ? -n : n));
+				assertTrue(markovHashMap.indexOf(key) == slot);
+				count++;
+			}
+		}
+		assertFalse(markovHashMap.isResizing());
+		assertTrue(count == 100000);
+	}
+}
@@ -0,0 +1,104 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the MarkovMetrics and SampledLogger listeners
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class MarkovMetricsTest extends TestCase {
+
+	private String sampleTextLocation = "/" + Utilities.SAMPLE_TEXTS_DIR + "PaulGraham_September2013.txt";
+
+	public void testCountsTrainingAndGeneration() throws IOException {
+		MarkovMetrics metrics = new MarkovMetrics();
+		MarkovModel markovModel = new MarkovModelBuilder(7).setListener(metrics).addTextLocation(sampleTextLocation)
+				.build();
+		assertTrue(metrics.getCharsTrained() > 0);
+		// Every key was inserted once
+		assertTrue(metrics.getKeysInserted() == markovModel.getKeyCount());
+		assertTrue(metrics.getResizes() > 0);
+		assertTrue(metrics.getAverageProbeLength() >= 1);
+
+		MarkovGenerator markovGenerator = new MarkovGenerator(markovModel, null, metrics);
+		long chars = 0;
+		for (long seed = 0; seed < 20; seed++) {
+			chars += markovGenerator.generate(300, seed, null).length();
+		}
+		assertTrue(metrics.getTextsGenerated() == 20);
+		assertTrue(metrics.getCharsGenerated() == chars);
+		assertTrue(metrics.getBifurcations() > 0);
+		assertTrue(metrics.getLatencyPercentileNanos(0.5) <= metrics.getLatencyPercentileNanos(0.99));
+		assertTrue(metrics.getLatencyPercentileNanos(0.99) > 0);
+
+		metrics.reset();
+		assertTrue(metrics.getTextsGenerated() == 0);
+		assertTrue(metrics.getLatencyPercentileNanos(0.99) == 0);
+	}
+
+	public void testDeadEnd() {
+		MarkovMetrics metrics = new MarkovMetrics();
+		MarkovModel markovModel = new MarkovModelBuilder(3).addText("abcdefgh").build();
+		MarkovGenerator markovGenerator = new MarkovGenerator(markovModel, null, metrics);
+		// The text ends at "fgh", short of 100 chars
+		assertTrue(markovGenerator.generate(100, 1L, "abc").equals("abcdefgh"));
+		assertTrue(markovGenerator.generate(6, 1L, "abc").equals("abcdef"));
+		assertTrue(metrics.getDeadEnds() == 1);
+		assertTrue(metrics.getTextsGenerated() == 2);
+	}
+
+	public void testDumpAndRegister() throws Exception {
+		MarkovMetrics metrics = new MarkovMetrics();
+		metrics.onGenerated(10, 1500);
+		StringBuilder dump = new StringBuilder();
+		metrics.dump(dump);
+		assertTrue(dump.toString().contains("1 texts, 10 chars"));
+
+		ObjectName objectName = metrics.register("MarkovMetricsTest");
+		try {
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			assertTrue(((Long) mBeanServer.getAttribute(objectName, "CharsGenerated")) == 10);
+			try {
+				metrics.register("MarkovMetricsTest");
+				fail("The name is taken");
+			} catch (IllegalStateException e) {
+				// Expected
+			}
+		} finally {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		}
+	}
+
+	public void testSampledLogger() {
+		MarkovMetrics metrics = new MarkovMetrics();
+		ByteArrayOutputStream trace = new ByteArrayOutputStream();
+		SampledLogger sampledLogger = new SampledLogger(10, new PrintStream(trace), metrics);
+		MarkovModel markovModel = new MarkovModelBuilder(3).addText("abcdefgh").build();
+		long state = markovModel.findState("abc", 3);
+		for (int n = 0; n < 100; n++) {
+			sampledLogger.onStep(markovModel, state);
+		}
+		// One in ten printed
+		assertTrue(trace.toString().split("\n").length == 10);
+		assertTrue(trace.toString().contains("  Key: 'abc'"));
+		sampledLogger.onGenerated(10, 1000);
+		assertTrue(metrics.getCharsGenerated() == 10);
+
+		try {
+			new SampledLogger(0, null, MarkovListener.NONE);
+			fail("sampleInterval must be at least 1");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
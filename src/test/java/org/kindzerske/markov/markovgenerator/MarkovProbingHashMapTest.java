@@ -0,0 +1,144 @@
+package org.kindzerske.markov.markovgenerator;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the MarkovProbingHashMap class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class MarkovProbingHashMapTest extends TestCase {
+
+	public void testConstructor() {
+		MarkovProbingHashMap<String, Markov> markovHashMap = new MarkovProbingHashMap<String, Markov>(11,
+				(float) 0.75);
+		assertTrue(markovHashMap.getHashMapTableContentCount() == 0);
+		// Rounded up to a power of two
+		assertTrue(markovHashMap.getHashMapTableSize() == 16);
+	}
+
+	public void testResizingFeature() {
+		MarkovProbingHashMap<String, Integer> markovHashMap = new MarkovProbingHashMap<String, Integer>(16,
+				(float) 0.5);
+
+		for (int n = 0; n < 15; n++) {
+			markovHashMap.put("" + n, n);
+		}
+
+		assertTrue(markovHashMap.getHashMapTableContentCount() == 15);
+		assertTrue(markovHashMap.getHashMapTableSize() == 32);
+		for (int n = 0; n < 15; n++) {
+			assertTrue(markovHashMap.get("" + n) == n);
+		}
+	}
+
+	public void testPutReplacesValue() {
+		MarkovProbingHashMap<String, Integer> markovHashMap = new MarkovProbingHashMap<String, Integer>(16,
+				(float) 0.5);
+		assertNull(markovHashMap.put("abc", 1));
+		assertTrue(markovHashMap.put("abc", 2) == 1);
+		assertTrue(markovHashMap.get("abc") == 2);
+		assertTrue(markovHashMap.getHashMapTableContentCount() == 1);
+	}
+
+	public void testCollidingKeys() {
+		// "Aa" and "BB" share a hashCode, as does any concatenation of them
+		String[] collidingKeys = { "AaAa", "AaBB", "BBAa", "BBBB" };
+		MarkovProbingHashMap<String, Integer> markovHashMap = new MarkovProbingHashMap<String, Integer>(4,
+				(float) 0.75);
+		for (int n = 0; n < collidingKeys.length; n++) {
+			markovHashMap.put(collidingKeys[n], n);
+		}
+		for (int n = 0; n < collidingKeys.length; n++) {
+			assertTrue(markovHashMap.get(collidingKeys[n]) == n);
+		}
+	}
+
+	public void testMinimumHashCodeKey() {
+		// Math.abs(Integer.MIN_VALUE) is negative, which the chained table
+		// turned into a negative bucket index
+		Object minHashKey = new Object() {
+			public int hashCode() {
+				return Integer.MIN_VALUE;
+			}
+		};
+		MarkovProbingHashMap<Object, Integer> markovHashMap = new MarkovProbingHashMap<Object, Integer>(16,
+				(float) 0.75);
+		markovHashMap.put(minHashKey, 1);
+		assertTrue(markovHashMap.containsKey(minHashKey));
+		assertTrue(markovHashMap.get(minHashKey) == 1);
+	}
+
+	public void testContainsKeyMethod() {
+		MarkovProbingHashMap<String, Integer> markovHashMap = new MarkovProbingHashMap<String, Integer>(16,
+				(float) 0.5);
+		markovHashMap.put("abc", 1);
+
+		assertTrue(markovHashMap.containsKey("def") == false);
+		assertTrue(markovHashMap.containsKey("abc") == true);
+		assertNull(markovHashMap.get("def"));
+	}
+
+	public void testGetRandomKeyMethod() {
+		MarkovProbingHashMap<String, Integer> markovHashMap = new MarkovProbingHashMap<String, Integer>(16,
+				(float) 0.5);
+		assertNull(markovHashMap.getRandomKey());
+		markovHashMap.put("abc", 2);
+		assertTrue(markovHashMap.getRandomKey().equals("abc"));
+	}
+
+	public void testFullTableFails() {
+		// Stops doubling at 8 slots and keeps one of them empty
+		MarkovProbingHashMap<String, Integer> markovHashMap = new MarkovProbingHashMap<String, Integer>(2,
+				(float) 0.5, 8);
+		for (int n = 1; n <= 7; n++) {
+			assertNull(markovHashMap.put("key" + n, n));
+		}
+		assertTrue(markovHashMap.getHashMapTableSize() == 8);
+		try {
+			markovHashMap.put("key8", 8);
+			fail("The table is full");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		// Lookups of missing keys still end
+		assertNull(markovHashMap.get("key8"));
+		assertTrue(markovHashMap.put("key7", -7) == 7);
+	}
+
+	public void testIncrementalResize() {
+		MarkovProbingHashMap<String, Integer> markovHashMap = new MarkovProbingHashMap<String, Integer>(16,
+				(float) 0.75);
+		boolean sawResize = false;
+		for (int n = 0; n < 100000; n++) {
+			assertNull(markovHashMap.put("key" + n, n));
+			sawResize |= markovHashMap.isResizing();
+			// Entries are found in whichever table holds them
+			assertTrue(markovHashMap.get("key" + (n / 2)) == n / 2);
+			assertTrue(markovHashMap.containsKey("key" + (n / 3)));
+			assertFalse(markovHashMap.containsKey("missing" + n));
+		}
+		assertTrue(sawResize);
+
+		// Overwrites are not counted twice, whichever table the key is in
+		for (int n = 0; n < 100000; n += 7) {
+			assertTrue(markovHashMap.put("key" + n, -n) == n);
+		}
+		assertTrue(markovHashMap.getHashMapTableContentCount() == 100000);
+
+		// Iterating the slots completes the resize
+		int count = 0;
+		for (int slot = 0; slot < markovHashMap.getHashMapTableSize(); slot++) {
+			String key = markovHashMap.keyAt(slot);
+			if (key != null) {
+				int n = Integer.parseInt(key.substring(3));
+				assertTrue(markovHashMap.valueAt(slot) == (n % 7 == 0 ? -n : n));
+				assertTrue(markovHashMap.indexOf(key) == slot);
+				count++;
+			}
+		}
+		assertFalse(markovHashMap.isResizing());
+		assertTrue(count == 100000);
+	}
+}
@@ -41,4 +41,55 @@ public class MarkovTest extends TestCase {
 		assertTrue(markov.getRandomSubsequentChar()==testChar);
 	}
 
+	public void testRandomCharAfterAdd() {
+		markov = new Markov(testSubString, testChar);
+		// Compiles the sampling table for a single char
+		assertTrue(markov.getRandomSubsequentChar()==testChar);
+		markov.add(secondTestChar);
+		// The table must be rebuilt, both chars are now reachable
+		boolean sawTestChar = false;
+		boolean sawSecondTestChar = false;
+		for (int n=0; n<1000; n++) {
+			char c = markov.getRandomSubsequentChar();
+			sawTestChar |= c==testChar;
+			sawSecondTestChar |= c==secondTestChar;
+		}
+		assertTrue(sawTestChar && sawSecondTestChar);
+	}
+
+	public void testManyCharsStaySorted() {
+		markov = new Markov(testSubString, 'z');
+		String chars = "the quick brown fox jumps over the lazy dog";
+		for (int n = 0; n < chars.length(); n++) {
+			markov.add(chars.charAt(n));
+		}
+		assertTrue(markov.getCount() == chars.length() + 1);
+		assertTrue(markov.getFrequencyCount('o') == 4);
+		assertTrue(markov.getFrequencyCount('z') == 2);
+		assertTrue(markov.getFrequencyCount('!') == -1);
+		for (int n = 1; n < markov.getSubsequentCharCount(); n++) {
+			assertTrue(markov.getSubsequentChar(n - 1) < markov.getSubsequentChar(n));
+		}
+
+		// Compiling keeps the counts, and adding afterwards still counts
+		String before = markov.getSubsequentCharsString();
+		markov.compile();
+		assertTrue(markov.getSubsequentCharsString().equals(before));
+		assertTrue(markov.getSubsequentMap().toString().equals(before));
+		markov.add('o');
+		assertTrue(markov.getFrequencyCount('o') == 5);
+		assertTrue(markov.getFrequencyCount('z') == 2);
+	}
+
+	public void testMerge() {
+		markov = new Markov(testSubString, testChar);
+		Markov other = new Markov(testSubString, secondTestChar);
+		other.add(testChar);
+		other.compile();
+		markov.merge(other);
+		assertTrue(markov.getCount() == 3);
+		assertTrue(markov.getFrequencyCount(testChar) == 2);
+		assertTrue(markov.getFrequencyCount(secondTestChar) == 1);
+	}
+
 }
@@ -0,0 +1,206 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the MarkovTrainer class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class MarkovTrainerTest extends TestCase {
+
+	/**
+	 * Random text long enough to be split into several chunks.
+	 */
+	private String syntheticText(String alphabet, int length) {
+		Random rand = new Random(42);
+		StringBuilder stringBuilder = new StringBuilder(length);
+		for (int n = 0; n < length; n++) {
+			stringBuilder.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+		}
+		return stringBuilder.toString();
+	}
+
+	/**
+	 * Subsequent char counts of every key of the trainer, by key
+	 */
+	private Map<String, String> counts(MarkovTrainer markovTrainer) {
+		Map<String, String> counts = new HashMap<String, String>();
+		if (markovTrainer.getKGramCodec() != null) {
+			MarkovLongHashMap<Markov> hashMap = markovTrainer.getPackedMarkovHashMap();
+			for (int slot = 0; slot < hashMap.getHashMapTableSize(); slot++) {
+				if (hashMap.keyAt(slot) != 0) {
+					counts.put(markovTrainer.getKGramCodec().unpack(hashMap.keyAt(slot)),
+							hashMap.valueAt(slot).getSubsequentMap().toString());
+				}
+			}
+		} else {
+			MarkovProbingHashMap<String, Markov> hashMap = markovTrainer.getMarkovHashMap();
+			for (int slot = 0; slot < hashMap.getHashMapTableSize(); slot++) {
+				if (hashMap.keyAt(slot) != null) {
+					counts.put(hashMap.keyAt(slot), hashMap.valueAt(slot).getSubsequentMap().toString());
+				}
+			}
+		}
+		return counts;
+	}
+
+	public void testParallelPackedCountsMatchSequential() {
+		String text = syntheticText("abcde ", 500000);
+		MarkovTrainer sequential = new MarkovTrainer(6, 1);
+		sequential.train(text);
+		MarkovTrainer parallel = new MarkovTrainer(6, 4);
+		parallel.train(text);
+
+		MarkovLongHashMap<Markov> expected = sequential.getPackedMarkovHashMap();
+		MarkovLongHashMap<Markov> actual = parallel.getPackedMarkovHashMap();
+		assertTrue(expected.getHashMapTableContentCount() == actual.getHashMapTableContentCount());
+		for (int slot = 0; slot < expected.getHashMapTableSize(); slot++) {
+			long key = expected.keyAt(slot);
+			if (key != 0) {
+				assertTrue(expected.valueAt(slot).getCount() == actual.get(key).getCount());
+				assertTrue(expected.valueAt(slot).getSubsequentMap().equals(actual.get(key).getSubsequentMap()));
+			}
+		}
+	}
+
+	public void testParallelStringKeyedCountsMatchSequential() {
+		// 16 chars can not be packed at k=20 (3 bits per char)
+		String text = syntheticText("abcdefghijklmno ", 150000);
+		MarkovTrainer sequential = new MarkovTrainer(20, 1);
+		sequential.train(text);
+		MarkovTrainer parallel = new MarkovTrainer(20, 3);
+		parallel.train(text);
+		assertNull(parallel.getKGramCodec());
+
+		MarkovProbingHashMap<String, Markov> expected = sequential.getMarkovHashMap();
+		MarkovProbingHashMap<String, Markov> actual = parallel.getMarkovHashMap();
+		assertTrue(expected.getHashMapTableContentCount() == actual.getHashMapTableContentCount());
+		for (int slot = 0; slot < expected.getHashMapTableSize(); slot++) {
+			String key = expected.keyAt(slot);
+			if (key != null) {
+				assertTrue(expected.valueAt(slot).getSubsequentMap().equals(actual.get(key).getSubsequentMap()));
+			}
+		}
+	}
+
+	public void testTextShorterThanKOrder() {
+		MarkovTrainer markovTrainer = new MarkovTrainer(7, 2);
+		markovTrainer.train("abc");
+		assertTrue(markovTrainer.getPackedMarkovHashMap().getHashMapTableContentCount() == 0);
+	}
+
+	public void testKOrderTooLongToPackUsesStringKeys() {
+		String text = syntheticText("ab", 2000);
+		MarkovTrainer markovTrainer = new MarkovTrainer(65, 1);
+		markovTrainer.train(text);
+		assertNull(markovTrainer.getKGramCodec());
+		assertTrue(markovTrainer.getMarkovHashMap().getHashMapTableContentCount() > 0);
+
+		MarkovModel markovModel = new MarkovModelBuilder(100).addText(text).build();
+		assertTrue(markovModel.getKOrder() == 100);
+		String generatedText = new MarkovGenerator(markovModel).generate(500, 1L, text.substring(0, 100));
+		assertTrue(generatedText.startsWith(text.substring(0, 100)));
+		assertTrue(generatedText.length() > 100);
+
+		try {
+			new MarkovTrainer(65, 65, 1, true);
+			fail("Off-heap training needs packed keys");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	public void testStreamedBlocksMatchWholeText() throws IOException {
+		String text = syntheticText("abcde ", 10000);
+		MarkovTrainer whole = new MarkovTrainer(5, 1);
+		whole.train(text);
+		// Small blocks, so most k-grams straddle a block boundary at some point
+		MarkovTrainer streamed = new MarkovTrainer(5, 5, 1, 97);
+		streamed.train(new StringReader(text));
+
+		MarkovLongHashMap<Markov> expected = whole.getPackedMarkovHashMap();
+		MarkovLongHashMap<Markov> actual = streamed.getPackedMarkovHashMap();
+		assertTrue(expected.getHashMapTableContentCount() == actual.getHashMapTableContentCount());
+		for (int slot = 0; slot < expected.getHashMapTableSize(); slot++) {
+			long key = expected.keyAt(slot);
+			if (key != 0) {
+				assertTrue(expected.valueAt(slot).getSubsequentMap().equals(actual.get(key).getSubsequentMap()));
+			}
+		}
+	}
+
+	public void testStreamedAlphabetOverflowFallsBackToStringKeys() throws IOException {
+		// k=12 packs 31 distinct chars, the second half of the text brings
+		// the alphabet to 36
+		String text = syntheticText("abcdefghijklmnopqrstuvwxyz", 5000)
+				+ syntheticText("abcdefghijklmnopqrstuvwxyz0123456789", 5000);
+		MarkovTrainer whole = new MarkovTrainer(12, 1);
+		whole.train(text);
+		MarkovTrainer streamed = new MarkovTrainer(12, 12, 1, 1000);
+		streamed.train(new StringReader(text));
+		assertNull(streamed.getKGramCodec());
+
+		MarkovProbingHashMap<String, Markov> expected = whole.getMarkovHashMap();
+		MarkovProbingHashMap<String, Markov> actual = streamed.getMarkovHashMap();
+		assertTrue(expected.getHashMapTableContentCount() == actual.getHashMapTableContentCount());
+		for (int slot = 0; slot < expected.getHashMapTableSize(); slot++) {
+			String key = expected.keyAt(slot);
+			if (key != null) {
+				assertTrue(expected.valueAt(slot).getSubsequentMap().equals(actual.get(key).getSubsequentMap()));
+			}
+		}
+	}
+
+	public void testSeparateTextsDoNotShareKGrams() throws IOException {
+		MarkovTrainer markovTrainer = new MarkovTrainer(3, 1);
+		markovTrainer.train(new StringReader("abcd"));
+		markovTrainer.train(new StringReader("efgh"));
+		// abc->d and efg->h only, nothing spanning "d" and "e"
+		assertTrue(markovTrainer.getPackedMarkovHashMap().getHashMapTableContentCount() == 2);
+	}
+
+	public void testNewlinesBecomeWhitespace() throws IOException {
+		MarkovTrainer markovTrainer = new MarkovTrainer(2, 1);
+		markovTrainer.train(new StringReader("ab\nab\r"));
+		KGramCodec codec = markovTrainer.getKGramCodec();
+		assertTrue(markovTrainer.getPackedMarkovHashMap().get(codec.pack("ab", 0)).getFrequencyCount(' ') == 2);
+	}
+
+	public void testEveryOrderCountsMatchSingleOrderTrainers() throws IOException {
+		// Packed at k=6, and String keyed at k=12 (16 chars do not fit 5 bits)
+		String[] alphabets = { "abcde ", "abcdefghijklmno " };
+		int[] kOrders = { 6, 12 };
+		for (int i = 0; i < kOrders.length; i++) {
+			int kOrder = kOrders[i];
+			int minOrder = kOrder - 3;
+			String text1 = syntheticText(alphabets[i], 50000);
+			String text2 = syntheticText(alphabets[i], 3000).substring(1000);
+
+			Map<String, String> expected = new HashMap<String, String>();
+			for (int order = minOrder; order <= kOrder; order++) {
+				MarkovTrainer single = new MarkovTrainer(order, 1);
+				single.train(text1);
+				single.train(new StringReader(text2));
+				expected.putAll(counts(single));
+			}
+
+			// In parallel chunks, and streamed in small blocks
+			MarkovTrainer parallel = new MarkovTrainer(minOrder, kOrder, 3);
+			parallel.train(text1);
+			parallel.train(new StringReader(text2));
+			assertTrue(expected.equals(counts(parallel)));
+			MarkovTrainer streamed = new MarkovTrainer(minOrder, kOrder, 1, 97);
+			streamed.train(new StringReader(text1));
+			streamed.train(new StringReader(text2));
+			assertTrue(expected.equals(counts(streamed)));
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package org.kindzerske.markov.markovgenerator;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the PagedArray class
+ *
+ * @author matthew.kindzerske
+ *
+ */
+public class PagedArrayTest extends TestCase {
+
+	public void testAcrossPages() {
+		for (boolean offHeap : new boolean[] { false, true }) {
+			// 64 byte pages, the last one partly used
+			PagedArray longs = new PagedArray(21, 8, offHeap, 6);
+			PagedArray ints = new PagedArray(21, 4, offHeap, 6);
+			PagedArray chars = new PagedArray(21, 2, offHeap, 6);
+			assertTrue(longs.length() == 21);
+			assertTrue(longs.isOffHeap() == offHeap);
+			for (int n = 0; n < 21; n++) {
+				assertTrue(longs.getLong(n) == 0);
+				longs.putLong(n, Long.MIN_VALUE + n);
+				ints.putInt(n, -n);
+				chars.putChar(n, (char) ('a' + n));
+			}
+			for (int n = 0; n < 21; n++) {
+				assertTrue(longs.getLong(n) == Long.MIN_VALUE + n);
+				assertTrue(ints.getInt(n) == -n);
+				assertTrue(chars.getChar(n) == 'a' + n);
+			}
+			try {
+				longs.getLong(21);
+				fail("Past the end of the last page");
+			} catch (IndexOutOfBoundsException e) {
+				// Expected
+			}
+			longs.free();
+			ints.free();
+			chars.free();
+		}
+	}
+
+	public void testEmpty() {
+		PagedArray empty = new PagedArray(0, 8, true);
+		assertTrue(empty.length() == 0);
+		empty.free();
+		try {
+			new PagedArray(-1, 8, false);
+			fail("length must not be negative");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
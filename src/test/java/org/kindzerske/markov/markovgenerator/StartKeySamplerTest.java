@@ -0,0 +1,107 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the StartKeySampler class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class StartKeySamplerTest extends TestCase {
+
+	private String sampleText = "The cat sat. The cat ate! A dog sat on the cat. Then the dog ate the mat.";
+	private String sampleTextLocation = "/sample_texts/PaulGraham_September2013.txt";
+
+	public void testStartIndex() throws IOException {
+		HashMarkovModel markovModel = new MarkovModelBuilder(7).addTextLocation(sampleTextLocation).build();
+		MarkovModel[] markovModels = { markovModel, markovModel.freeze(), markovModel.freeze(true) };
+		for (MarkovModel model : markovModels) {
+			assertTrue(model.getStartStateCount() == model.getKeyCount());
+			Set<String> keys = new HashSet<String>();
+			for (int index = 0; index < model.getStartStateCount(); index++) {
+				long state = model.getStartState(index);
+				assertTrue(keys.add(model.getKey(state)));
+				assertTrue(model.getCount(state) > 0);
+			}
+		}
+
+		// Backed off models start from the keys of kOrder chars only
+		HashMarkovModel backoffModel = new MarkovModelBuilder(5).setMinOrder(2).addText(sampleText).build();
+		assertTrue(backoffModel.getStartStateCount() < backoffModel.getKeyCount());
+		for (int index = 0; index < backoffModel.getStartStateCount(); index++) {
+			assertTrue(backoffModel.getKey(backoffModel.getStartState(index)).length() == 5);
+		}
+
+		// Keys of the suffix array model are indexed with their counts
+		MarkovModel suffixArrayModel = new SuffixArrayIndex(sampleText).getMarkovModel(5);
+		assertTrue(suffixArrayModel.getStartStateCount() == new MarkovModelBuilder(5).addText(sampleText).build()
+				.getStartStateCount());
+		long state = suffixArrayModel.findState("e cat", 5);
+		assertTrue(suffixArrayModel.getCount(state) == 3);
+	}
+
+	public void testUniformAndWeighted() {
+		HashMarkovModel markovModel = new MarkovModelBuilder(3).addText(sampleText).build();
+		long catState = markovModel.findState("cat", 3);
+		long matState = markovModel.findState("mat", 3);
+		assertTrue(markovModel.getCount(catState) == 3);
+		assertTrue(markovModel.getCount(matState) == 1);
+
+		StartKeySampler uniform = new StartKeySampler(markovModel);
+		StartKeySampler weighted = new StartKeySampler(markovModel, true, StartKeySampler.Boundary.NONE);
+		assertTrue(uniform.getCandidateCount() == markovModel.getKeyCount());
+		Random rand = new SplitMixRandom(5L);
+		int uniformCat = 0, weightedCat = 0, weightedMat = 0;
+		int draws = 200000;
+		for (int n = 0; n < draws; n++) {
+			uniformCat += uniform.sample(rand) == catState ? 1 : 0;
+			long state = weighted.sample(rand);
+			weightedCat += state == catState ? 1 : 0;
+			weightedMat += state == matState ? 1 : 0;
+		}
+		double expectedUniform = (double) draws / markovModel.getKeyCount();
+		assertTrue(Math.abs(uniformCat - expectedUniform) < expectedUniform * 0.1);
+		// cat occurred 3 times as often as mat
+		assertTrue(Math.abs(weightedCat / (double) weightedMat - 3.0) < 0.3);
+	}
+
+	public void testBoundaries() {
+		HashMarkovModel markovModel = new MarkovModelBuilder(3).addText(sampleText).build();
+		StartKeySampler words = new StartKeySampler(markovModel, false, StartKeySampler.Boundary.WORD);
+		StartKeySampler sentences = new StartKeySampler(markovModel, true, StartKeySampler.Boundary.SENTENCE);
+		Random rand = new SplitMixRandom(3L);
+		for (int n = 0; n < 1000; n++) {
+			String wordKey = markovModel.getKey(words.sample(rand));
+			// Its first chars followed a space somewhere
+			assertTrue(sampleText.contains(" " + wordKey.substring(0, 2)));
+			String sentenceKey = markovModel.getKey(sentences.sample(rand));
+			assertTrue(sentenceKey.equals("The") || sentenceKey.equals("A d"));
+		}
+		// "The" at the very start only counts because it follows ". " later
+		assertTrue(sentences.getCandidateCount() == 2);
+		assertTrue(new StartKeySampler(markovModel, false, StartKeySampler.Boundary.SENTENCE)
+				.getCandidateCount() == 2);
+	}
+
+	public void testGenerator() {
+		HashMarkovModel markovModel = new MarkovModelBuilder(4).addText(sampleText).build();
+		MarkovGenerator markovGenerator = new MarkovGenerator(markovModel, false,
+				new StartKeySampler(markovModel, false, StartKeySampler.Boundary.SENTENCE));
+		for (long seed = 0; seed < 20; seed++) {
+			String text = markovGenerator.generate(40, seed, null);
+			assertTrue(text.startsWith("The ") || text.startsWith("Then") || text.startsWith("A do"));
+		}
+
+		// No candidate key, nothing to generate
+		HashMarkovModel lowerCaseModel = new MarkovModelBuilder(4).addText("the cat sat on the mat").build();
+		assertTrue(new MarkovGenerator(lowerCaseModel, false,
+				new StartKeySampler(lowerCaseModel, false, StartKeySampler.Boundary.SENTENCE)).generate(40, 1L, null)
+						.isEmpty());
+	}
+}
@@ -0,0 +1,126 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the SuffixArrayIndex class
+ * 
+ * @author matthew.kindzerske
+ *
+ */
+public class SuffixArrayIndexTest extends TestCase {
+
+	private String sampleText = "The cat sat on the mat, the cat ate the rat; then the big dog (Rex) woke up!";
+
+	public void testSuffixArrayIsSorted() {
+		Random rand = new Random(3);
+		for (String text : new String[] { "", "a", "banana", "aaaaaaaa", sampleText }) {
+			char[] chars = text.toCharArray();
+			int[] suffixArray = SuffixArrayIndex.buildSuffixArray(chars);
+
+			String[] suffixes = new String[chars.length];
+			for (int n = 0; n < chars.length; n++) {
+				suffixes[n] = text.substring(n);
+			}
+			Arrays.sort(suffixes);
+			for (int r = 0; r < chars.length; r++) {
+				assertTrue(text.substring(suffixArray[r]).equals(suffixes[r]));
+			}
+		}
+
+		// Random text with long repeats
+		StringBuilder stringBuilder = new StringBuilder();
+		for (int n = 0; n < 2000; n++) {
+			stringBuilder.append(rand.nextBoolean() ? "ab" : "a");
+		}
+		char[] chars = stringBuilder.toString().toCharArray();
+		int[] suffixArray = SuffixArrayIndex.buildSuffixArray(chars);
+		for (int r = 1; r < chars.length; r++) {
+			String previous = stringBuilder.substring(suffixArray[r - 1]);
+			assertTrue(previous.compareTo(stringBuilder.substring(suffixArray[r])) < 0);
+		}
+	}
+
+	public void testMatchesHashMarkovModelForAnyKOrder() throws IOException {
+		String text2 = "Then the dog sat; the cat ran.";
+		SuffixArrayIndex index = new SuffixArrayIndex(new StringReader(sampleText), new StringReader(text2));
+		for (int kOrder = 1; kOrder <= 8; kOrder++) {
+			MarkovModel expected = new MarkovModelBuilder(kOrder).addText(sampleText).addText(text2).build();
+			MarkovModel actual = index.getMarkovModel(kOrder);
+			assertTrue(actual.getKOrder() == kOrder);
+			assertTrue(expected.getKeyCount() == actual.getKeyCount());
+
+			for (String text : new String[] { sampleText, text2 }) {
+				for (int end = kOrder; end <= text.length(); end++) {
+					long expectedState = expected.findState(text, end);
+					long actualState = actual.findState(text, end);
+					assertTrue((expectedState < 0) == (actualState < 0));
+					if (actualState >= 0) {
+						assertTrue(actual.getKey(actualState).equals(text.substring(end - kOrder, end)));
+						assertTrue(actual.getSubsequentCharsString(actualState)
+								.equals(expected.getSubsequentCharsString(expectedState)));
+						assertTrue(actual.getSubsequentCharCount(actualState) == expected
+								.getSubsequentCharCount(expectedState));
+					}
+				}
+			}
+		}
+	}
+
+	public void testTextsAreSeparate() {
+		SuffixArrayIndex index = new SuffixArrayIndex("abcd", "efgh");
+		MarkovModel markovModel = index.getMarkovModel(3);
+		// abc->d and efg->h only, nothing spanning "d" and "e"
+		assertTrue(markovModel.getKeyCount() == 2);
+		assertTrue(markovModel.findState("bcd", 3) == -1);
+		assertTrue(index.getTextLength() == 10);
+		assertTrue(index.getMarkovModel(5).getKeyCount() == 0);
+		assertTrue(new MarkovGenerator(index.getMarkovModel(5)).generate(10).equals(""));
+	}
+
+	public void testGenerate() {
+		SuffixArrayIndex index = new SuffixArrayIndex(sampleText);
+		for (int kOrder = 2; kOrder <= 6; kOrder++) {
+			MarkovModel markovModel = index.getMarkovModel(kOrder);
+			MarkovGenerator markovGenerator = new MarkovGenerator(markovModel);
+			String generatedText = markovGenerator.generate(200, 11L, null);
+			assertTrue(generatedText.equals(markovGenerator.generate(200, 11L, null)));
+			// Every key of the generated text was seen in the sample text
+			for (int end = kOrder; end < generatedText.length(); end++) {
+				assertTrue(sampleText.contains(generatedText.substring(end - kOrder, end + 1)));
+			}
+		}
+	}
+
+	public void testSamplingFollowsCounts() {
+		// 'a' is followed by 'b' three times and by 'c' once
+		MarkovModel markovModel = new SuffixArrayIndex("abacabab").getMarkovModel(1);
+		long state = markovModel.findState("a", 1);
+		Random rand = new Random(7);
+		int bCount = 0;
+		for (int n = 0; n < 4000; n++) {
+			char c = markovModel.getRandomSubsequentChar(state, rand);
+			assertTrue(c == 'b' || c == 'c');
+			bCount += c == 'b' ? 1 : 0;
+		}
+		assertTrue(bCount > 2800 && bCount < 3200);
+	}
+
+	public void testRandomStateIsUniformOverKeys() {
+		// 'a' occurs ten times as often as 'b', both are keys
+		MarkovModel markovModel = new SuffixArrayIndex("aaaaaaaaaaba").getMarkovModel(1);
+		assertTrue(markovModel.getKeyCount() == 2);
+		Random rand = new Random(5);
+		int bCount = 0;
+		for (int n = 0; n < 10000; n++) {
+			bCount += markovModel.getKey(markovModel.getRandomState(rand)).equals("b") ? 1 : 0;
+		}
+		assertTrue(bCount > 4500 && bCount < 5500);
+		assertTrue(new SuffixArrayIndex("a").getMarkovModel(1).getRandomState(rand) == -1);
+	}
+}
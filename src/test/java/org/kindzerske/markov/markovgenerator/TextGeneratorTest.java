@@ -1,5 +1,10 @@
 package org.kindzerske.markov.markovgenerator;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
 import junit.framework.TestCase;
 
 public class TextGeneratorTest extends TestCase {
@@ -17,4 +22,78 @@ public class TextGeneratorTest extends TestCase {
 		System.out.println(generatedText);
 		assertTrue(generatedText.length() < desiredTextLength);
 	}
+
+	public void testPackedAndStringKeyedPaths() {
+		// k=7 packs the 82 char alphabet of the sample, k=13 (4 bits per char)
+		// can not and falls back to String keys. Both walk the same text.
+		String sampleText = "/" + Utilities.SAMPLE_TEXTS_DIR + "PaulGraham_September2013.txt";
+		for (int kOrder : new int[] { 7, 13 }) {
+			TextGenerator textGenerator = new TextGenerator();
+			String generatedText = textGenerator.generateString(kOrder, 200, sampleText);
+			assertTrue(generatedText.length() > kOrder);
+			assertTrue(generatedText.equals(textGenerator.getGeneratedText()));
+		}
+	}
+
+	public void testQuietUnlessVerbose() throws IOException {
+		String sampleText = "/" + Utilities.SAMPLE_TEXTS_DIR + "PaulGraham_September2013_veryshort.txt";
+		PrintStream originalStream = System.out;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(out));
+		try {
+			TextGenerator textGenerator = new TextGenerator();
+			textGenerator.generateString(5, 100, sampleText);
+			textGenerator.setWordMode(true);
+			textGenerator.generateString(1, 20, new String[] { sampleText }, 1);
+			assertTrue(out.size() == 0);
+
+			textGenerator.setVerbose(true);
+			textGenerator.generateString(1, 20, new String[] { sampleText }, 1);
+			assertTrue(out.toString().contains("Trained"));
+		} finally {
+			System.setOut(originalStream);
+		}
+	}
+
+	public void testWordModelCanNotBeSaved() throws IOException {
+		TextGenerator textGenerator = new TextGenerator();
+		textGenerator.setWordMode(true);
+		textGenerator.generateString(2, 20, new String[] { "/" + Utilities.SAMPLE_TEXTS_DIR + "BarackObama_2008.txt" },
+				1);
+		try {
+			textGenerator.saveModel("unused.mrkv");
+			fail("Word mode models are not saved");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("word mode"));
+		}
+	}
+
+	public void testSaveAndGenerateFromModel() throws IOException {
+		File modelFile = File.createTempFile("model", ".mrkv");
+		modelFile.deleteOnExit();
+		TextGenerator textGenerator = new TextGenerator();
+		textGenerator.generateString(7, 50, "/" + Utilities.SAMPLE_TEXTS_DIR + "BarackObama_2008.txt");
+		textGenerator.saveModel(modelFile.getPath());
+
+		String generatedText = new TextGenerator().generateStringFromModel(300, modelFile.getPath());
+		assertTrue(generatedText.length() > 7);
+	}
+
+	public void testSeededGeneration() throws IOException {
+		String sampleText = "/" + Utilities.SAMPLE_TEXTS_DIR + "BarackObama_2008.txt";
+		TextGenerator textGenerator = new TextGenerator();
+		textGenerator.setSeed(2008);
+		String generatedText = textGenerator.generateString(7, 300, sampleText);
+
+		TextGenerator otherTextGenerator = new TextGenerator();
+		otherTextGenerator.setSeed(2008);
+		assertTrue(generatedText.equals(otherTextGenerator.generateString(7, 300, sampleText)));
+
+		// A saved model gives the same text for a seed every time it is loaded
+		File modelFile = File.createTempFile("model", ".mrkv");
+		modelFile.deleteOnExit();
+		textGenerator.saveModel(modelFile.getPath());
+		String modelText = textGenerator.generateStringFromModel(300, modelFile.getPath());
+		assertTrue(modelText.equals(otherTextGenerator.generateStringFromModel(300, modelFile.getPath())));
+	}
 }
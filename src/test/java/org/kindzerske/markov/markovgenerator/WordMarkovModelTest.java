@@ -0,0 +1,123 @@
+package org.kindzerske.markov.markovgenerator;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the word mode classes
+ * @author matthew.kindzerske
+ *
+ */
+public class WordMarkovModelTest extends TestCase {
+
+	String sampleText = "/sample_texts/PaulGraham_September2013.txt";
+
+	public void testWordMarkovCounts() {
+		WordMarkov wordMarkov = new WordMarkov(7);
+		wordMarkov.add(3);
+		wordMarkov.add(7);
+		wordMarkov.add(5);
+		assertEquals(4, wordMarkov.getCount());
+		assertEquals(3, wordMarkov.getSuccessorCount());
+		assertEquals(2, wordMarkov.getFrequencyCount(7));
+		wordMarkov.compile();
+		assertEquals(2, wordMarkov.getFrequencyCount(7));
+		assertEquals(1, wordMarkov.getFrequencyCount(3));
+		assertEquals(0, wordMarkov.getFrequencyCount(4));
+		try {
+			wordMarkov.add(3);
+			fail("Compiled WordMarkov accepted an add()");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	public void testTokenDictionary() {
+		TokenDictionary dictionary = new TokenDictionary();
+		int the = dictionary.intern("the");
+		assertEquals(1, the);
+		assertEquals(the, dictionary.intern("the"));
+		assertEquals(2, dictionary.intern("end."));
+		assertEquals(0, dictionary.idOf("missing"));
+		assertEquals("end.", dictionary.getToken(2));
+		assertEquals(2, dictionary.size());
+	}
+
+	public void testCounts() {
+		WordMarkovModel wordMarkovModel = new WordMarkovModelBuilder(1).addText("the cat and the dog and the cat")
+				.build();
+		assertTrue(wordMarkovModel.isPacked());
+		// the, cat, and, dog
+		assertEquals(4, wordMarkovModel.getKeyCount());
+		TokenDictionary dictionary = wordMarkovModel.getDictionary();
+		long state = wordMarkovModel.findState(new int[] { dictionary.idOf("the") }, 1);
+		assertEquals(2, wordMarkovModel.getSuccessorCount(state));
+		assertEquals("{cat=2, dog=1}", wordMarkovModel.getSuccessorsString(state));
+		assertEquals(-1, wordMarkovModel.findState(new int[] { 0 }, 1));
+	}
+
+	public void testTextsDoNotSpan() {
+		WordMarkovModel wordMarkovModel = new WordMarkovModelBuilder(1).addText("alpha beta").addText("gamma delta")
+				.build();
+		TokenDictionary dictionary = wordMarkovModel.getDictionary();
+		assertEquals(-1, wordMarkovModel.findState(new int[] { dictionary.idOf("beta") }, 1));
+		assertEquals(2, wordMarkovModel.getKeyCount());
+	}
+
+	public void testStreamedTokensAcrossBuffers() throws IOException {
+		// Longer than the read buffer, so tokens are split between reads
+		StringBuilder text = new StringBuilder();
+		for (int n = 0; n < 20000; n++) {
+			text.append("word").append(n % 7).append(n % 3 == 0 ? "\n" : "  ");
+		}
+		WordMarkovModel wordMarkovModel = new WordMarkovModelBuilder(2).addText(new StringReader(text.toString()))
+				.build();
+		assertEquals(7, wordMarkovModel.getDictionary().size());
+		assertEquals(7, wordMarkovModel.getKeyCount());
+	}
+
+	public void testPackedAndStringKeysAgree() {
+		// 300 distinct words do not fit the 8 bits per ID of kOrder 8
+		StringBuilder text = new StringBuilder();
+		Random rand = new SplitMixRandom(1);
+		for (int n = 0; n < 5000; n++) {
+			text.append('w').append(rand.nextInt(300)).append(' ');
+		}
+		WordMarkovModel stringKeyed = new WordMarkovModelBuilder(8).addText(text.toString()).build();
+		assertFalse(stringKeyed.isPacked());
+		WordMarkovModel packed = new WordMarkovModelBuilder(4).addText(text.toString()).build();
+		assertTrue(packed.isPacked());
+
+		for (WordMarkovModel wordMarkovModel : new WordMarkovModel[] { stringKeyed, packed }) {
+			for (int n = 0; n < 100; n++) {
+				long state = wordMarkovModel.getRandomState(rand);
+				int[] key = wordMarkovModel.getKey(state);
+				assertEquals(state, wordMarkovModel.findState(key, key.length));
+			}
+		}
+	}
+
+	public void testGenerate() throws IOException {
+		WordMarkovModel wordMarkovModel = new WordMarkovModelBuilder(2).addTextLocation(sampleText).build();
+		WordMarkovGenerator wordMarkovGenerator = new WordMarkovGenerator(wordMarkovModel);
+
+		String text = wordMarkovGenerator.generate(50, 42L, null);
+		assertEquals(text, wordMarkovGenerator.generate(50, 42L, null));
+		assertTrue(text.split(" ").length <= 50);
+
+		String continued = wordMarkovGenerator.generate(30, 7L, "the most");
+		assertTrue(continued.startsWith("the most "));
+		assertEquals("not in the text", wordMarkovGenerator.generate(30, 7L, "not in the text"));
+	}
+
+	public void testFewerKeysThanChars() throws IOException {
+		// A word model of a text has far fewer keys than a char model of it
+		WordMarkovModel wordMarkovModel = new WordMarkovModelBuilder(2).addTextLocation(sampleText).build();
+		MarkovModel markovModel = new MarkovModelBuilder(7).addTextLocation(sampleText).build();
+		assertTrue(wordMarkovModel.getKeyCount() < markovModel.getKeyCount());
+	}
+
+}